@@ -3,17 +3,15 @@ package com.telenor.possumexample.views;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.AppCompatImageView;
 import android.util.AttributeSet;
 
 import com.telenor.possumexample.R;
 import com.telenor.possumlib.AwesomePossum;
-import com.telenor.possumlib.interfaces.IPossumMessage;
-import com.telenor.possumlib.utils.Do;
+import com.telenor.possumlib.interfaces.IPossumPreview;
 
-public class PreviewImage extends AppCompatImageView implements IPossumMessage {
+public class PreviewImage extends AppCompatImageView implements IPossumPreview {
     private static final String tag = PreviewImage.class.getName();
     private boolean showsFace = false;
     public PreviewImage(Context context) {
@@ -38,46 +36,19 @@ public class PreviewImage extends AppCompatImageView implements IPossumMessage {
     }
 
     private void init(Context context) {
-        AwesomePossum.addMessageListener(context, this);
+        AwesomePossum.addPreviewListener(context, this);
     }
 
     public void destroy() {
-        AwesomePossum.removeMessageListener(this);
+        AwesomePossum.removePreviewListener(getContext(), this);
     }
 
     @Override
-    public void possumMessageReceived(String msgType, String message) {
-
-    }
-
-    @Override
-    public void possumFaceFound(final byte[] dataReceived) {
-        if (showsFace) {
-            final Bitmap image = BitmapFactory.decodeByteArray(dataReceived, 0, dataReceived.length);
-            Do.onMain(new Runnable() {
-                @Override
-                public void run() {
-                    setImageBitmap(image);
-                }
-            });
-        }
-    }
-
-    @Override
-    public void possumImageSnapped(byte[] dataReceived) {
-        if (!showsFace) {
-            final Bitmap image = BitmapFactory.decodeByteArray(dataReceived, 0, dataReceived.length);
-            Do.onMain(new Runnable() {
-                @Override
-                public void run() {
-                    setImageBitmap(image);
-                }
-            });
+    public void possumPreview(Bitmap image, boolean faceFound) {
+        if (faceFound == showsFace) {
+            // The library reuses the bitmap, so it must be redrawn even if it is the same instance
+            setImageBitmap(image);
+            invalidate();
         }
     }
-
-    @Override
-    public void possumFaceCoordsReceived(int[] xCoords, int[] yCoords) {
-
-    }
 }
\ No newline at end of file
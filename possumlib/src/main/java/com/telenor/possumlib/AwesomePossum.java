@@ -11,6 +11,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
@@ -28,20 +29,33 @@ import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.constants.Messaging;
 import com.telenor.possumlib.exceptions.GatheringNotAuthorizedException;
 import com.telenor.possumlib.interfaces.IPossumMessage;
+import com.telenor.possumlib.interfaces.IPossumPreview;
 import com.telenor.possumlib.interfaces.IPossumTrust;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.models.SampleSet;
+import com.telenor.possumlib.models.TrustSnapshot;
 import com.telenor.possumlib.services.CollectionService;
 import com.telenor.possumlib.services.DataUploadService;
 import com.telenor.possumlib.services.SendUserIdService;
 import com.telenor.possumlib.services.VerificationService;
+import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Has;
+import com.telenor.possumlib.utils.PossumRuntime;
+import com.telenor.possumlib.utils.SampleStore;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.face.FaceTemplateStore;
 
 import net.danlew.android.joda.JodaTimeAndroid;
 
 import org.joda.time.DateTime;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * SDK for handling all things related to the Awesome Possum project
@@ -67,9 +81,13 @@ public final class AwesomePossum {
     private static final String tag = AwesomePossum.class.getName();
     private static List<IPossumTrust> trustListeners = new ArrayList<>();
     private static List<IPossumMessage> messageListeners = new ArrayList<>();
+    private static List<IPossumPreview> previewListeners = new ArrayList<>();
+    private static BroadcastReceiver previewReceiver;
+    private static final Bitmap[] previewImages = new Bitmap[2];
     private static SharedPreferences preferences;
     private static boolean isListening;
-    private static JsonObject latestTrustScore;
+    private static final AtomicReference<TrustSnapshot> latestTrust = new AtomicReference<>(TrustSnapshot.EMPTY);
+    private static final AtomicLong trustSequence = new AtomicLong();
     private static DateTime lastAuthenticated;
 
     /**
@@ -102,43 +120,72 @@ public final class AwesomePossum {
         };
         context.registerReceiver(trustReceiver, new IntentFilter(Messaging.POSSUM_TRUST));
         context.registerReceiver(serviceMessageReceiver, new IntentFilter(Messaging.POSSUM_MESSAGE));
-        context.startService(new Intent(context, CollectionService.class));
+        context.startService(serviceIntent(context, CollectionService.class));
     }
 
+    /**
+     * Parses the response on the compute pool, then publishes it and tells the listeners on the
+     * main thread. A response parsed after a newer one is dropped.
+     */
     private static void handleTrustIntent(Intent intent) {
-        String message = intent.getStringExtra("message");
-        JsonObject object = (JsonObject) parser.parse(message);
-        latestTrustScore = new JsonObject();
-        latestTrustScore.add("trustscore", object.get("trustscore").getAsJsonObject());
-        JsonObject sensors = object.get("sensors").getAsJsonObject();
-        latestTrustScore.add("accelerometer", sensors.get("accelerometer").getAsJsonObject());
-        latestTrustScore.add("gyroscope", sensors.get("gyroscope").getAsJsonObject());
-        latestTrustScore.add("sound", sensors.get("sound").getAsJsonObject());
-        latestTrustScore.add("network", sensors.get("network").getAsJsonObject());
-        latestTrustScore.add("bluetooth", sensors.get("bluetooth").getAsJsonObject());
-        latestTrustScore.add("position", sensors.get("position").getAsJsonObject());
-        latestTrustScore.add("image", sensors.get("image").getAsJsonObject());
-        notifyTrustChange(DetectorType.Accelerometer, latestTrustScore("accelerometer"), latestStatus("accelerometer"));
-        notifyTrustChange(DetectorType.Gyroscope, latestTrustScore("gyroscope"), latestStatus("gyroscope"));
-        notifyTrustChange(DetectorType.Audio, latestTrustScore("sound"), latestStatus("sound"));
-        notifyTrustChange(DetectorType.Wifi, latestTrustScore("network"), latestStatus("network"));
-        notifyTrustChange(DetectorType.Bluetooth, latestTrustScore("bluetooth"), latestStatus("bluetooth"));
-        notifyTrustChange(DetectorType.Position, latestTrustScore("position"), latestStatus("position"));
-        notifyTrustChange(DetectorType.Image, latestTrustScore("image"), latestStatus("image"));
+        final String message = intent.getStringExtra("message");
+        final long sequence = trustSequence.incrementAndGet();
+        final long receivedAt = System.currentTimeMillis();
+        PossumRuntime.submit(PossumRuntime.compute(), new Callable<TrustSnapshot>() {
+            @Override
+            public TrustSnapshot call() throws Exception {
+                return TrustSnapshot.parse(message, sequence, receivedAt);
+            }
+        }, new ITaskCallback<TrustSnapshot>() {
+            @Override
+            public void taskDone(TrustSnapshot snapshot) {
+                if (publishTrust(snapshot)) {
+                    notifyTrustChange(snapshot);
+                }
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                for (IPossumTrust listener : trustListeners) {
+                    listener.failedToAscertainTrust(exception);
+                }
+            }
+        });
+    }
+
+    private static boolean publishTrust(TrustSnapshot snapshot) {
+        while (true) {
+            TrustSnapshot current = latestTrust.get();
+            if (!snapshot.isNewerThan(current)) return false;
+            if (latestTrust.compareAndSet(current, snapshot)) return true;
+        }
+    }
 
+    private static void notifyTrustChange(TrustSnapshot snapshot) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            notifyTrustChange(snapshot.detectorTypeAt(i), snapshot.scoreAt(i), snapshot.statusAt(i));
+        }
         for (IPossumTrust listener : trustListeners) {
-            listener.changeInCombinedTrust(latestTrustScore("trustscore"), latestStatus("trustscore"));
+            listener.changeInCombinedTrust(snapshot.combinedScore(), snapshot.combinedStatus());
         }
-        lastAuthenticated = DateTime.now();
+        lastAuthenticated = new DateTime(snapshot.receivedAt());
     }
 
+    /**
+     * The latest trust scores received. Can be called from any thread.
+     *
+     * @return the latest snapshot, or TrustSnapshot.EMPTY if none has been received
+     */
+    public static TrustSnapshot latestTrust() {
+        return latestTrust.get();
+    }
 
     public static String latestStatus(@NonNull String detector) {
-        return latestTrustScore.get(detector).getAsJsonObject().get("status").getAsString();
+        return latestTrust.get().status(detector);
     }
 
     public static float latestTrustScore(@NonNull String detector) {
-        return latestTrustScore.get(detector).getAsJsonObject().get("score").getAsFloat();
+        return latestTrust.get().score(detector);
     }
 
     public static String detectorNameByType(int detectorType) {
@@ -209,19 +256,92 @@ public final class AwesomePossum {
         init(context);
         // TODO: Should this be a separate method or should it be part of the "listen" method?
         if (forceAttempt || (lastAuthenticated == null || lastAuthenticated.plusMinutes(2).isBeforeNow())) {
-            Intent intent = new Intent(context, CollectionService.class);
+            Intent intent = serviceIntent(context, CollectionService.class);
             intent.putExtra("url", url);
             intent.putExtra("uniqueUserId", uniqueUserId);
             intent.putExtra("authenticating", true);
             intent.putExtra("apiKey", apiKey);
             intent.putExtra("startTime", System.currentTimeMillis());
+            intent.putExtra("preview", !previewListeners.isEmpty());
             context.startService(intent);
             return true;
         } else return false;
     }
 
+    /**
+     * Opt-in warm mode: the low cost detectors (accelerometer, gyroscope and magnetometer) keep
+     * listening and hold the last Constants.WARM_WINDOW of samples in fixed size ring buffers. An
+     * authenticate call then sends those samples right away instead of gathering for
+     * Constants.AUTHENTICATION_TIME first, leaving only the round trip to the server. Costs the
+     * battery of keeping those sensors on until stopWarm, stopListening or terminate.
+     *
+     * @param context      a valid android context
+     * @param uniqueUserId the users unique identifier
+     */
+    public static void startWarm(@NonNull Context context, @NonNull String uniqueUserId) {
+        init(context);
+        Intent intent = serviceIntent(context, CollectionService.class);
+        intent.putExtra("warm", true);
+        intent.putExtra("uniqueUserId", uniqueUserId);
+        context.startService(intent);
+    }
+
+    /**
+     * Stops warm mode, authentications gather before sending again
+     *
+     * @param context a valid android context
+     */
+    public static void stopWarm(@NonNull Context context) {
+        init(context);
+        Intent intent = serviceIntent(context, CollectionService.class);
+        intent.putExtra("warm", false);
+        context.startService(intent);
+    }
+
+    /**
+     * Asks the server to remove the data of the user for the given detectors. Face templates and
+     * samples kept on the device are not removed, use resetMyData(Context, ...) for that.
+     *
+     * @param uniqueUserId the unique user id
+     * @param url          the url of the reset
+     * @param apiKey       the key of the rest api
+     * @param detectors    names of the detectors to reset
+     */
     public static void resetMyData(@NonNull String uniqueUserId, @NonNull String url, @NonNull String apiKey, @NonNull JsonArray detectors) {
-        new ResetDataAsync(uniqueUserId, apiKey, detectors).execute(url);
+        new ResetDataAsync(uniqueUserId, apiKey, detectors).start(url);
+    }
+
+    /**
+     * Asks the server to remove the data of the user for the given detectors. The samples the
+     * detectors keep on the device are removed as well, and when the image detector is among them,
+     * the face templates enrolled on the device for the user.
+     *
+     * @param context      a valid android context
+     * @param uniqueUserId the unique user id
+     * @param url          the url of the reset
+     * @param apiKey       the key of the rest api
+     * @param detectors    names of the detectors to reset
+     */
+    public static void resetMyData(@NonNull Context context, @NonNull final String uniqueUserId, @NonNull String url, @NonNull String apiKey, @NonNull final JsonArray detectors) {
+        resetMyData(uniqueUserId, url, apiKey, detectors);
+        final File samples = FileUtil.getSampleDirectory(context);
+        PossumRuntime.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (JsonElement detector : detectors) {
+                    SampleStore.delete(samples, detector.getAsString());
+                }
+            }
+        });
+        if (detectors.contains(new JsonPrimitive(detectorNameByType(DetectorType.Image)))) {
+            final FaceTemplateStore templates = new FaceTemplateStore(FaceTemplateStore.directory(context), 0);
+            PossumRuntime.io().execute(new Runnable() {
+                @Override
+                public void run() {
+                    templates.clear(uniqueUserId);
+                }
+            });
+        }
     }
 
     private static void handleServiceIntent(@NonNull Context context, @NonNull Intent intent) {
@@ -244,23 +364,25 @@ public final class AwesomePossum {
                 editor.putString(Constants.UNIQUE_USER_ID, null);
                 editor.putString(Constants.TEMP_UNIQUE_USER_ID, null);
                 editor.apply();
+                final FaceTemplateStore templates = new FaceTemplateStore(FaceTemplateStore.directory(context), 0);
+                final File samples = FileUtil.getSampleDirectory(context);
+                PossumRuntime.io().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        templates.clearAll();
+                        SampleStore.deleteAll(samples);
+                    }
+                });
+                break;
+            case Messaging.LOCAL_FACE_SCORE:
+                // Scored on the device, so it is available without any server response
+                notifyTrustChange(DetectorType.Image, Float.parseFloat(intent.getStringExtra(Messaging.POSSUM_MESSAGE)), "local");
                 break;
             default:
         }
         for (IPossumMessage listener : messageListeners) {
             listener.possumMessageReceived(messageType, intent.getStringExtra(Messaging.POSSUM_MESSAGE));
         }
-        byte[] arrayReceived = intent.getByteArrayExtra("preview");
-        boolean foundFace = intent.getBooleanExtra("foundFace", false);
-        if (arrayReceived != null) {
-            for (IPossumMessage listener : messageListeners) {
-                if (foundFace) {
-                    listener.possumFaceFound(arrayReceived);
-                } else {
-                    listener.possumImageSnapped(arrayReceived);
-                }
-            }
-        }
         int[] xCoords = intent.getIntArrayExtra("xFaceFound");
         int[] yCoords = intent.getIntArrayExtra("yFaceFound");
         if (xCoords != null && yCoords != null) {
@@ -282,9 +404,10 @@ public final class AwesomePossum {
         init(context);
         if (isAuthorized(context, uniqueUserId)) {
             requestVerification(context, identityPoolId);
-            Intent intent = new Intent(context, CollectionService.class);
+            Intent intent = serviceIntent(context, CollectionService.class);
             intent.putExtra("isLearning", false);
             intent.putExtra("uniqueUserId", uniqueUserId);
+            intent.putExtra("preview", !previewListeners.isEmpty());
             context.startService(intent);
             isListening = true;
         } else throw new GatheringNotAuthorizedException();
@@ -366,6 +489,10 @@ public final class AwesomePossum {
             context = context.getApplicationContext(); // Important since context needs to be equal
             context.unregisterReceiver(serviceMessageReceiver);
             context.unregisterReceiver(trustReceiver);
+            if (previewReceiver != null) {
+                context.unregisterReceiver(previewReceiver);
+                previewReceiver = null;
+            }
         }
         initComplete = false;
 //        trustListeners.clear(); // TODO: This should be done manually, not implicitly
@@ -390,6 +517,66 @@ public final class AwesomePossum {
         messageListeners.remove(messageListener);
     }
 
+    /**
+     * Add a listener for preview images from the camera. Previews are only made while at least
+     * one listener is registered, and are limited to one every Constants.PREVIEW_INTERVAL
+     * milliseconds of each kind.
+     *
+     * @param context         a valid android context
+     * @param previewListener a listener you want to add
+     */
+    public static void addPreviewListener(@NonNull Context context, @NonNull IPossumPreview previewListener) {
+        init(context);
+        if (previewListeners.contains(previewListener)) return;
+        previewListeners.add(previewListener);
+        if (previewReceiver == null) {
+            previewReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    handlePreviewIntent(intent);
+                }
+            };
+            context.getApplicationContext().registerReceiver(previewReceiver, new IntentFilter(Messaging.POSSUM_PREVIEW));
+            Send.packageMessageIntent(context, Messaging.PREVIEW_ENABLE, "true");
+        }
+    }
+
+    /**
+     * Remove a specific listener for preview images. When the last one is removed, the image
+     * detector stops making previews.
+     *
+     * @param context         a valid android context
+     * @param previewListener a listener you want to remove
+     */
+    public static void removePreviewListener(@NonNull Context context, @NonNull IPossumPreview previewListener) {
+        previewListeners.remove(previewListener);
+        if (previewListeners.isEmpty() && previewReceiver != null) {
+            context.getApplicationContext().unregisterReceiver(previewReceiver);
+            previewReceiver = null;
+            previewImages[0] = null;
+            previewImages[1] = null;
+            Send.packageMessageIntent(context, Messaging.PREVIEW_ENABLE, "false");
+        }
+    }
+
+    private static void handlePreviewIntent(@NonNull Intent intent) {
+        int[] pixels = intent.getIntArrayExtra("pixels");
+        int width = intent.getIntExtra("width", 0);
+        int height = intent.getIntExtra("height", 0);
+        if (pixels == null || width <= 0 || height <= 0 || pixels.length != width * height) return;
+        boolean foundFace = intent.getBooleanExtra("foundFace", false);
+        int kind = foundFace ? 1 : 0;
+        Bitmap image = previewImages[kind];
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            previewImages[kind] = image;
+        }
+        image.setPixels(pixels, 0, width, 0, 0, width, height);
+        for (IPossumPreview listener : previewListeners) {
+            listener.possumPreview(image, foundFace);
+        }
+    }
+
     /**
      * Removes all listeners for Possum messages. Quick and easy way to clean up before terminating.
      */
@@ -405,7 +592,7 @@ public final class AwesomePossum {
      */
     public static boolean startUpload(@NonNull Context context, @NonNull String uniqueUserId, @NonNull String identityPoolId) {
         if (preferences == null) return false;
-        Intent intent = new Intent(context, DataUploadService.class);
+        Intent intent = serviceIntent(context, DataUploadService.class);
         intent.putExtra("uniqueUserId", uniqueUserId);
         intent.putExtra("identityPoolId", identityPoolId);
         boolean startedUpload;
@@ -417,6 +604,84 @@ public final class AwesomePossum {
 
     }
 
+    /**
+     * Streams the rows of an authentication to the server as NDJSON while they are gathered,
+     * instead of posting them as a single object at the end of the window. Only turn it on for a
+     * backend accepting the stream. Used from the next authentication on.
+     *
+     * @param context   a valid android context
+     * @param streaming true to stream authentications, false to post them (default)
+     */
+    public static void setStreamingAuth(@NonNull Context context, boolean streaming) {
+        init(context);
+        preferences.edit().putBoolean(Constants.STREAMING_AUTH, streaming).apply();
+    }
+
+    /**
+     * Checks whether authentications are streamed
+     *
+     * @return true if authentications are streamed, false if posted or library not initialized
+     */
+    public static boolean isStreamingAuth() {
+        return initComplete && preferences.getBoolean(Constants.STREAMING_AUTH, false);
+    }
+
+    /**
+     * Sends a summary of the faces found when authenticating, instead of the embedding of each
+     * face with its timestamp. Only turn it on for a backend parsing the summary rows. Used from
+     * the next authentication on.
+     *
+     * @param context a valid android context
+     * @param summary true to send the summary, false to send a row per face (default)
+     */
+    public static void setSummaryFaceAuth(@NonNull Context context, boolean summary) {
+        init(context);
+        preferences.edit().putBoolean(Constants.SUMMARY_FACE_AUTH, summary).apply();
+    }
+
+    /**
+     * Checks whether authentications send a summary of the faces
+     *
+     * @return true if the summary is sent, false if a row per face or library not initialized
+     */
+    public static boolean isSummaryFaceAuth() {
+        return initComplete && preferences.getBoolean(Constants.SUMMARY_FACE_AUTH, false);
+    }
+
+    /**
+     * Uploads the data of the detectors having a codec, like the motion detectors, encoded with
+     * it instead of as text. Only turn it on for a backend decoding the codecs. Used for the files
+     * staged from then on.
+     *
+     * @param context a valid android context
+     * @param encoded true to upload encoded data, false to upload text (default)
+     */
+    public static void setEncodedUploads(@NonNull Context context, boolean encoded) {
+        init(context);
+        preferences.edit().putBoolean(Constants.ENCODED_UPLOADS, encoded).apply();
+    }
+
+    /**
+     * Checks whether data is uploaded encoded
+     *
+     * @return true if encoded, false if text or library not initialized
+     */
+    public static boolean isEncodedUploads() {
+        return initComplete && preferences.getBoolean(Constants.ENCODED_UPLOADS, false);
+    }
+
+    /**
+     * An intent starting one of the services, carrying the options set on the library so they are
+     * known in the process of the service
+     */
+    private static Intent serviceIntent(@NonNull Context context, @NonNull Class<?> service) {
+        Intent intent = new Intent(context, service);
+        intent.putExtra(Constants.STREAMING_AUTH, preferences.getBoolean(Constants.STREAMING_AUTH, false));
+        intent.putExtra(Constants.SUMMARY_FACE_AUTH, preferences.getBoolean(Constants.SUMMARY_FACE_AUTH, false));
+        intent.putExtra(Constants.ENCODED_UPLOADS, preferences.getBoolean(Constants.ENCODED_UPLOADS, false));
+        return intent;
+    }
+
     /**
      * Checks whether the user is learning from the gathering or not
      *
@@ -465,6 +730,28 @@ public final class AwesomePossum {
         context.sendBroadcast(intent);
     }
 
+    /**
+     * Reads the samples a detector has kept on the device in a time range, for instance the last
+     * 30 seconds of gyroscope data for a local model. Only the motion detectors (accelerometer,
+     * gyroscope and magnetometer) keep samples, a few megabytes of the latest data, and the last
+     * couple of seconds may not have been written yet. Reads from storage, so avoid calling it on
+     * the main thread.
+     *
+     * @param context  a valid android context
+     * @param detector name of the detector, like "gyroscope"
+     * @param fromMs   first timestamp included, in millis
+     * @param toMs     timestamp the range ends before, in millis
+     * @return the samples, empty if there are none or they could not be read
+     */
+    public static SampleSet samples(@NonNull Context context, @NonNull String detector, long fromMs, long toMs) {
+        try {
+            return SampleStore.read(FileUtil.getSampleDirectory(context), detector, fromMs, toMs);
+        } catch (IOException e) {
+            Log.e(tag, "Unable to read samples of " + detector + ":", e);
+            return SampleSet.EMPTY;
+        }
+    }
+
     private static List<String> dangerousPermissions() {
         // Populate dangerous permissions
         List<String> dangerousPermissions = new ArrayList<>();
@@ -667,25 +954,12 @@ public final class AwesomePossum {
     }
 
     /**
-     * Yields a jsonObject containing all the latest trustScores received along with a timestamp
+     * Yields a jsonObject containing all the latest trustScores received. Made from
+     * latestTrust on each call, prefer that one to avoid the copy.
      *
-     * @return
+     * @return the latest trust scores as json
      */
     public static JsonObject latestTrustScore() {
-        if (latestTrustScore == null) {
-            latestTrustScore = new JsonObject();
-            JsonObject emptyObject = new JsonObject();
-            emptyObject.addProperty("status", "OK");
-            emptyObject.addProperty("score", 0);
-            latestTrustScore.add("trustscore", emptyObject);
-            latestTrustScore.add("accelerometer", emptyObject);
-            latestTrustScore.add("gyroscope", emptyObject);
-            latestTrustScore.add("sound", emptyObject);
-            latestTrustScore.add("network", emptyObject);
-            latestTrustScore.add("bluetooth", emptyObject);
-            latestTrustScore.add("position", emptyObject);
-            latestTrustScore.add("image", emptyObject);
-        }
-        return latestTrustScore;
+        return latestTrust.get().toJson();
     }
 }
\ No newline at end of file
@@ -86,11 +86,39 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
         }
     }
 
+    /**
+     * Sensor detectors are cheap enough to be kept warm
+     *
+     * @return true
+     */
+    @Override
+    public boolean isWarmable() {
+        return true;
+    }
+
+    /**
+     * Room for the window at the rate rows are stored at. Events closer than MIN_INTERVAL_MILLI
+     * are dropped before they become rows, however fast the sensor delivers.
+     *
+     * @param windowMillis the window of samples to keep
+     * @return number of rows the ring is made for
+     */
+    @Override
+    protected int warmCapacity(long windowMillis) {
+        return (int) (windowMillis / MIN_INTERVAL_MILLI) + 1;
+    }
+
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
         if (!isListening()) {
             return;
         }
+        int last = sessionValues.size() - 1;
+        if (last >= 0 && !keepWarm(sessionValues.get(last))) {
+            // Only warm, the row is not stored
+            sessionValues.remove(last);
+            return;
+        }
         storedValues++;
         long queue;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
@@ -99,7 +127,7 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
             queue = MINIMUM_SAMPLES;
         }
         if (storedValues >= queue) {
-            storeData(storedData());
+            storeData();
             storedValues = 0;
         }
     }
@@ -11,15 +11,31 @@ import com.google.gson.JsonObject;
 import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.changeevents.MetaDataChangeEvent;
 import com.telenor.possumlib.changeevents.PossumEvent;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
 import com.telenor.possumlib.interfaces.IPollComplete;
 import com.telenor.possumlib.interfaces.IPossumEventListener;
 import com.telenor.possumlib.interfaces.ISensorStatusUpdate;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.RotationPolicy;
+import com.telenor.possumlib.models.SampleRing;
+import com.telenor.possumlib.utils.BufferedAppender;
+import com.telenor.possumlib.utils.Do;
 import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.PossumOptions;
+import com.telenor.possumlib.utils.PossumRuntime;
+import com.telenor.possumlib.utils.SampleStore;
+import com.telenor.possumlib.utils.StorageQuota;
+import com.telenor.possumlib.utils.UploadIndex;
+import com.telenor.possumlib.utils.codec.CodecReport;
+import com.telenor.possumlib.utils.codec.Codecs;
 
 import org.joda.time.DateTime;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +57,23 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
     private IPollComplete pollListener;
     private boolean isAuthenticating; // Default not used for authenticating
     int storedValues;
+    private long fileStarted;
+    private BufferedAppender appender;
+    private boolean flushScheduled;
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushData();
+        }
+    };
+    private SampleStore sampleStore;
+    private volatile SampleRing ring;
+    private volatile long warmWindow;
+    private volatile boolean warmOnly;
+    private CodecReport codecReport;
+    private final Object stagingLock = new Object();
+    private static final String ROTATED = ".rotated.";
+    private static final RotationPolicy defaultRotation = new RotationPolicy(Constants.ROTATION_BYTES, Constants.ROTATION_INTERVAL);
 
     protected final List<JsonArray> sessionValues; // = new ConcurrentLinkedQueue<>()
     private final List<ISensorStatusUpdate> listeners = new ArrayList<>();
@@ -67,6 +100,15 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         this.uniqueUserId = uniqueUserId;
     }
 
+    /**
+     * The unique user id the detector is gathering data for
+     *
+     * @return the unique user id, or null if not set
+     */
+    public String uniqueUserId() {
+        return uniqueUserId;
+    }
+
     /**
      * Handy method for getting a present timestamp
      *
@@ -163,6 +205,7 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         if (sessionValues.size() > 0) {
             storeData();
         }
+        flushData();
         if (pollListener != null && isAuthenticating) {
             pollListener.pollComplete(this);
         }
@@ -170,11 +213,7 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
     }
 
     protected long uploadFilesSize() {
-        long filesSize = 0;
-        for (File file : FileUtil.getAllDetectorFiles(context(), detectorName())) {
-            filesSize += file.length();
-        }
-        return filesSize;
+        return UploadIndex.getInstance(context()).bytes(detectorName());
     }
 
     /**
@@ -192,7 +231,7 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
      * @return number of bytes taken up by file
      */
     public long fileSize() {
-        return storedData().length() + uploadFilesSize();
+        return storedData().length() + (appender != null ? appender.pendingBytes() : 0) + uploadFilesSize();
     }
 
     /**
@@ -201,12 +240,274 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
     public final void storeData() {
         lock();
         try {
-            storeData(storedData());
+            File file = storedData();
+            long sizeBefore = file.length();
+            if (fileStarted == 0 && sizeBefore > 0) {
+                // Left by an earlier run, it was written to at least as long ago as its last change
+                fileStarted = file.lastModified();
+            }
+            if (keepsSamples() && !isAuthenticating && !sessionValues.isEmpty()) {
+                keepSamples();
+            }
+            storeData(file);
+            if (sizeBefore == 0 && file.length() > 0) {
+                fileStarted = now();
+            }
+            if (rotationPolicy().shouldRotate(file.length(), fileStarted, now())) {
+                Log.i(tag, "Rotating " + detectorName() + " at " + file.length() + " bytes");
+                rotate();
+                fileStarted = 0;
+            }
         } finally {
             unlock();
         }
     }
 
+    /**
+     * Whether the detector is cheap enough to keep listening in warm mode, holding its latest
+     * rows in a ring buffer
+     *
+     * @return true if the detector can be warm, default false
+     */
+    public boolean isWarmable() {
+        return false;
+    }
+
+    /**
+     * Number of rows the ring buffer needs to hold a window of samples. Must be overridden by
+     * warmable detectors.
+     *
+     * @param windowMillis the window in millis
+     * @return number of rows
+     */
+    protected int warmCapacity(long windowMillis) {
+        return 0;
+    }
+
+    /**
+     * Starts or stops keeping the latest rows of the detector in a ring buffer. Rows already in
+     * the ring are kept as long as the window is unchanged.
+     *
+     * @param windowMillis the window of samples to keep, 0 to stop
+     * @param warmOnly     true if the rows are only for the ring, false if they are also stored
+     *                     or gathered for authentication as usual
+     */
+    public void setWarm(long windowMillis, boolean warmOnly) {
+        if (windowMillis <= 0 || !isWarmable()) {
+            ring = null;
+            warmWindow = 0;
+            this.warmOnly = false;
+            return;
+        }
+        if (ring == null || warmWindow != windowMillis) {
+            ring = new SampleRing(warmCapacity(windowMillis));
+            warmWindow = windowMillis;
+        }
+        this.warmOnly = warmOnly;
+    }
+
+    /**
+     * Whether the detector keeps its latest rows in a ring buffer
+     *
+     * @return true if warm
+     */
+    public boolean isWarm() {
+        return ring != null;
+    }
+
+    /**
+     * The rows of the warm window, in the same form as jsonData
+     *
+     * @return the rows, empty if the detector is not warm
+     */
+    public JsonArray warmData() {
+        SampleRing ring = this.ring;
+        return ring != null ? ring.snapshot(now() - warmWindow) : new JsonArray();
+    }
+
+    /**
+     * Passes a new row to the ring buffer when warm
+     *
+     * @param row the row just added
+     * @return true if the row should also be kept as usual, false if it is only for the ring
+     */
+    protected boolean keepWarm(@NonNull JsonArray row) {
+        SampleRing ring = this.ring;
+        if (ring == null) return true;
+        long timestamp;
+        try {
+            timestamp = row.get(0).getAsLong();
+        } catch (RuntimeException e) {
+            timestamp = now();
+        }
+        ring.add(timestamp, row);
+        return !warmOnly;
+    }
+
+    /**
+     * Whether the detector keeps its latest samples on the device, where they can be read back by
+     * time range with AwesomePossum.samples. Only worth it for detectors with timestamped numeric
+     * rows.
+     *
+     * @return true if samples are kept, default false
+     */
+    protected boolean keepsSamples() {
+        return false;
+    }
+
+    private void keepSamples() {
+        if (sampleStore == null) {
+            sampleStore = new SampleStore(FileUtil.getSampleDirectory(context()), detectorName(),
+                    Constants.SAMPLE_STORE_BYTES, Constants.SAMPLE_BLOCK_ROWS, Constants.SAMPLE_BLOCK_INTERVAL);
+        }
+        try {
+            sampleStore.append(sessionValues, now());
+        } catch (IOException e) {
+            Log.e(tag, "Failed to keep samples:", e);
+        }
+    }
+
+    /**
+     * How staged files of the detector are evicted when it is over its storage quota
+     *
+     * @return StorageQuota.EVICT_OLDEST or StorageQuota.EVICT_DOWNSAMPLE
+     */
+    protected int evictionPolicy() {
+        return StorageQuota.EVICT_OLDEST;
+    }
+
+    /**
+     * The codec the stored data of the detector is uploaded with, when encoded uploads are on.
+     * Override for detectors whose rows suit one of the other codecs.
+     *
+     * @return the codec of the detector
+     */
+    protected IDetectorCodec codec() {
+        return Codecs.TEXT;
+    }
+
+    /**
+     * Zips stored rows with the codec of the detector, if encoded uploads are on and the detector
+     * has a codec other than text
+     *
+     * @param text      the stored rows
+     * @param zip       the zip to write
+     * @param entryName name of the entry before the codec is added
+     * @return the zip, or null if the rows should be zipped as text instead
+     */
+    protected File encodedZip(@NonNull File text, @NonNull File zip, @NonNull String entryName) {
+        IDetectorCodec codec = codec();
+        if (!PossumOptions.encodedUploads() || codec == Codecs.TEXT) return null;
+        try {
+            InputStream input = new FileInputStream(text);
+            try {
+                codecReport = Codecs.encodeToZip(codec, input, zip, entryName);
+            } finally {
+                input.close();
+            }
+            Log.i(tag, "Encoded " + detectorName() + ": " + codecReport);
+            return zip;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(tag, "Unable to encode " + detectorName() + " with " + codec.name() + ", using text:", e);
+            FileUtil.deleteFile(zip);
+            return null;
+        }
+    }
+
+    /**
+     * The policy for when the stored data is staged for upload while the detector is still
+     * listening. Override for detectors needing other limits.
+     *
+     * @return the rotation policy of the detector
+     */
+    protected RotationPolicy rotationPolicy() {
+        return defaultRotation;
+    }
+
+    /**
+     * Starts a new stored data file, staging the full one. Called from storeData with the lock
+     * held, often on the main thread since the sensors deliver there, so only the file is moved
+     * aside here. It is compressed and staged on the compute pool.
+     */
+    protected void rotate() {
+        if (isAuthenticating) return;
+        closeAppender();
+        stageAside(storedData());
+    }
+
+    /**
+     * Renames a file to a pending name, and compresses and stages it on the compute pool. Must be
+     * called with the lock held and the file closed.
+     *
+     * @param file the stored data file
+     */
+    protected void stageAside(@NonNull File file) {
+        if (file.length() == 0) return;
+        final File pending = new File(file.getAbsolutePath() + ROTATED + now());
+        if (!file.renameTo(pending)) {
+            Log.e(tag, "Unable to move aside: " + file.getName());
+            return;
+        }
+        PossumRuntime.compute().execute(new Runnable() {
+            @Override
+            public void run() {
+                stageRotated(pending);
+            }
+        });
+    }
+
+    /**
+     * Compresses and stages a file moved aside by a rotation, unless that has been done already.
+     * Runs without the lock, the file is not written to anymore.
+     */
+    private void stageRotated(File pending) {
+        synchronized (stagingLock) {
+            if (!pending.exists()) return;
+            try {
+                File zip = new File(pending.getAbsolutePath() + ".zip");
+                File zipFile = zipRotated(pending, zip, storedData().getName());
+                if (zipFile != null && stageForUpload(zipFile) && !pending.delete()) {
+                    Log.e(tag, "Unable to delete: " + pending.getName());
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(tag, "Unable to stage " + pending.getName() + ":", e);
+            }
+        }
+    }
+
+    /**
+     * Stages the files rotations moved aside but did not get to stage, as when the process died
+     * before the compute pool got to them
+     */
+    protected void stageLeftoverRotations() {
+        File file = storedData();
+        File[] files = file.getParentFile().listFiles();
+        if (files == null) return;
+        String prefix = file.getName() + ROTATED;
+        for (File candidate : files) {
+            String name = candidate.getName();
+            // Only the pending files themselves, not zips or temporaries written from them
+            if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                stageRotated(candidate);
+            }
+        }
+    }
+
+    /**
+     * Writes the zip of a file moved aside by a rotation. Override for stored data that is not
+     * plain rows.
+     *
+     * @param pending   the file moved aside
+     * @param zip       the zip to write
+     * @param entryName name of the entry in the zip, as for the stored data
+     * @return the zip, or null if it could not be written
+     * @throws IOException if the zip could not be written
+     */
+    protected File zipRotated(@NonNull File pending, @NonNull File zip, @NonNull String entryName) throws IOException {
+        File zipFile = encodedZip(pending, zip, entryName);
+        return zipFile != null ? zipFile : FileUtil.zipFile(pending, zip, entryName);
+    }
+
     /**
      * Stores data and clears memory of stored data
      *
@@ -216,15 +517,80 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         if (isAuthenticating)
             return; // Should the app attempt to authenticate, ignore storing to file
         if (sessionValues.size() > 0) {
-            FileUtil.storeLines(file, sessionValues);
+            if (appender == null || !appender.file().equals(file)) {
+                closeAppender();
+                appender = new BufferedAppender(file, Constants.APPEND_FLUSH_BYTES, Constants.APPEND_FLUSH_INTERVAL);
+            }
+            try {
+                appender.append(sessionValues, now());
+            } catch (IOException e) {
+                Log.e(tag, "Write failed:", e);
+            }
+            if (appender.pendingBytes() > 0 && !flushScheduled) {
+                // Sparse detectors may not store again for a long time, so the rows are written
+                // within one flush interval even if nothing else is appended
+                flushScheduled = true;
+                Do.inBackgroundAfter(timedFlush, Constants.APPEND_FLUSH_INTERVAL);
+            }
             clearData();
         }
     }
 
+    /**
+     * Writes any buffered rows to the stored data file
+     */
+    protected void flushData() {
+        lock();
+        try {
+            flushScheduled = false;
+            if (appender != null) {
+                appender.flush();
+            }
+            if (sampleStore != null) {
+                sampleStore.flush();
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Flush failed:", e);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void closeAppender() {
+        if (appender != null) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                Log.e(tag, "Close failed:", e);
+            }
+            appender = null;
+        }
+    }
+
     public List<JsonArray> sessionValues() {
         return sessionValues;
     }
 
+    /**
+     * Copies the session values from an index under the lock, so rows added from another thread
+     * meanwhile are not torn. If there are fewer rows than the index, they have been cleared since
+     * and all of them are copied.
+     *
+     * @param from index of the first row to copy
+     * @param into list the rows are added to
+     * @return the number of session values
+     */
+    public int copySessionValues(int from, @NonNull List<JsonArray> into) {
+        lock();
+        try {
+            int size = sessionValues.size();
+            into.addAll(sessionValues.subList(from > size ? 0 : from, size));
+            return size;
+        } finally {
+            unlock();
+        }
+    }
+
     /**
      * Returns a json object with the common things needed to explain detector
      *
@@ -240,6 +606,11 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         object.addProperty("isEnabled", isEnabled());
         object.addProperty("isListening", isListening());
         object.addProperty("stored", storedData().length());
+        object.add("storage", StorageQuota.getInstance(context()).toJson(detectorName()));
+        object.addProperty("codec", codec().name());
+        if (codecReport != null) {
+            object.add("codecReport", codecReport.toJson());
+        }
         return object;
     }
 
@@ -256,12 +627,42 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return outputArr;
     }
 
+    /**
+     * Whether the session values can be streamed as they are gathered for an authentication. A
+     * detector whose authentication data is only known once it stops returns false, and its
+     * jsonData is sent after it has stopped instead.
+     *
+     * @return true if the session values are the authentication data, default true
+     */
+    public boolean streamsRows() {
+        return true;
+    }
+
+    /**
+     * Repairs whatever a killed process left of the stored data. Called in the background once
+     * the collection service starts, most detectors have nothing to repair.
+     */
+    public void recoverStoredData() {
+    }
+
     /**
      * Handles stopping to startListening and clearing all resources from a detector - or at least it should.
      * Each successive extension of the default method needs to handle its own resources
      */
     public void terminate() {
         stopListening();
+        lock();
+        try {
+            closeAppender();
+            if (sampleStore != null) {
+                sampleStore.close();
+                sampleStore = null;
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Close failed:", e);
+        } finally {
+            unlock();
+        }
     }
 
     /**
@@ -386,13 +787,20 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
             // Should not be a file to upload, ignoring rest of method
             return;
         }
+        stageLeftoverRotations();
         lock();
         try {
+            // The file is moved away, so it must not be held open
+            closeAppender();
             File file = storedData();
             if (file == null || file.length() == 0) {
                 return;
             }
-            File zipFile = FileUtil.zipFile(file, new File(file.getAbsolutePath() + ".zip"));
+            File zip = new File(file.getAbsolutePath() + ".zip");
+            File zipFile = encodedZip(file, zip, file.getName());
+            if (zipFile == null) {
+                zipFile = FileUtil.zipFile(file, zip);
+            }
             if (zipFile != null && stageForUpload(zipFile) && !file.delete()) {
                 Log.e(tag, "Unable to delete: " + file.getName());
             }
@@ -423,7 +831,10 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         if (!file.renameTo(dest)) {
             Log.e(tag, "Unable to stage: " + file.getName());
         } else {
+            UploadIndex.getInstance(context()).staged(dest);
             Log.i(tag, "Staged for upload:" + dest.getAbsolutePath());
+            // Only staged files count against the quota, evicting is left to the io pool
+            StorageQuota.getInstance(context()).enforceInBackground(detectorName(), evictionPolicy());
         }
         return true;
     }
@@ -453,6 +864,11 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
     }
 
     public void clearData() {
-        sessionValues.clear();
+        lock();
+        try {
+            sessionValues.clear();
+        } finally {
+            unlock();
+        }
     }
 }
\ No newline at end of file
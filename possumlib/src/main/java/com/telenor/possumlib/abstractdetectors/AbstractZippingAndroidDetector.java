@@ -5,22 +5,31 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.gson.JsonArray;
-import com.telenor.possumlib.models.CountingOutputStream;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.SegmentLog;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.PossumOptions;
+import com.telenor.possumlib.utils.StorageQuota;
+import com.telenor.possumlib.utils.codec.Codecs;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
- * Android detector for the huge detectors with lots of input that automatically sends data to zip stream
+ * Android detector for the huge detectors with lots of input. Data is appended to a segment log
+ * as it comes in, and turned into a zip when it is staged for upload, so a killed process loses at
+ * most the segment being written instead of the whole unfinished zip.
+ * <p>
+ * Stopping only closes the log. Turning it into a zip means inflating and deflating all of it, so
+ * that is left to prepareUpload, which is run in the background. A log rotated while listening is
+ * moved aside and zipped on the compute pool for the same reason.
  */
 public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegularDetector {
-    private volatile ZipOutputStream outerStream;
-    private CountingOutputStream innerStream;
+    private volatile SegmentLog segmentLog;
+    private boolean logRecovered;
 
     /**
      * Constructor for all android sensor zipping detectors (all the heavy duty ones, like
@@ -34,9 +43,30 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
         super(context, sensorType, eventBus);
     }
 
+    /**
+     * Old motion data is thinned out rather than deleted when over quota
+     *
+     * @return StorageQuota.EVICT_DOWNSAMPLE
+     */
+    @Override
+    protected int evictionPolicy() {
+        return StorageQuota.EVICT_DOWNSAMPLE;
+    }
+
+    /**
+     * Motion samples are kept for range queries
+     *
+     * @return true
+     */
+    @Override
+    protected boolean keepsSamples() {
+        return true;
+    }
+
     @Override
     public long fileSize() {
-        return uploadFilesSize() + (innerStream != null ? innerStream.getCount() : 0);
+        SegmentLog log = segmentLog;
+        return uploadFilesSize() + (log != null ? log.length() : storedData().length());
     }
 
     @Override
@@ -62,12 +92,34 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
         }
     }
 
+    /**
+     * Cuts off whatever a killed process left half written in the log, or salvages a zip left by
+     * an earlier version, before anything is appended to it
+     */
+    @Override
+    public void recoverStoredData() {
+        lock();
+        try {
+            recoverLogIfNeeded();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void recoverLogIfNeeded() {
+        if (!logRecovered && segmentLog == null) {
+            SegmentLog.recover(storedData());
+            logRecovered = true;
+        }
+    }
+
     private void openStreamIfNotOpen() throws IOException {
         lock();
         try {
-            if (outerStream == null) {
-                innerStream = new CountingOutputStream(new FileOutputStream(storedData()));
-                outerStream = createZipStream(innerStream);
+            if (segmentLog == null) {
+                // Done by the pass at service start, unless listening started before it ran
+                recoverLogIfNeeded();
+                segmentLog = new SegmentLog(storedData());
             }
         } finally {
             unlock();
@@ -77,10 +129,9 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
     private void closeStreamIfOpen() throws IOException {
         lock();
         try {
-            if (outerStream != null) {
-                outerStream.close();
-                outerStream = null;
-                stageForUpload(storedData());
+            if (segmentLog != null) {
+                segmentLog.close();
+                segmentLog = null;
             }
         } finally {
             unlock();
@@ -88,19 +139,96 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
     }
 
     /**
-     * Overridden basic store to file due to zipping nature. Question is: Do we make it use
-     * zipStream still or is that unnecessary now that it shouldn't record for hours?
+     * Turns the log into a zip with the same single entry the zip stream used to write, and
+     * stages it
+     *
+     * @throws IOException if the zip could not be written
+     */
+    private void stageLog() throws IOException {
+        File log = storedData();
+        if (log.length() == 0) return;
+        File zip = new File(log.getAbsolutePath() + ".zip");
+        if (writeZip(log, zip) && !stageForUpload(zip)) {
+            Log.e(tag, "Unable to stage: " + zip.getName());
+            return;
+        }
+        if (log.exists() && !log.delete()) {
+            Log.e(tag, "Unable to delete: " + log.getName());
+        }
+    }
+
+    /**
+     * Starts a new log, moving the full one aside to be zipped on the compute pool
+     */
+    @Override
+    protected void rotate() {
+        if (isAuthenticating()) return;
+        try {
+            boolean open = segmentLog != null;
+            closeStreamIfOpen();
+            stageAside(storedData());
+            if (open) {
+                openStreamIfNotOpen();
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Exception rotating log", e);
+        }
+    }
+
+    @Override
+    protected File zipRotated(@NonNull File pending, @NonNull File zip, @NonNull String entryName) throws IOException {
+        return writeZip(pending, zip, entryName) ? zip : null;
+    }
+
+    private boolean writeZip(File log, File zip) throws IOException {
+        return writeZip(log, zip, log.getName());
+    }
+
+    private boolean writeZip(File log, File zip, String entryName) throws IOException {
+        if (PossumOptions.encodedUploads() && codec() != Codecs.TEXT && log.length() > 0) {
+            File text = new File(log.getAbsolutePath() + ".txt");
+            try {
+                OutputStream output = new FileOutputStream(text);
+                try {
+                    SegmentLog.readSegments(log, output);
+                } finally {
+                    output.close();
+                }
+                if (encodedZip(text, zip, entryName) != null) return true;
+            } finally {
+                FileUtil.deleteFile(text);
+            }
+        }
+        return SegmentLog.toZip(log, zip, entryName);
+    }
+
+    /**
+     * Motion rows are timestamps and floats
+     *
+     * @return the motion codec
+     */
+    @Override
+    protected IDetectorCodec codec() {
+        return Codecs.MOTION;
+    }
+
+    /**
+     * Overridden basic store to file due to zipping nature. All values stored since the last time
+     * are written as one segment of the log.
      * @param file file to store data in
      */
     @Override
     protected void storeData(@NonNull File file) {
         if (isAuthenticating()) return;
-        for (JsonArray value : sessionValues) {
+        SegmentLog log = segmentLog;
+        if (log != null && !sessionValues.isEmpty()) {
+            StringBuilder lines = new StringBuilder();
+            for (JsonArray value : sessionValues) {
+                lines.append(value.toString()).append("\r\n");
+            }
             try {
-                if (outerStream != null) {
-                    outerStream.write(value.toString().getBytes());
-                    outerStream.write("\r\n".getBytes());
-                }
+                byte[] data = lines.toString().getBytes();
+                log.write(data, 0, data.length);
             } catch (Exception e) {
                 Log.e(tag, "FailedToWrite:", e);
             }
@@ -108,19 +236,20 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
         clearData();
     }
 
-    private ZipOutputStream createZipStream(OutputStream innerStream) throws IOException {
-        ZipOutputStream zipStream = new ZipOutputStream(innerStream);
-        ZipEntry entry = new ZipEntry(storedData().getName());
-        zipStream.putNextEntry(entry);
-        return zipStream;
-    }
-
+    /**
+     * Stages the log, whether it is open or was closed when the detector stopped. An open log is
+     * opened again afterwards.
+     */
     @Override
     public void prepareUpload() {
+        if (isAuthenticating()) return;
+        stageLeftoverRotations();
         lock();
         try {
-            if (outerStream != null) {
-                closeStreamIfOpen();
+            boolean open = segmentLog != null;
+            closeStreamIfOpen();
+            stageLog();
+            if (open) {
                 openStreamIfNotOpen();
             }
         } catch (IOException e) {
@@ -6,29 +6,51 @@ import com.amazonaws.mobileconnectors.s3.transferutility.TransferUtility;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.telenor.possumlib.asynctasks.AmazonAsyncUpload;
 import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.interfaces.ITaskCallback;
 import com.telenor.possumlib.interfaces.IWrite;
+import com.telenor.possumlib.utils.PossumRuntime;
 import com.telenor.possumlib.utils.Send;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Handles all upload to the amazon cloud
  */
 public abstract class AbstractAmazonUploadService extends AbstractAmazonService implements IWrite {
-    private AmazonAsyncUpload amazonAsyncUpload;
+    private Future<Void> upload;
+    private Future<List<File>> staging;
+    private boolean destroyed;
 
     /**
-     * Starts the actual upload, unless it has already started
+     * Starts the actual upload, unless it has already started. The files are staged on the io
+     * pool, since staging compresses the stored data of every detector.
      */
     @Override
     public void foundAmazonIdentity(AmazonS3Client amazonS3Client) {
         if (!taskStarted.get()) {
             taskStarted.set(true);
-            amazonAsyncUpload = new AmazonAsyncUpload(this, this,
-                    new TransferUtility(amazonS3Client, this),
-                    filesDesiredForUpload());
-            amazonAsyncUpload.execute((Void) null);
+            final TransferUtility transferUtility = new TransferUtility(amazonS3Client, this);
+            staging = PossumRuntime.submit(PossumRuntime.io(), new Callable<List<File>>() {
+                @Override
+                public List<File> call() throws Exception {
+                    return filesDesiredForUpload();
+                }
+            }, new ITaskCallback<List<File>>() {
+                @Override
+                public void taskDone(List<File> files) {
+                    if (destroyed) return;
+                    upload = new AmazonAsyncUpload(AbstractAmazonUploadService.this, AbstractAmazonUploadService.this, transferUtility, files).start();
+                }
+
+                @Override
+                public void taskFailed(Exception exception) {
+                    if (destroyed) return;
+                    uploadComplete(exception, null);
+                }
+            });
         }
     }
 
@@ -45,8 +67,12 @@ public abstract class AbstractAmazonUploadService extends AbstractAmazonService
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (amazonAsyncUpload != null && !amazonAsyncUpload.isCancelled()) {
-            amazonAsyncUpload.cancel(true);
+        destroyed = true;
+        if (staging != null) {
+            staging.cancel(false);
+        }
+        if (upload != null) {
+            upload.cancel(true);
         }
     }
 
@@ -75,7 +101,7 @@ public abstract class AbstractAmazonUploadService extends AbstractAmazonService
 
     /**
      * Method that must be overridden, this will show the extended service which files it is to use
-     * for uploading
+     * for uploading. Called on the io pool, so it may stage files before listing them.
      *
      * @return a list of file you want to upload
      */
@@ -7,17 +7,23 @@ import android.os.IBinder;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 
+import com.telenor.possumlib.utils.Do;
+import com.telenor.possumlib.utils.PossumRuntime;
+
 import net.danlew.android.joda.JodaTimeAndroid;
 
 import org.opencv.android.OpenCVLoader;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Bottom level service to hide binding and initialize Joda
+ * Bottom level service to hide binding and initialize Joda. When the last service of the process
+ * is destroyed, the thread pools of the library are shut down.
  */
 public abstract class AbstractBasicService extends Service {
     protected static final String tag = AbstractBasicService.class.getName();
+    private static final AtomicInteger runningServices = new AtomicInteger();
     protected AtomicBoolean taskStarted = new AtomicBoolean(false);
 
     @Override
@@ -39,6 +45,23 @@ public abstract class AbstractBasicService extends Service {
             Log.d(tag, "Invalid architecture. OpenCV not loaded");
         }
         JodaTimeAndroid.init(this);
+        runningServices.incrementAndGet();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (runningServices.decrementAndGet() == 0) {
+            // Posted so the work the subclass hands the pools in its own onDestroy is let in first
+            Do.onMain(new Runnable() {
+                @Override
+                public void run() {
+                    if (runningServices.get() == 0) {
+                        PossumRuntime.shutdown();
+                    }
+                }
+            });
+        }
     }
 
     private boolean correctArchitecture() {
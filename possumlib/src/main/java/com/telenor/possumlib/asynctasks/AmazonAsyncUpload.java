@@ -1,31 +1,68 @@
 package com.telenor.possumlib.asynctasks;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.amazonaws.mobileconnectors.s3.transferutility.TransferListener;
+import com.amazonaws.mobileconnectors.s3.transferutility.TransferObserver;
 import com.amazonaws.mobileconnectors.s3.transferutility.TransferState;
 import com.amazonaws.mobileconnectors.s3.transferutility.TransferUtility;
 import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.interfaces.ITaskCallback;
 import com.telenor.possumlib.interfaces.IWrite;
 import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.PendingTransfers;
+import com.telenor.possumlib.utils.PossumRuntime;
+import com.telenor.possumlib.utils.UploadIndex;
+import com.telenor.possumlib.utils.UploadManifest;
+import com.telenor.possumlib.utils.UploadScheduler;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class AmazonAsyncUpload extends AsyncTask<Void, Integer, Exception> {
+/**
+ * Uploads the staged files through the transfer utility. Files are sent in the order given by the
+ * UploadScheduler, with no more than a limited number of transfers running at once. Completed
+ * uploads are recorded in the UploadManifest before the file is deleted, so a file left behind is
+ * not sent twice.
+ * <p>
+ * Started transfers are kept in PendingTransfers until they finish. A transfer waiting for network
+ * is paused rather than canceled, so what has been sent is kept, and the run ends without starting
+ * the files still queued. The next run, or the first run after the process has died, attaches to
+ * the transfers left over and resumes them instead of sending their files again.
+ * <p>
+ * The files are planned, hashed and handed to the transfer utility on the network pool.
+ */
+public class AmazonAsyncUpload {
     protected Context context;
     private IWrite listener;
     private TransferUtility transferUtility;
     private List<File> filesToUpload;
+    private final UploadScheduler scheduler;
+    private final UploadManifest manifest;
+    private final PendingTransfers pendingTransfers;
+    private final Map<File, String> hashes = new ConcurrentHashMap<>();
+    private final int maxConcurrentUploads;
+    private final LinkedList<File> queue = new LinkedList<>();
+    private int activeUploads;
 
     private final AtomicInteger filesLeft = new AtomicInteger();
     private final AtomicInteger filesCanceled = new AtomicInteger();
     private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger filesWaiting = new AtomicInteger();
     private final AtomicLong bytesTransferred = new AtomicLong();
 
     private int totalNumberOfFiles;
@@ -33,63 +70,206 @@ public class AmazonAsyncUpload extends AsyncTask<Void, Integer, Exception> {
     private static final String tag = AmazonAsyncUpload.class.getName();
 
     public AmazonAsyncUpload(@NonNull Context context, @NonNull IWrite listener, @NonNull TransferUtility transferUtility, List<File> filesToUpload) {
+        this(context, listener, transferUtility, filesToUpload, Constants.UPLOAD_CONCURRENCY, Constants.UPLOAD_BYTE_BUDGET);
+    }
+
+    /**
+     * Constructor for the upload
+     *
+     * @param context              a valid android context
+     * @param listener             listener told when the upload is complete
+     * @param transferUtility      the transfer utility doing the actual transfers
+     * @param filesToUpload        the staged files
+     * @param maxConcurrentUploads the max number of transfers running at once
+     * @param byteBudget           the max number of bytes to send in this run
+     */
+    public AmazonAsyncUpload(@NonNull Context context, @NonNull IWrite listener, @NonNull TransferUtility transferUtility, List<File> filesToUpload, int maxConcurrentUploads, long byteBudget) {
         this.context = context;
         this.listener = listener;
         this.transferUtility = transferUtility;
         this.filesToUpload = filesToUpload;
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+        scheduler = new UploadScheduler(new File(context.getFilesDir(), UploadScheduler.STATE_FILE), byteBudget);
+        manifest = UploadManifest.getInstance(context);
+        pendingTransfers = new PendingTransfers(new File(context.getFilesDir(), PendingTransfers.STATE_FILE));
     }
 
-    @Override
-    protected Exception doInBackground(Void... params) {
-        return upload();
+    /**
+     * Starts the upload. A failure to start it is given to the listener as a completed upload
+     * with an exception.
+     *
+     * @return the future of starting the transfers, cancelling it means the listener is not told
+     * of a failure to start
+     */
+    public Future<Void> start() {
+        return PossumRuntime.submit(PossumRuntime.network(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                upload();
+                return null;
+            }
+        }, new ITaskCallback<Void>() {
+            @Override
+            public void taskDone(Void result) {
+                // The listener is told when the transfers are done
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                listener.uploadComplete(exception, null);
+            }
+        });
     }
 
     /**
      * The upload called in the background thread
-     * @return null if successful, or an exception if it failed
      */
-    private Exception upload() {
-        Log.d(tag, "Files ready for upload:"+filesToUpload.size());
-        totalNumberOfFiles = filesToUpload.size();
-        if (totalNumberOfFiles == 0) {
-            // This should not happen during normal use.
-            done();
+    private void upload() {
+        Map<File, TransferObserver> leftOver = leftOverTransfers();
+        filesToUpload = new ArrayList<>(filesToUpload);
+        filesToUpload.removeAll(leftOver.keySet());
+        // Files left behind by an earlier run after their upload completed are not sent again
+        filesToUpload = manifest.removeUploaded(filesToUpload, UploadIndex.getInstance(context));
+        List<File> planned = scheduler.plan(filesToUpload, System.currentTimeMillis());
+        hashes.clear();
+        Iterator<File> iterator = planned.iterator();
+        while (iterator.hasNext()) {
+            File file = iterator.next();
+            try {
+                // Hashed here, the transfer callbacks run on the main thread
+                hashes.put(file, UploadManifest.hash(file));
+            } catch (FileNotFoundException e) {
+                // Gone without the index being told, so it is dropped from it
+                Log.w(tag, "Staged file is missing: " + file.getName());
+                UploadIndex.getInstance(context).removed(file);
+                iterator.remove();
+            } catch (IOException e) {
+                Log.e(tag, "Unable to hash " + file.getName() + ":", e);
+            }
+        }
+        for (File file : leftOver.keySet()) {
+            try {
+                hashes.put(file, UploadManifest.hash(file));
+            } catch (IOException e) {
+                Log.e(tag, "Unable to hash " + file.getName() + ":", e);
+            }
         }
+        Log.d(tag, "Files ready for upload:" + filesToUpload.size() + ", sending " + planned.size() + " this run, resuming " + leftOver.size());
+        totalNumberOfFiles = planned.size() + leftOver.size();
         filesLeft.set(totalNumberOfFiles);
         filesCanceled.set(0);
         filesFailed.set(0);
+        filesWaiting.set(0);
         bytesTransferred.set(0);
-        for (File file : filesToUpload ) {
-            transferUtility // Switch out upload below with a path?
-                    .upload(Constants.BUCKET, FileUtil.toBucketKey(file), file)
-                    .setTransferListener(createTransferListener(file, filesLeft));
+        if (totalNumberOfFiles == 0) {
+            // This should not happen during normal use.
+            done();
+            return;
+        }
+        synchronized (queue) {
+            queue.addAll(planned);
+            activeUploads = leftOver.size();
+        }
+        for (Map.Entry<File, TransferObserver> entry : leftOver.entrySet()) {
+            TransferObserver observer = entry.getValue();
+            TransferListener transferListener = createTransferListener(entry.getKey());
+            observer.setTransferListener(transferListener);
+            if (observer.getState() == TransferState.COMPLETED) {
+                transferListener.onStateChanged(observer.getId(), TransferState.COMPLETED);
+            } else {
+                transferUtility.resume(observer.getId());
+            }
         }
-        return null;
+        startNextUploads();
     }
 
-    private TransferListener createTransferListener(final File file, final AtomicInteger filesLeft) {
+    /**
+     * Finds the transfers earlier runs started and did not see finish. Transfers the transfer
+     * utility no longer has, or has given up on, are forgotten and their files planned as usual.
+     *
+     * @return the transfers to attach to, by file
+     */
+    private Map<File, TransferObserver> leftOverTransfers() {
+        Map<File, TransferObserver> leftOver = new LinkedHashMap<>();
+        for (Map.Entry<Integer, File> entry : pendingTransfers.all().entrySet()) {
+            int id = entry.getKey();
+            File file = entry.getValue();
+            TransferObserver observer = transferUtility.getTransferById(id);
+            if (observer == null || !file.exists() || observer.getState() == TransferState.CANCELED || observer.getState() == TransferState.FAILED) {
+                pendingTransfers.finished(id);
+            } else {
+                leftOver.put(file, observer);
+            }
+        }
+        return leftOver;
+    }
+
+    /**
+     * Starts transfers from the queue until the concurrency limit is reached
+     */
+    private void startNextUploads() {
+        while (true) {
+            File file;
+            synchronized (queue) {
+                if (activeUploads >= maxConcurrentUploads || queue.isEmpty()) return;
+                file = queue.removeFirst();
+                activeUploads++;
+            }
+            TransferObserver observer = transferUtility // Switch out upload below with a path?
+                    .upload(Constants.BUCKET, FileUtil.toBucketKey(file), file);
+            pendingTransfers.started(observer.getId(), file);
+            observer.setTransferListener(createTransferListener(file));
+        }
+    }
+
+    private TransferListener createTransferListener(final File file) {
         return new TransferListener() {
+            private boolean settled;
+
             @Override
             public void onStateChanged(int id, TransferState state) {
                 switch (state) {
                     case WAITING_FOR_NETWORK:
-                        transferUtility.cancel(id);
+                        // Paused so it is kept for the next run, which resumes it. Without
+                        // network the files still queued would only wait as well, so the run ends.
+                        transferUtility.pause(id);
+                        int dropped;
+                        synchronized (queue) {
+                            if (settled) break;
+                            dropped = queue.size();
+                            queue.clear();
+                        }
+                        Log.w(tag, "Waiting for network: " + file.getName() + ", leaving " + dropped + " files for the next run");
+                        filesWaiting.getAndIncrement();
+                        settle(1 + dropped);
                         break;
                     case COMPLETED:
+                        pendingTransfers.finished(id);
+                        String hash = hashes.remove(file);
+                        if (hash != null) {
+                            manifest.confirmed(FileUtil.toBucketKey(file), hash);
+                        }
                         if (!file.delete()) {
                             Log.e(tag, "Could not delete after upload: " + file);
+                        } else {
+                            UploadIndex.getInstance(context).removed(file);
                         }
-                        oneDone();
+                        scheduler.succeeded(file);
+                        settle(1);
                         break;
                     case CANCELED:
                         Log.w(tag, "Cancelled: " + file.getName());
-                        filesCanceled.getAndIncrement();
-                        oneDone();
+                        pendingTransfers.finished(id);
+                        scheduler.failed(file, System.currentTimeMillis());
+                        if (!settled) filesCanceled.getAndIncrement();
+                        settle(1);
                         break;
                     case FAILED:
                         Log.w(tag, "Failed: " + file.getName());
-                        filesFailed.getAndIncrement();
-                        oneDone();
+                        pendingTransfers.finished(id);
+                        scheduler.failed(file, System.currentTimeMillis());
+                        if (!settled) filesFailed.getAndIncrement();
+                        settle(1);
                         break;
                     default:
                 }
@@ -105,9 +285,22 @@ public class AmazonAsyncUpload extends AsyncTask<Void, Integer, Exception> {
                 Log.w(tag, ex);
             }
 
-            private void oneDone() {
-                if (filesLeft.decrementAndGet() == 0) {
+            /**
+             * Counts the transfer, and the files given up with it, as done for this run. A
+             * transfer is only counted once, even if it completes after it was paused.
+             *
+             * @param files number of files done
+             */
+            private void settle(int files) {
+                synchronized (queue) {
+                    if (settled) return;
+                    settled = true;
+                    activeUploads--;
+                }
+                if (filesLeft.addAndGet(-files) == 0) {
                     done();
+                } else {
+                    startNextUploads();
                 }
             }
         };
@@ -122,11 +315,15 @@ public class AmazonAsyncUpload extends AsyncTask<Void, Integer, Exception> {
         } else {
             int canceled = filesCanceled.get();
             int failed = filesFailed.get();
-            int unsuccessful = canceled + failed;
+            int waiting = filesWaiting.get();
+            int unsuccessful = canceled + failed + waiting;
             if (unsuccessful > 0) {
                 exception = new Exception("Upload "+ (unsuccessful == totalNumberOfFiles ? "" : "partly ") + "unsuccessful");
             }
+            if (waiting > 0) {
+                message = waiting + " uploads paused until the network is back";
+            }
         }
         listener.uploadComplete(exception, message);
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,5 @@
 package com.telenor.possumlib.asynctasks;
 
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -8,15 +7,20 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3Object;
 import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.interfaces.IOnVerify;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.utils.PossumRuntime;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
- * Downloads the verification file content into a string and returns it
+ * Downloads the verification file content into a string on the network pool, and tells the
+ * listener on the main thread whether possum may run
  */
-public class AsyncAmazonVerification extends AsyncTask<AmazonS3Client, Void, String> {
+public class AsyncAmazonVerification {
     private String bucketKey;
     private IOnVerify listener;
 
@@ -27,9 +31,32 @@ public class AsyncAmazonVerification extends AsyncTask<AmazonS3Client, Void, Str
         this.listener = listener;
     }
 
-    @Override
-    protected String doInBackground(AmazonS3Client... params) {
-        AmazonS3Client amazonS3Client = params[0];
+    /**
+     * Starts the download
+     *
+     * @param amazonS3Client the client to download with
+     * @return the future of the download
+     */
+    public Future<String> start(@NonNull final AmazonS3Client amazonS3Client) {
+        return PossumRuntime.submit(PossumRuntime.network(), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return download(amazonS3Client);
+            }
+        }, new ITaskCallback<String>() {
+            @Override
+            public void taskDone(String answer) {
+                verified(answer);
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                verified(null);
+            }
+        });
+    }
+
+    private String download(AmazonS3Client amazonS3Client) {
         S3Object object = amazonS3Client.getObject(Constants.BUCKET, bucketKey);
         BufferedReader reader = new BufferedReader(new InputStreamReader(object.getObjectContent()));
         try {
@@ -47,8 +74,7 @@ public class AsyncAmazonVerification extends AsyncTask<AmazonS3Client, Void, Str
             }
         }
     }
-    @Override
-    protected void onPostExecute(String answer) {
+    private void verified(String answer) {
         if (answer == null) {
             listener.allowAwesomePossumToRun();
         } else {
@@ -1,20 +1,22 @@
 package com.telenor.possumlib.asynctasks;
 
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.telenor.possumlib.functionality.RestClient;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.utils.PossumRuntime;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
- * Quick and dirty async task for doing rest call that resets all data
+ * Quick and dirty task for doing rest call that resets all data, run on the network pool
  */
-public class ResetDataAsync extends AsyncTask<String, Void, Exception> {
+public class ResetDataAsync {
     private String uniqueUserId;
     private String apiKey;
     private JsonArray detectorsToReset;
@@ -25,37 +27,31 @@ public class ResetDataAsync extends AsyncTask<String, Void, Exception> {
         this.detectorsToReset = detectorsToReset;
     }
 
-    @Override
-    protected Exception doInBackground(String... params) {
-        String url = params[0];
-        if (url == null) return new IllegalArgumentException("Missing url");
-        try {
-            URL myUrl = new URL(url);
-            HttpURLConnection urlConnection = (HttpURLConnection) myUrl.openConnection();
-            JsonObject object = new JsonObject();
-            object.addProperty("connectId", uniqueUserId);
-            object.add("sensors", detectorsToReset);
-            urlConnection.setRequestProperty("x-api-key", apiKey);
-            urlConnection.setRequestMethod("POST");
-            byte[] data = object.toString().getBytes();
-            urlConnection.setFixedLengthStreamingMode(data.length);
-            urlConnection.connect();
+    /**
+     * Posts the reset
+     *
+     * @param url the url of the reset
+     * @return the future of the reset
+     */
+    public Future<String> start(@NonNull final String url) {
+        return PossumRuntime.submit(PossumRuntime.network(), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                JsonObject object = new JsonObject();
+                object.addProperty("connectId", uniqueUserId);
+                object.add("sensors", detectorsToReset);
+                return RestClient.getInstance().post(new URL(url), apiKey, object.toString().getBytes());
+            }
+        }, new ITaskCallback<String>() {
+            @Override
+            public void taskDone(String response) {
+                Log.i(tag, "Successfully removed data, response:" + response);
+            }
 
-            OutputStream os = urlConnection.getOutputStream();
-            os.write(data);
-            Log.i(tag, "Response:"+urlConnection.getResponseCode()+", "+urlConnection.getResponseMessage()+", apiKey:"+apiKey);
-        } catch (Exception e) {
-            return e;
-        }
-        return null;
-    }
-
-    @Override
-    protected void onPostExecute(Exception result) {
-        if (result == null) {
-            Log.i(tag, "Successfully removed data");
-        } else {
-            Log.e(tag, "Failed to reset:",result);
-        }
+            @Override
+            public void taskFailed(Exception exception) {
+                Log.e(tag, "Failed to reset:", exception);
+            }
+        });
     }
 }
@@ -1,53 +1,80 @@
 package com.telenor.possumlib.asynctasks.modelloaders;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.res.AssetFileDescriptor;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.telenor.possumlib.constants.DetectorType;
-import com.telenor.possumlib.interfaces.IModelLoaded;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.models.ModelRegistry;
+import com.telenor.possumlib.tensorflow.GraphNodes;
 import com.telenor.possumlib.tensorflow.TensorFlowInferenceInterface;
+import com.telenor.possumlib.utils.ImageUtils;
+import com.telenor.possumlib.utils.PossumRuntime;
 
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
-public class TensorLoad extends AsyncTask<Void, Void, Boolean> {
-    private IModelLoaded listener;
+/**
+ * Loads the face recognition graph and runs a warm up inference on it, reporting the result and
+ * timings to the model registry. The load runs on the compute pool, the registry is told on the main
+ * thread.
+ */
+public class TensorLoad {
+    private ModelRegistry registry;
     private Context context;
     private TensorFlowInferenceInterface tensorInterface;
+    private boolean isMapped;
+    private long loadMillis;
+    private long warmUpMillis;
     private static final String fileName = "tensorflow_facerecognition.pb";
     private static final String fullPath = "file:///android_asset/" + fileName;
     private static final String tag = TensorLoad.class.getName();
 
-    public TensorLoad(Context context, IModelLoaded listener) {
+    public TensorLoad(Context context, ModelRegistry registry) {
         this.context = context;
-        this.listener = listener;
+        this.registry = registry;
     }
 
-    @Override
-    protected Boolean doInBackground(Void... params) {
+    /**
+     * Starts the load
+     *
+     * @return the future of the load
+     */
+    public Future<Boolean> start() {
+        return PossumRuntime.submit(PossumRuntime.compute(), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return load();
+            }
+        }, new ITaskCallback<Boolean>() {
+            @Override
+            public void taskDone(Boolean result) {
+                registry.modelLoaded(DetectorType.Image, result ? tensorInterface : null, isMapped, loadMillis, warmUpMillis);
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                registry.modelLoaded(DetectorType.Image, null, isMapped, loadMillis, warmUpMillis);
+            }
+        });
+    }
+
+    private boolean load() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            String[] paths;
-            try {
-                paths = context.getAssets().list("");
-            } catch (IOException e) {
+            if (!findModelFile()) {
+                Log.w(tag, "No tensorFlow file is found in assets, ignoring image detector");
                 return false;
             }
-            if (paths.length == 0) {
-                Log.w(tag, "No tensorFlow file found - no assets, ignoring image detector");
-                return false;
-            } else {
-                boolean tensorFlowIsFound = false;
-                for (String file : paths) {
-                    if (file.equals(fileName)) tensorFlowIsFound = true;
-                }
-                if (!tensorFlowIsFound) {
-                    Log.w(tag, "No tensorFlow file is found in assets, ignoring image detector");
-                    return false;
-                }
-            }
             Log.d(tag, "Starting initialize of TensorFlow");
             try {
+                long start = SystemClock.elapsedRealtime();
                 tensorInterface = new TensorFlowInferenceInterface();
                 if (tensorInterface.initialize(context)) {
                     final int status = tensorInterface.initializeTensorFlow(context.getAssets(),
@@ -56,7 +83,9 @@ public class TensorLoad extends AsyncTask<Void, Void, Boolean> {
                         Log.e(tag, "TF init status: " + status);
                         return false;
                     }
+                    loadMillis = SystemClock.elapsedRealtime() - start;
                     Log.d(tag, "Model loaded");
+                    warmUp(readGraphNodes());
                     return true;
                 } else {
                     Log.w(tag, "Failed to initialize TensorFlow");
@@ -68,8 +97,75 @@ public class TensorLoad extends AsyncTask<Void, Void, Boolean> {
         } else return false;
     }
 
-    @Override
-    protected void onPostExecute(Boolean result) {
-        if (result) listener.modelLoaded(DetectorType.Image, tensorInterface);
+    /**
+     * Looks for the model directly instead of listing all assets. An uncompressed asset can be
+     * opened as a file descriptor, which also means the native asset loader maps it rather than
+     * reading it into memory.
+     *
+     * @return true if the model file is present
+     */
+    private boolean findModelFile() {
+        try {
+            AssetFileDescriptor descriptor = context.getAssets().openFd(fileName);
+            descriptor.close();
+            isMapped = true;
+            return true;
+        } catch (FileNotFoundException e) {
+            // Either missing or compressed, check if it can be opened as a stream
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            InputStream stream = context.getAssets().open(fileName);
+            stream.close();
+            Log.i(tag, "Model is compressed in the apk and cannot be mapped, add noCompress 'pb' to aaptOptions");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the input and output nodes from the graph, for the batched path
+     *
+     * @return the nodes, or null if the graph could not be read
+     */
+    private GraphNodes readGraphNodes() {
+        try {
+            InputStream stream = context.getAssets().open(fileName);
+            try {
+                GraphNodes nodes = GraphNodes.read(new BufferedInputStream(stream));
+                Log.d(tag, "Graph nodes: " + nodes);
+                return nodes;
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(tag, "Unable to read graph nodes, batched inference disabled:", e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs a single blank face through the graph, so the first real face does not pay for the
+     * lazy initialization done on the first session run. The single face path resolves its nodes
+     * natively, its output gives the embedding size the batched path needs. When the graph can be
+     * batched, a blank face is run through that path as well.
+     *
+     * @param nodes the nodes read from the graph, or null
+     */
+    private void warmUp(GraphNodes nodes) {
+        long start = SystemClock.elapsedRealtime();
+        int width = ImageUtils.BMP_WIDTH;
+        float[] weights = tensorInterface.getWeights(new int[width * width * 3]);
+        if (nodes != null && nodes.isBatchable() && weights != null && weights.length > 0) {
+            tensorInterface.setBatchNodes(nodes.inputNode(), nodes.outputNode(), weights.length);
+            if (tensorInterface.getWeights(new float[width * width * 3], 1, width) == null) {
+                Log.w(tag, "Batched inference failed on " + nodes + ", only single faces are used");
+            }
+        } else {
+            Log.i(tag, "Graph cannot be batched, only single faces are used: " + nodes);
+        }
+        warmUpMillis = SystemClock.elapsedRealtime() - start;
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,9 @@ public class Constants {
     public static final String UNIQUE_USER_ID = "uniqueUserId"; // the unique user id
     public static final String TEMP_UNIQUE_USER_ID = "tempUniqueUserId"; // Temp store until confirmed from S3
     public static final String IS_LEARNING = "isLearning";
+    public static final String STREAMING_AUTH = "streamingAuth"; // stream authentications as NDJSON
+    public static final String SUMMARY_FACE_AUTH = "summaryFaceAuth"; // send a summary of the faces when authenticating
+    public static final String ENCODED_UPLOADS = "encodedUploads"; // upload data with the codecs of the detectors
 
     // These should not be part of the library...I think...
     public static final String START_TIME = "startTime";
@@ -15,4 +18,49 @@ public class Constants {
 
     // Defines how long it should spend trying to gather data for authentication. Default = 5 seconds (in milliseconds)
     public static final int AUTHENTICATION_TIME = 3000;
-}
\ No newline at end of file
+    // Window of samples warm detectors keep for an authentication sent right away, the same as gathered otherwise (in milliseconds)
+    public static final long WARM_WINDOW = AUTHENTICATION_TIME;
+    // Time between each frame of rows streamed during authentication (in milliseconds)
+    public static final int AUTH_STREAM_INTERVAL = 500;
+    // Whether a connection to the authentication server is opened when the window starts, so the
+    // post at its end does not wait for dns, tcp and tls
+    public static final boolean AUTH_PRECONNECT = true;
+    // Combined trust score an authentication must get from the server before the faces of its
+    // session are enrolled for verifying on the device
+    public static final float ENROLL_MIN_TRUST = 0.9f;
+    // Timeout for connecting to the rest api (in milliseconds)
+    public static final int REST_CONNECT_TIMEOUT = 10000;
+    // Timeout for each read of a response from the rest api (in milliseconds)
+    public static final int REST_READ_TIMEOUT = 30000;
+
+    // Minimum time between two preview images of the same kind sent to the app (in milliseconds)
+    public static final int PREVIEW_INTERVAL = 200;
+
+    // Max number of files uploaded at the same time
+    public static final int UPLOAD_CONCURRENCY = 2;
+    // Max number of bytes sent in one upload run (in bytes)
+    public static final long UPLOAD_BYTE_BUDGET = 20 * 1024 * 1024;
+
+    // Size at which a detector closes its output file and stages it for upload (in bytes)
+    public static final long ROTATION_BYTES = 4 * 1024 * 1024;
+    // Time after which a detector closes its output file and stages it for upload (in milliseconds)
+    public static final long ROTATION_INTERVAL = 15 * 60 * 1000;
+
+    // Max number of bytes staged for upload in total (in bytes)
+    public static final long STORAGE_QUOTA = 200 * 1024 * 1024;
+    // Max number of bytes staged for upload by one detector (in bytes)
+    public static final long DETECTOR_STORAGE_QUOTA = 50 * 1024 * 1024;
+
+    // Number of buffered bytes at which a detector writes its rows to file (in bytes)
+    public static final long APPEND_FLUSH_BYTES = 16 * 1024;
+    // Time after which a detector writes its buffered rows to file (in milliseconds)
+    public static final long APPEND_FLUSH_INTERVAL = 5000;
+
+
+    // Limit of the compressed samples a detector keeps on the device for range queries (in bytes)
+    public static final long SAMPLE_STORE_BYTES = 4 * 1024 * 1024;
+    // Number of rows in a full block of kept samples
+    public static final int SAMPLE_BLOCK_ROWS = 1024;
+    // Time after which kept samples are written as a block even if it is not full (in milliseconds)
+    public static final long SAMPLE_BLOCK_INTERVAL = 2000;
+}
@@ -29,4 +29,7 @@ public class Messaging {
     public static final String FACE_FOUND = "faceFound";
     public static final String POSSUM_PREVIEWS = "previewImage";
     public static final String POSSUM_PREVIEWS_INVALID = "invalidPreviewImage";
+    public static final String POSSUM_PREVIEW = "PossumPreview"; // Preview images, only sent within the app
+    public static final String PREVIEW_ENABLE = "previewEnable";
+    public static final String LOCAL_FACE_SCORE = "localFaceScore"; // Face score verified on the device, only sent within the app
 }
\ No newline at end of file
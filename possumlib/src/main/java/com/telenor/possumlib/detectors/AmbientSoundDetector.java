@@ -17,12 +17,12 @@ import com.google.gson.JsonArray;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.PossumRuntime;
 import com.telenor.possumlib.utils.sound.SoundFeatureExtractor;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /***
  * Uses microphone for ambient sound analysis. Will be switched with AudioRecord instead of
@@ -36,7 +36,7 @@ public class AmbientSoundDetector extends AbstractDetector {
     private final int recordingSamples;
     private boolean disabledMute;
     private boolean supportsUnprocessed;
-    private ExecutorService backgroundService = Executors.newSingleThreadExecutor();
+    private Future<?> recording;
 
     /**
      * Constructor for an ambient sound detector
@@ -143,7 +143,7 @@ public class AmbientSoundDetector extends AbstractDetector {
                         stopListening();
                     }
                 }, authenticationListenInterval());
-                backgroundService.submit(new RecordThread());
+                recording = PossumRuntime.io().submit(new RecordThread());
             } else {
                 Log.e(tag, "Wrong state of audioRecorder:"+audioRecorder.getState()+" - "+audioRecorder.getRecordingState());
             }
@@ -211,6 +211,10 @@ public class AmbientSoundDetector extends AbstractDetector {
     @Override
     public void terminate() {
         super.terminate();
+        if (recording != null) {
+            recording.cancel(true);
+            recording = null;
+        }
         if (audioRecorder != null) {
             audioRecorder.release();
         }
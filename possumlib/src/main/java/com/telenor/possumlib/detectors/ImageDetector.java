@@ -3,33 +3,48 @@ package com.telenor.possumlib.detectors;
 import android.Manifest;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.PointF;
 import android.hardware.Camera;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 
-import com.google.android.gms.vision.CameraSource;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
 import com.google.android.gms.vision.face.Landmark;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.interfaces.ICaptureFailed;
+import com.telenor.possumlib.interfaces.ICaptureSource;
 import com.telenor.possumlib.interfaces.IFaceFound;
+import com.telenor.possumlib.models.ModelRegistry;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.tensorflow.TensorFlowInferenceInterface;
 import com.telenor.possumlib.utils.ImageUtils;
+import com.telenor.possumlib.utils.PossumOptions;
+import com.telenor.possumlib.utils.PossumRuntime;
+import com.telenor.possumlib.utils.PreviewChannel;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.face.AdaptiveCaptureController;
 import com.telenor.possumlib.utils.face.AwesomeFaceDetector;
+import com.telenor.possumlib.utils.face.Camera2CaptureSource;
 import com.telenor.possumlib.utils.face.AwesomeFaceProcessor;
 import com.telenor.possumlib.utils.face.AwesomeFaceTracker;
+import com.telenor.possumlib.utils.face.EmbeddingAggregator;
+import com.telenor.possumlib.utils.face.FaceQualityScorer;
+import com.telenor.possumlib.utils.face.FaceTemplateStore;
+import com.telenor.possumlib.utils.face.FaceVerifier;
+import com.telenor.possumlib.utils.face.VisionCaptureSource;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.List;
 
 import static com.telenor.possumlib.utils.ImageUtils.alignFace;
@@ -38,16 +53,49 @@ import static com.telenor.possumlib.utils.ImageUtils.bitmapToIntArray;
 /***
  * Uses camera to determine face identity.
  */
-public class ImageDetector extends AbstractDetector implements IFaceFound {
+public class ImageDetector extends AbstractDetector implements IFaceFound, ICaptureFailed {
     private boolean requestedListening;
     private TensorFlowInferenceInterface tensorFlowInterface;
-    private CameraSource cameraSource;
-    private static final int PREVIEW_WIDTH = 640;
-    private static final int PREVIEW_HEIGHT = 480;
+    private ICaptureSource captureSource;
+    private boolean camera2Failed;
+    private boolean usingCamera2;
+    private int cameraMode = -1;
+    private boolean cameraRunning;
+    private final AdaptiveCaptureController captureController = new AdaptiveCaptureController(samplesPerSession, burstTimeout);
+    private final FaceQualityScorer qualityScorer = new FaceQualityScorer();
+    private EmbeddingAggregator embeddingAggregator;
+    private float[] meanEmbedding;
+    private boolean sessionFinished;
+    private List<float[]> enrollCandidates;
+    private String enrollUserId;
+    private final FaceTemplateStore templateStore;
+    private final FaceVerifier faceVerifier;
+    private final Handler cameraHandler = new Handler(Looper.getMainLooper());
+    private final Runnable cameraModeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyCaptureMode();
+        }
+    };
     private static long lastFaceFound;
     private AwesomeFaceDetector faceDetector;
+    private final Object faceQueueLock = new Object();
+    private final float[] faceInput = new float[batchFaces * ImageUtils.BMP_WIDTH * ImageUtils.BMP_WIDTH * 3];
+    private final Bitmap[] queuedFaces = new Bitmap[batchFaces];
+    private final float[] queuedQualities = new float[batchFaces];
+    private final long[] queuedTimes = new long[batchFaces];
+    private int queuedCount;
+    private float[] embedding;
+    private int[] framePixels;
     private boolean supportedArchitecture = true;
     private static final long minTimeBetweenFaces = 2000; // Defines the time between faces in milliseconds
+    private static final int samplesPerSession = 5; // Accepted faces before the camera is stopped
+    private static final long burstTimeout = 1500; // Time without a face before going back to idle scanning
+    private static final int batchFaces = 4; // Faces of a burst embedded in one run of the graph
+    private static final long batchWait = 300; // Longest time in milliseconds a face waits for the rest of its batch
+    private static final int authEmbeddings = 3; // Best embeddings sent along with the summary when authenticating
+    private static final int maxTemplates = 20; // Faces enrolled per user for verification on the device, the oldest are replaced
+    private static final float minEnrollQuality = 0.5f; // Only the clearest faces of a confirmed session are enrolled
 
     private static final String tag = ImageDetector.class.getName();
 
@@ -59,33 +107,122 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
      */
     public ImageDetector(Context context, @NonNull PossumBus eventBus) {
         super(context, eventBus);
+        templateStore = new FaceTemplateStore(FaceTemplateStore.directory(context), maxTemplates);
+        faceVerifier = new FaceVerifier(templateStore);
 //        findOutIfArchitectureIsInvalid();
 //        if (!supportedArchitecture) return;
         setupCameraSource();
     }
 
+    /**
+     * Makes sure there is a face detector and a capture source feeding it. Camera2 is used where
+     * the device supports more than legacy Camera2, the vision CameraSource everywhere else. The
+     * Camera2 source is not touched at all before Lollipop, where its class cannot be loaded.
+     */
     private void setupCameraSource() {
-        if (faceDetector != null && faceDetector.isReleased()) {
+        if (faceDetector == null || faceDetector.isReleased()) {
             faceDetector = getGoogleFaceDetector(context());
-            if (cameraSource != null) {
-                cameraSource.release();
+            releaseCaptureSource();
+        }
+        if (captureSource == null) {
+            usingCamera2 = !camera2Failed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2CaptureSource.isSupported(context());
+            if (usingCamera2) {
+                captureSource = new Camera2CaptureSource(context(), faceDetector, this);
+            } else {
+                captureSource = new VisionCaptureSource(context(), faceDetector);
             }
-            cameraSource = null;
-            cameraSource = new CameraSource.Builder(context(), faceDetector)
-                    .setFacing(CameraSource.CAMERA_FACING_FRONT)
-                    .setRequestedPreviewSize(PREVIEW_WIDTH, PREVIEW_HEIGHT)
-                    .setRequestedFps(30)
-                    .build();
-        } else if (cameraSource == null) {
-            faceDetector = getGoogleFaceDetector(context());
-            cameraSource = new CameraSource.Builder(context(), faceDetector)
-                    .setFacing(CameraSource.CAMERA_FACING_FRONT)
-                    .setRequestedPreviewSize(PREVIEW_WIDTH, PREVIEW_HEIGHT)
-                    .setRequestedFps(30)
-                    .build();
         }
     }
 
+    private void releaseCaptureSource() {
+        if (captureSource != null) {
+            captureSource.release();
+        }
+        captureSource = null;
+        usingCamera2 = false;
+        cameraRunning = false;
+    }
+
+    /**
+     * Starts the capture source in the current capture mode. Should Camera2 fail to start, the
+     * vision CameraSource is used from then on.
+     *
+     * @throws IOException if the camera could not be started
+     */
+    private void startCaptureSource() throws IOException {
+        setupCameraSource();
+        cameraMode = captureController.mode();
+        try {
+            captureSource.start(captureController.previewWidth(), captureController.previewHeight(), captureController.requestedFps());
+        } catch (IOException e) {
+            if (!usingCamera2) throw e;
+            Log.w(tag, "Camera2 failed to start, falling back to CameraSource:", e);
+            camera2Failed = true;
+            releaseCaptureSource();
+            setupCameraSource();
+            captureSource.start(captureController.previewWidth(), captureController.previewHeight(), captureController.requestedFps());
+        }
+        cameraRunning = true;
+    }
+
+    /**
+     * Camera2 opens and configures the camera after start has returned, a failure then is told
+     * here. The vision CameraSource is used from then on, as when Camera2 fails to start.
+     */
+    @Override
+    public void captureFailed(final ICaptureSource source, final Exception exception) {
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (source != captureSource || !usingCamera2) return;
+                Log.w(tag, "Camera2 failed, falling back to CameraSource:", exception);
+                camera2Failed = true;
+                releaseCaptureSource();
+                if (!isListening() || captureController.mode() == AdaptiveCaptureController.MODE_DONE) return;
+                try {
+                    startCaptureSource();
+                } catch (Exception e) {
+                    Log.i(tag, "Failed to restart camera:", e);
+                    stopListening();
+                }
+            }
+        });
+    }
+
+    private void stopCaptureSource() {
+        if (captureSource != null && cameraRunning) {
+            captureSource.stop();
+        }
+        cameraRunning = false;
+    }
+
+    /**
+     * Switches the camera to the current capture mode. Must run on the main thread, as the camera
+     * cannot be stopped from its own frame processing thread.
+     */
+    private void applyCaptureMode() {
+        if (!isListening()) return;
+        if (captureController.mode() == AdaptiveCaptureController.MODE_DONE) {
+            Log.d(tag, "Enough faces gathered, stopping camera");
+            stopCaptureSource();
+            return;
+        }
+        if (cameraMode == captureController.mode() && cameraRunning) return;
+        Log.d(tag, "Switching camera to mode " + captureController.mode() + " at " + captureController.requestedFps() + "fps");
+        stopCaptureSource();
+        try {
+            startCaptureSource();
+        } catch (Exception e) {
+            Log.i(tag, "Failed to restart camera:", e);
+            stopListening();
+        }
+    }
+
+    private void captureModeChanged() {
+        cameraHandler.removeCallbacks(cameraModeRunnable);
+        cameraHandler.post(cameraModeRunnable);
+    }
+
     /**
      * Method for blocking out all architectures not of type armeabi-v7a
      */
@@ -159,11 +296,18 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
     @SuppressWarnings("MissingPermission")
     public boolean startListening() {
         requestedListening = true;
+        captureController.reset();
+        synchronized (this) {
+            if (embeddingAggregator != null) {
+                embeddingAggregator.reset();
+            }
+            sessionFinished = false;
+        }
         setupCameraSource();
         boolean listen = isAvailable() && super.startListening();
         if (listen) {
             try {
-                cameraSource.start();
+                startCaptureSource();
             } catch (Exception e) {
                 Log.i(tag, "Failed:", e);
                 stopListening();
@@ -175,8 +319,12 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
 
     @Override
     public void stopListening() {
-        if (isListening() && cameraSource != null) {
-            cameraSource.stop();
+        cameraHandler.removeCallbacks(cameraModeRunnable);
+        stopCaptureSource();
+        // At most a few faces of the last moments of the burst are left
+        embedQueuedFaces();
+        if (isAuthenticating()) {
+            finishAuthSession();
         }
         super.stopListening();
     }
@@ -184,13 +332,8 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
     @Override
     public void terminate() {
         super.terminate();
-        if (cameraSource != null) {
-            try {
-                cameraSource.release();
-            } catch (Exception e) {
-                Log.e(tag, "Possum failed to release camera:",e);
-            }
-        }
+        cameraHandler.removeCallbacks(cameraModeRunnable);
+        releaseCaptureSource();
         if (faceDetector != null) {
             faceDetector.destroy();
         }
@@ -221,16 +364,32 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
     }
 
     @Override
-    public void faceFound(Face face, byte[] byteArray) {
+    public JsonObject toJson() {
+        JsonObject object = super.toJson();
+        ModelRegistry registry = ModelRegistry.getInstance();
+        object.addProperty("modelLoadTime", registry.loadMillis(detectorType()));
+        object.addProperty("modelWarmUpTime", registry.warmUpMillis(detectorType()));
+        object.addProperty("modelMapped", registry.isMapped(detectorType()));
+        object.addProperty("captureMode", captureController.mode());
+        object.addProperty("captureSource", usingCamera2 ? "camera2" : "vision");
+        object.addProperty("capturedFaces", captureController.samples());
+        object.add("faceQuality", qualityScorer.toJson());
+        return object;
+    }
+
+    @Override
+    public void faceFound(Face face, Frame frame) {
         /*if ((now() - lastFaceFound) < minTimeBetweenFaces) {
             Log.i(tag, "Too short time between faces");
             return;
         }*/
-        Bitmap image = ImageUtils.rotateBitmap(BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length), -90);
+        if (face == null || captureController.mode() == AdaptiveCaptureController.MODE_DONE) return;
+        if (captureController.faceSeen(now())) {
+            captureModeChanged();
+        }
         PointF leftEye = null;
         PointF rightEye = null;
         PointF mouth = null;
-        if (face == null) return;
         List<Landmark> landmarks = face.getLandmarks();
 
         for (Landmark landmark : landmarks) {
@@ -251,29 +410,222 @@ public class ImageDetector extends AbstractDetector implements IFaceFound {
             Log.d(tag, "Some landmarks found to be invalid, skipping face");
             return;
         }
+        int quality = qualityScorer.score(face, frame, leftEye, rightEye);
+        if (quality != FaceQualityScorer.ACCEPTED) {
+            Log.d(tag, "Face rejected by quality check: " + FaceQualityScorer.reasonName(quality));
+            return;
+        }
+        float faceQuality = qualityScorer.lastQuality();
+        Bitmap image = ImageUtils.rotatedBitmapFromFrame(frame, framePixels(frame));
         lastFaceFound = now();
-        JsonArray array = new JsonArray();
-        array.add("" + now());
         Bitmap scaledOutput = Bitmap.createScaledBitmap(alignFace(image, leftEye, rightEye, mouth), ImageUtils.BMP_WIDTH, ImageUtils.BMP_HEIGHT, false);
 
-        // This part should not be done in pure library, only in POC
-        Send.imageByteArrayIntent(context(), true, ImageUtils.getByteArrayFromImage(scaledOutput));
+        if (PreviewChannel.wantsPreview(true)) {
+            PreviewChannel.publish(context(), scaledOutput, true);
+        }
+
+        boolean batchFull = queueFace(scaledOutput, faceQuality, lastFaceFound);
+        boolean sessionDone = captureController.sampleAccepted();
+        if (batchFull || sessionDone) {
+            embedQueuedFaces();
+        }
+        if (sessionDone) {
+            captureModeChanged();
+        }
+        Send.messageIntent(context(), Messaging.FACE_FOUND, ""+System.currentTimeMillis());
+    }
+
+    /**
+     * Queues an aligned face for the next batch
+     *
+     * @return true if the batch is full
+     */
+    private boolean queueFace(Bitmap face, float quality, long timestamp) {
+        synchronized (faceQueueLock) {
+            ImageUtils.bitmapToFloatArray(face, faceInput, queuedCount);
+            queuedFaces[queuedCount] = face;
+            queuedQualities[queuedCount] = quality;
+            queuedTimes[queuedCount] = timestamp;
+            queuedCount++;
+            return queuedCount == batchFaces;
+        }
+    }
 
-        float[] weights = tensorFlowInterface.getWeights(bitmapToIntArray(scaledOutput));
+    /**
+     * Whether the oldest queued face has waited long enough for its batch
+     */
+    private boolean queuedFacesWaited(long now) {
+        synchronized (faceQueueLock) {
+            return queuedCount > 0 && now - queuedTimes[0] >= batchWait;
+        }
+    }
+
+    /**
+     * Runs the queued faces through the graph in one batch. Should the graph not take batches, or
+     * the run fail, each face goes through the native single face path instead.
+     */
+    private void embedQueuedFaces() {
+        synchronized (faceQueueLock) {
+            if (queuedCount == 0 || tensorFlowInterface == null) return;
+            float[] weights = tensorFlowInterface.getWeights(faceInput, queuedCount, ImageUtils.BMP_WIDTH);
+            int size = tensorFlowInterface.embeddingSize();
+            for (int i = 0; i < queuedCount; i++) {
+                float[] faceWeights;
+                if (weights != null) {
+                    if (embedding == null || embedding.length != size) {
+                        embedding = new float[size];
+                    }
+                    System.arraycopy(weights, i * size, embedding, 0, size);
+                    faceWeights = embedding;
+                } else {
+                    faceWeights = tensorFlowInterface.getWeights(bitmapToIntArray(queuedFaces[i]));
+                }
+                faceEmbedded(faceWeights, queuedQualities[i], queuedTimes[i]);
+                queuedFaces[i] = null;
+            }
+            queuedCount = 0;
+        }
+    }
+
+    /**
+     * Runs on the camera thread, so the rows are added under the lock the session values are
+     * copied under when streamed
+     */
+    private void faceEmbedded(float[] weights, float faceQuality, long timestamp) {
+        if (isAuthenticating()) {
+            // The summary also gives the mean used for verifying on the device
+            aggregator(weights.length).add(weights, faceQuality, timestamp);
+            if (PossumOptions.summaryFaceAuth()) return;
+        }
+        JsonArray row = embeddingRow(weights, timestamp);
+        lock();
+        try {
+            sessionValues.add(row);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The array the frames are converted into, kept between frames. Frames are only handed over
+     * on the thread of the capture source.
+     */
+    private int[] framePixels(Frame frame) {
+        int size = frame.getMetadata().getWidth() * frame.getMetadata().getHeight();
+        if (framePixels == null || framePixels.length < size) {
+            framePixels = new int[size];
+        }
+        return framePixels;
+    }
+
+    private JsonArray embeddingRow(float[] weights, long timestamp) {
+        JsonArray array = new JsonArray();
+        array.add("" + timestamp);
         for (float weight : weights) {
             array.add("" + weight);
         }
-        sessionValues.add(array);
-        Send.messageIntent(context(), Messaging.FACE_FOUND, ""+System.currentTimeMillis());
+        return array;
     }
 
+    private synchronized EmbeddingAggregator aggregator(int embeddingSize) {
+        if (embeddingAggregator == null || embeddingAggregator.size() != embeddingSize) {
+            embeddingAggregator = new EmbeddingAggregator(embeddingSize, authEmbeddings);
+        }
+        return embeddingAggregator;
+    }
+
+    /**
+     * Ends an authentication session: scores the session mean against the enrolled templates
+     * once, sending the score to the trust listeners without waiting for the server, and keeps
+     * the clearest faces of the session should the server confirm the user
+     */
+    private void finishAuthSession() {
+        String userId = uniqueUserId();
+        float score;
+        synchronized (this) {
+            if (sessionFinished || userId == null || embeddingAggregator == null || embeddingAggregator.count() == 0) return;
+            sessionFinished = true;
+            if (meanEmbedding == null || meanEmbedding.length != embeddingAggregator.size()) {
+                meanEmbedding = new float[embeddingAggregator.size()];
+            }
+            embeddingAggregator.mean(meanEmbedding);
+            score = faceVerifier.score(userId, meanEmbedding);
+            enrollCandidates = embeddingAggregator.topEmbeddings(minEnrollQuality);
+            enrollUserId = userId;
+        }
+        if (score >= 0) {
+            Send.packageMessageIntent(context(), Messaging.LOCAL_FACE_SCORE, "" + score);
+        }
+    }
+
+    /**
+     * Called when the server has confirmed the user of the latest authentication. The clearest
+     * faces of that session are enrolled as templates for verifying on the device. Faces are
+     * never enrolled without this, so whoever happens to be in front of the camera while
+     * gathering does not become the user.
+     */
+    public void identityConfirmed() {
+        final List<float[]> candidates;
+        final String userId;
+        synchronized (this) {
+            candidates = enrollCandidates;
+            userId = enrollUserId;
+            enrollCandidates = null;
+            enrollUserId = null;
+        }
+        if (candidates == null || candidates.isEmpty()) return;
+        PossumRuntime.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (float[] candidate : candidates) {
+                    templateStore.add(userId, candidate);
+                }
+                Log.d(tag, "Enrolled " + candidates.size() + " faces");
+            }
+        });
+    }
+
+    /**
+     * The face summary is only known once the detector stops, so it is not streamed
+     *
+     * @return false if authenticating with the face summary
+     */
     @Override
-    public void imageTaken(byte[] byteArray) {
-        Bitmap image = ImageUtils.getRotatedScaledBitmapFromByteArray(byteArray);
-//        Bitmap image = ImageUtils.rotateBitmap(BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length), -90);
-//
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        image.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        Send.imageByteArrayIntent(context(), false, stream.toByteArray());
+    public boolean streamsRows() {
+        return !PossumOptions.summaryFaceAuth() || !isAuthenticating();
+    }
+
+    @Override
+    public JsonArray jsonData() {
+        if (!PossumOptions.summaryFaceAuth() || !isAuthenticating()) return super.jsonData();
+        synchronized (this) {
+            return embeddingAggregator != null ? embeddingAggregator.toJson() : new JsonArray();
+        }
+    }
+
+    @Override
+    public void clearData() {
+        super.clearData();
+        synchronized (this) {
+            if (embeddingAggregator != null) {
+                embeddingAggregator.reset();
+            }
+        }
+    }
+
+    @Override
+    public void imageTaken(Frame frame) {
+        long now = now();
+        boolean burstEnded = captureController.frameProcessed(now);
+        if (burstEnded || queuedFacesWaited(now)) {
+            embedQueuedFaces();
+        }
+        if (burstEnded) {
+            captureModeChanged();
+        }
+        // Nothing is decoded unless the app is actually showing previews
+        if (!PreviewChannel.wantsPreview(false)) return;
+        Bitmap image = Bitmap.createScaledBitmap(ImageUtils.rotatedBitmapFromFrame(frame, framePixels(frame)), ImageUtils.BMP_WIDTH, ImageUtils.BMP_HEIGHT, false);
+        PreviewChannel.publish(context(), image, false);
     }
 }
\ No newline at end of file
@@ -12,9 +12,11 @@ import android.util.Log;
 import com.google.gson.JsonArray;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
 import com.telenor.possumlib.interfaces.IOnReceive;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.Has;
+import com.telenor.possumlib.utils.codec.Codecs;
 
 import java.util.List;
 
@@ -107,6 +109,11 @@ public class NetworkDetector extends AbstractDetector implements IOnReceive {
         return "network";
     }
 
+    @Override
+    protected IDetectorCodec codec() {
+        return Codecs.SCAN;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         if (context == null || intent == null || intent.getAction() == null) throw new RuntimeException("Missing vitals");
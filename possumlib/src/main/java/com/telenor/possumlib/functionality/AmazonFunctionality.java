@@ -1,7 +1,6 @@
 package com.telenor.possumlib.functionality;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -13,12 +12,17 @@ import com.telenor.possumlib.asynctasks.AsyncAmazonVerification;
 import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.interfaces.IAmazonIdentityConfirmed;
 import com.telenor.possumlib.interfaces.IOnVerify;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.utils.PossumRuntime;
+
+import java.util.concurrent.Callable;
 
 /**
  * Functionality to handle all interaction with Amazons S3, specifically retrieving the
- * cognito provider and ensuring that the id is confirmed
+ * cognito provider and ensuring that the id is confirmed. Fetching the id and the verification
+ * file are done on the network pool.
  */
-public class AmazonFunctionality extends AsyncTask<Void, Void, String> implements IdentityChangedListener {
+public class AmazonFunctionality implements IdentityChangedListener {
     private CognitoCachingCredentialsProvider cognitoProvider;
     private final Context context;
     private IAmazonIdentityConfirmed listener;
@@ -39,7 +43,23 @@ public class AmazonFunctionality extends AsyncTask<Void, Void, String> implement
             listener.foundAmazonIdentity(new AmazonS3Client(cognitoProvider));
         } else {
             cognitoProvider.registerIdentityChangedListener(this);
-            execute((Void) null);
+            PossumRuntime.submit(PossumRuntime.network(), new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return cognitoProvider.getIdentityId();
+                }
+            }, new ITaskCallback<String>() {
+                @Override
+                public void taskDone(String identityId) {
+                    // The identity is handed over in identityChanged
+                }
+
+                @Override
+                public void taskFailed(Exception exception) {
+                    cognitoProvider.unregisterIdentityChangedListener(AmazonFunctionality.this);
+                    listener.failedToFindAmazonIdentity();
+                }
+            });
         }
     }
 
@@ -53,14 +73,8 @@ public class AmazonFunctionality extends AsyncTask<Void, Void, String> implement
         }
     }
 
-    @Override
-    protected String doInBackground(Void... params) {
-        return cognitoProvider.getIdentityId();
-    }
-
     public void getVerificationFile(@NonNull AmazonS3Client client, @NonNull String bucketKey, @NonNull IOnVerify verifyListener) {
         Log.i(tag, "Getting verification file:" + Constants.BUCKET+" - "+bucketKey);
-        AsyncAmazonVerification verification = new AsyncAmazonVerification(bucketKey, verifyListener);
-        verification.execute(client);
+        new AsyncAmazonVerification(bucketKey, verifyListener).start(client);
     }
 }
\ No newline at end of file
@@ -4,9 +4,11 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.interfaces.IModelLoaded;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.Do;
 import com.telenor.possumlib.utils.Get;
 
 import java.util.ArrayList;
@@ -17,6 +19,7 @@ import java.util.List;
  */
 public class GatheringFunctionality implements IModelLoaded {
     private boolean isGathering;
+    private long warmWindow;
     private List<AbstractDetector> detectors = new ArrayList<>();
 
     private static final String tag = GatheringFunctionality.class.getName();
@@ -40,6 +43,10 @@ public class GatheringFunctionality implements IModelLoaded {
     public void startGathering() {
         if (!isGathering) {
             for (AbstractDetector detector : detectors) {
+                if (detector.isWarm()) {
+                    // Warm rows are now stored as well
+                    detector.setWarm(warmWindow, false);
+                }
                 detector.startListening();
             }
             isGathering = true;
@@ -47,7 +54,9 @@ public class GatheringFunctionality implements IModelLoaded {
     }
 
     /**
-     * Stops gathering and terminates if desired
+     * Stops gathering and terminates if desired. Stopping only stores and closes, the stored data
+     * of every detector, the segment logs of the zipping detectors included, is compressed and
+     * staged for upload in the background.
      * @param andTerminate
      */
     public void stopGathering(boolean andTerminate) {
@@ -58,10 +67,111 @@ public class GatheringFunctionality implements IModelLoaded {
                 } else {
                     detector.stopListening();
                 }
-                detector.prepareUpload();
             }
+            // Compressing the stored data takes a while, the caller is often the main thread
+            final List<AbstractDetector> stopped = new ArrayList<>(detectors);
+            Do.inBackground(new Runnable() {
+                @Override
+                public void run() {
+                    prepareUploads(stopped);
+                }
+            });
             isGathering = false;
+            if (andTerminate) {
+                warmWindow = 0;
+            } else if (warmWindow > 0) {
+                startWarm(warmWindow);
+            }
+        }
+    }
+
+    /**
+     * Keeps the warmable detectors listening with the latest rows in ring buffers, so an
+     * authentication can be sent without gathering first. Rows are only stored if the detectors
+     * are gathering as well.
+     *
+     * @param windowMillis the window of samples to keep
+     */
+    public void startWarm(long windowMillis) {
+        warmWindow = windowMillis;
+        for (AbstractDetector detector : detectors) {
+            if (!detector.isWarmable()) continue;
+            detector.setWarm(windowMillis, !isGathering);
+            if (!detector.isListening()) {
+                detector.startListening();
+            }
+        }
+    }
+
+    /**
+     * Stops warm mode, the warm detectors only listening if they are gathering
+     */
+    public void stopWarm() {
+        warmWindow = 0;
+        for (AbstractDetector detector : detectors) {
+            if (!detector.isWarm()) continue;
+            detector.setWarm(0, false);
+            if (!isGathering) {
+                detector.stopListening();
+            }
+        }
+    }
+
+    /**
+     * Whether the warmable detectors are kept warm
+     *
+     * @return true if in warm mode
+     */
+    public boolean isWarm() {
+        return warmWindow > 0;
+    }
+
+    /**
+     * The rows in the warm window of each detector, empty for the detectors that are not warm
+     *
+     * @return json object with the rows of each detector by name
+     */
+    public JsonObject warmData() {
+        JsonObject data = new JsonObject();
+        for (AbstractDetector detector : detectors) {
+            data.add(detector.detectorName(), detector.warmData());
+        }
+        return data;
+    }
+
+    /**
+     * Repairs the stored data of the detectors in the background, so data a killed process left
+     * behind is recovered even for detectors that are not started
+     */
+    public void recoverStoredData() {
+        final List<AbstractDetector> recovering = new ArrayList<>(detectors);
+        Do.inBackground(new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractDetector detector : recovering) {
+                    detector.recoverStoredData();
+                }
+            }
+        });
+    }
+
+    /**
+     * Compresses and stages the stored data of the detectors in parallel, returning when all of
+     * them are done. Blocks, so it must not be called from the main thread.
+     *
+     * @param detectors the detectors to prepare
+     */
+    public static void prepareUploads(@NonNull List<AbstractDetector> detectors) {
+        List<Runnable> tasks = new ArrayList<>();
+        for (final AbstractDetector detector : detectors) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    detector.prepareUpload();
+                }
+            });
         }
+        Do.inParallel(tasks);
     }
 
     public JsonArray detectorsAsJson() {
@@ -0,0 +1,194 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.models.RestTimings;
+import com.telenor.possumlib.utils.PossumRuntime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+
+/**
+ * Shared client for the rest calls. HttpURLConnection keeps connections alive and pools them per
+ * host, but only gets a connection back when its response has been read to the end and closed,
+ * and never after disconnect. All calls go through here so they do, and so they have timeouts.
+ * preconnect opens a connection ahead of a call, so the call does not pay for dns, tcp and tls.
+ */
+public class RestClient {
+    private static RestClient instance;
+    private static final String tag = RestClient.class.getName();
+    private final int connectTimeout;
+    private final int readTimeout;
+    private volatile RestTimings lastTimings;
+
+    /**
+     * The client shared by all rest calls
+     *
+     * @return the rest client
+     */
+    public static synchronized RestClient getInstance() {
+        if (instance == null) {
+            instance = new RestClient(Constants.REST_CONNECT_TIMEOUT, Constants.REST_READ_TIMEOUT);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for the client, normally reached through getInstance
+     *
+     * @param connectTimeout timeout for making a connection, in millis
+     * @param readTimeout    timeout for each read of the response, in millis
+     */
+    public RestClient(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Opens a connection for a post with the timeouts of the client, without connecting
+     *
+     * @param url         the url to post to
+     * @param apiKey      the key of the rest api, or null
+     * @param contentType the content type of the body, or null
+     * @return the connection
+     * @throws IOException if the connection could not be opened
+     */
+    public HttpURLConnection open(@NonNull URL url, String apiKey, String contentType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Connection", "keep-alive");
+        if (apiKey != null) {
+            connection.setRequestProperty("x-api-key", apiKey);
+        }
+        if (contentType != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+        return connection;
+    }
+
+    /**
+     * Posts a body and reads the response
+     *
+     * @param url    the url to post to
+     * @param apiKey the key of the rest api
+     * @param body   the body to post
+     * @return the response body
+     * @throws IOException if the post failed or the server responded with an error
+     */
+    public String post(@NonNull URL url, @NonNull String apiKey, @NonNull byte[] body) throws IOException {
+        RestTimings timings = new RestTimings();
+        // No content type, the posts are sent as they always have been
+        HttpURLConnection connection = open(url, apiKey, null);
+        connection.setFixedLengthStreamingMode(body.length);
+        try {
+            connection.connect();
+            timings.connected();
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(body);
+            } finally {
+                output.close();
+            }
+            timings.sent();
+        } catch (IOException e) {
+            // A connection failing halfway is not given back to the pool
+            connection.disconnect();
+            throw e;
+        }
+        return readResponse(connection, timings);
+    }
+
+    /**
+     * Reads the whole response of a connection, so it can be reused, and records the timings
+     *
+     * @param connection a connection whose request has been sent
+     * @param timings    the timings of the call so far
+     * @return the response body
+     * @throws IOException if the response could not be read or was an error
+     */
+    public String readResponse(@NonNull HttpURLConnection connection, @NonNull RestTimings timings) throws IOException {
+        try {
+            int responseCode = connection.getResponseCode();
+            timings.responded();
+            String body = drain(responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream());
+            timings.read();
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException("Response " + responseCode + " from " + connection.getURL().getHost() + ": " + body);
+            }
+            return body;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        } finally {
+            lastTimings = timings;
+            Log.d(tag, "Timings for " + connection.getURL().getPath() + ": " + timings);
+        }
+    }
+
+    /**
+     * Looks up the host and opens a connection to it in the background, so it is ready in the
+     * pool when the call is made. The request is a HEAD without an api key, whatever the server
+     * answers is read and ignored.
+     *
+     * @param url the url a call will be made to
+     */
+    public void preconnect(@NonNull final URL url) {
+        PossumRuntime.network().execute(new Runnable() {
+            @Override
+            public void run() {
+                RestTimings timings = new RestTimings();
+                try {
+                    InetAddress.getByName(url.getHost());
+                    timings.resolved();
+                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                    connection.setConnectTimeout(connectTimeout);
+                    connection.setReadTimeout(readTimeout);
+                    connection.setRequestMethod("HEAD");
+                    connection.connect();
+                    timings.connected();
+                    int responseCode = connection.getResponseCode();
+                    timings.responded();
+                    drain(responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream());
+                    timings.read();
+                    Log.d(tag, "Preconnected to " + url.getHost() + ": " + timings);
+                } catch (IOException e) {
+                    Log.w(tag, "Unable to preconnect to " + url.getHost() + ":", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * The timings of the latest call
+     *
+     * @return the timings, or null if no call has been made
+     */
+    public RestTimings lastTimings() {
+        return lastTimings;
+    }
+
+    private static String drain(InputStream input) throws IOException {
+        if (input == null) return "";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return body.toString("UTF-8");
+    }
+}
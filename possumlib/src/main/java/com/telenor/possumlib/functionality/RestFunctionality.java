@@ -1,28 +1,25 @@
 package com.telenor.possumlib.functionality;
 
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.gson.JsonObject;
 import com.telenor.possumlib.interfaces.IRestListener;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.utils.PossumRuntime;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
- * Handles communication with server, posting to it
+ * Handles communication with server, posting to it on the network pool and telling the listener
+ * on the main thread
  */
-public class RestFunctionality extends AsyncTask<JsonObject, Void, Exception> {
+public class RestFunctionality {
     private static final String tag = RestFunctionality.class.getName();
     private URL url;
-    private String successMessage;
     private String apiKey;
     private IRestListener listener;
 
@@ -32,59 +29,30 @@ public class RestFunctionality extends AsyncTask<JsonObject, Void, Exception> {
         this.apiKey = apiKey;
     }
 
-    @Override
-    protected Exception doInBackground(JsonObject... params) {
-        OutputStream os = null;
-        InputStream is = null;
-        Exception exception = null;
-        JsonObject object = params[0];
-        try {
-//            Log.i(tag, "Url:"+url.toString());
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestProperty("x-api-key", apiKey);
-            urlConnection.setRequestMethod("POST");
-            byte[] data = object.toString().getBytes();
-//            Log.i(tag, "Api key:"+apiKey);
-//            longLog(object.toString());
-            urlConnection.setFixedLengthStreamingMode(data.length);
-            urlConnection.connect();
-
-            os = urlConnection.getOutputStream();
-            // TODO: Post to stream
-            os.write(data);
-            int responseCode = urlConnection.getResponseCode();
-            String responseMessage = urlConnection.getResponseMessage();
-//            Log.d(tag, responseCode + " -> " + responseMessage);
-            is = urlConnection.getInputStream();
-            successMessage = "";
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                successMessage += line;
+    /**
+     * Posts the object to the server
+     *
+     * @param object the json to post
+     * @return the future of the post, cancelling it means the listener is not told
+     */
+    public Future<String> post(@NonNull final JsonObject object) {
+        return PossumRuntime.submit(PossumRuntime.network(), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+//                longLog(object.toString());
+                return RestClient.getInstance().post(url, apiKey, object.toString().getBytes());
             }
-            reader.close();
-        } catch (Exception e) {
-            Log.e(tag, "Ex:", e);
-            exception = e;
-        } finally {
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (IOException e) {
-                    Log.e(tag, "Failed to close output stream:", e);
-                    exception = e;
-                }
+        }, new ITaskCallback<String>() {
+            @Override
+            public void taskDone(String successMessage) {
+                listener.successfullyPushed(successMessage);
             }
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    Log.e(tag, "Failed to close input stream:", e);
-                    exception = e;
-                }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                listener.failedToPush(exception);
             }
-        }
-        return exception;
+        });
     }
 
     private void longLog(String message) {
@@ -99,15 +67,4 @@ public class RestFunctionality extends AsyncTask<JsonObject, Void, Exception> {
             } while (i < newline);
         }
     }
-
-    @Override
-    protected void onPostExecute(Exception exception) {
-        if (exception != null) {
-            // Failed
-            listener.failedToPush(exception);
-        } else {
-            // Success
-            listener.successfullyPushed(successMessage);
-        }
-    }
 }
\ No newline at end of file
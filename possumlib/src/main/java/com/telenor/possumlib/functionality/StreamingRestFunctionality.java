@@ -0,0 +1,192 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.interfaces.IRestListener;
+import com.telenor.possumlib.models.RestTimings;
+import com.telenor.possumlib.utils.Do;
+import com.telenor.possumlib.utils.PossumRuntime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Posts an authentication to the server while it is being gathered. The connection is opened at
+ * the start of the window and the rows are streamed as chunked NDJSON, one frame per line:
+ * <pre>
+ * {"connectId":"..."}
+ * {"detector":"accelerometer","data":[[...],[...]]}
+ * </pre>
+ * The request ends when finish is called, after which the response is read and given to the
+ * listener on the main thread, as with RestFunctionality.
+ */
+public class StreamingRestFunctionality implements Runnable {
+    private static final String tag = StreamingRestFunctionality.class.getName();
+    private static final int CHUNK_SIZE = 8192;
+    // Marks the end of the frames, compared by identity
+    private static final String END = new String("end");
+    private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+    private final URL url;
+    private final String apiKey;
+    private final IRestListener listener;
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private volatile HttpURLConnection connection;
+
+    public StreamingRestFunctionality(IRestListener listener, @NonNull String url, @NonNull String apiKey, @NonNull String uniqueUserId) throws MalformedURLException {
+        this.listener = listener;
+        this.url = new URL(url);
+        this.apiKey = apiKey;
+        JsonObject header = new JsonObject();
+        header.addProperty("connectId", uniqueUserId);
+        frames.add(header.toString());
+    }
+
+    /**
+     * Opens the connection in the background and starts sending the frames
+     */
+    public void start() {
+        PossumRuntime.network().execute(this);
+    }
+
+    /**
+     * Queues rows of a detector to be sent as one frame
+     *
+     * @param detectorName name of the detector
+     * @param rows         the rows, not changed afterwards
+     */
+    public void send(@NonNull String detectorName, @NonNull List<JsonArray> rows) {
+        JsonArray data = new JsonArray();
+        for (JsonArray row : rows) {
+            data.add(row);
+        }
+        send(detectorName, data);
+    }
+
+    /**
+     * Queues the data of a detector to be sent as one frame
+     *
+     * @param detectorName name of the detector
+     * @param data         the data as the detector gives it in jsonData, not changed afterwards
+     */
+    public void send(@NonNull String detectorName, @NonNull JsonArray data) {
+        if (finished || data.size() == 0) return;
+        JsonObject frame = new JsonObject();
+        frame.addProperty("detector", detectorName);
+        frame.add("data", data);
+        frames.add(frame.toString());
+    }
+
+    /**
+     * Ends the request once the queued frames are sent, the listener then gets the response
+     */
+    public void finish() {
+        if (finished) return;
+        finished = true;
+        frames.add(END);
+    }
+
+    /**
+     * Drops the request without telling the listener
+     */
+    public void cancel() {
+        cancelled = true;
+        finish();
+        HttpURLConnection connection = this.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void run() {
+        OutputStream os = null;
+        Exception exception = null;
+        String message = null;
+        RestClient client = RestClient.getInstance();
+        RestTimings timings = new RestTimings();
+        try {
+            HttpURLConnection urlConnection = client.open(url, apiKey, "application/x-ndjson");
+            connection = urlConnection;
+            urlConnection.setChunkedStreamingMode(CHUNK_SIZE);
+            urlConnection.connect();
+            timings.connected();
+            os = urlConnection.getOutputStream();
+            streamTo(os);
+            os.close();
+            os = null;
+            timings.sent();
+            if (cancelled) return;
+            message = client.readResponse(urlConnection, timings);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exception = e;
+        } catch (Exception e) {
+            exception = e;
+        } finally {
+            // Frames still coming are not wanted anymore
+            finished = true;
+            frames.clear();
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        if (!cancelled) {
+            report(message, exception);
+        }
+    }
+
+    /**
+     * Writes the frames as they are queued, one per line, until finish is called. Flushes
+     * whenever it has caught up, so the server gets each frame without waiting for the next.
+     *
+     * @param output the request body
+     * @return number of frames written
+     * @throws IOException          if the frames could not be written
+     * @throws InterruptedException if interrupted while waiting for frames
+     */
+    public int streamTo(@NonNull OutputStream output) throws IOException, InterruptedException {
+        int written = 0;
+        while (true) {
+            String frame = frames.take();
+            //noinspection StringEquality
+            if (frame == END || cancelled) break;
+            output.write(frame.getBytes("UTF-8"));
+            output.write('\n');
+            written++;
+            if (frames.isEmpty()) {
+                output.flush();
+            }
+        }
+        output.flush();
+        return written;
+    }
+
+    private void report(final String message, final Exception exception) {
+        if (exception != null) {
+            Log.e(tag, "Ex:", exception);
+        }
+        Do.onMain(new Runnable() {
+            @Override
+            public void run() {
+                if (exception != null) {
+                    listener.failedToPush(exception);
+                } else {
+                    listener.successfullyPushed(message);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,9 @@
+package com.telenor.possumlib.interfaces;
+
+/**
+ * Told when a capture source fails after it has been started, as when the camera is opened,
+ * disconnected or configured asynchronously
+ */
+public interface ICaptureFailed {
+    void captureFailed(ICaptureSource source, Exception exception);
+}
@@ -0,0 +1,29 @@
+package com.telenor.possumlib.interfaces;
+
+import java.io.IOException;
+
+/**
+ * A camera feeding frames to the face detector. Starting an already running source with other
+ * values restarts it with those.
+ */
+public interface ICaptureSource {
+    /**
+     * Starts capturing frames
+     *
+     * @param width  wanted frame width
+     * @param height wanted frame height
+     * @param fps    wanted frames per second
+     * @throws IOException if the camera could not be started
+     */
+    void start(int width, int height, int fps) throws IOException;
+
+    /**
+     * Stops capturing frames, keeping the source ready to be started again
+     */
+    void stop();
+
+    /**
+     * Stops and releases the camera, the source cannot be used afterwards
+     */
+    void release();
+}
@@ -0,0 +1,43 @@
+package com.telenor.possumlib.interfaces;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Encoding of the rows a detector stores. Rows are encoded in blocks, each block readable on its
+ * own, so blocks can be written one after the other into the same stream.
+ */
+public interface IDetectorCodec {
+    /**
+     * Short name of the codec, used as extension of the encoded entry
+     *
+     * @return the name of the codec
+     */
+    String name();
+
+    /**
+     * Encodes rows as one block
+     *
+     * @param rows   the rows to encode
+     * @param output stream to write the block to
+     * @throws IOException              if the block could not be written
+     * @throws IllegalArgumentException if the rows do not have the shape the codec needs, or
+     *                                  would not decode to the same rows
+     */
+    void encode(@NonNull List<JsonArray> rows, @NonNull OutputStream output) throws IOException;
+
+    /**
+     * Decodes one block
+     *
+     * @param input stream positioned at the start of a block
+     * @return the rows of the block
+     * @throws IOException if the block is unreadable
+     */
+    List<JsonArray> decode(@NonNull InputStream input) throws IOException;
+}
@@ -1,8 +1,13 @@
 package com.telenor.possumlib.interfaces;
 
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
 
+/**
+ * Interface for the frames processed by the face detector. The frame's data is reused by the
+ * camera once the call returns, so anything needed from it must be read synchronously.
+ */
 public interface IFaceFound {
-    void faceFound(Face face, byte[] byteArray);
-    void imageTaken(byte[] byteArray);
+    void faceFound(Face face, Frame frame);
+    void imageTaken(Frame frame);
 }
\ No newline at end of file
@@ -16,9 +16,15 @@ public interface IPossumMessage {
      * Method for sending data between apps, handy if you need to see what the image taken looks
      * like
      * @param dataReceived byte array of the image taken
+     * @deprecated previews are no longer broadcast, use AwesomePossum.addPreviewListener
      */
+    @Deprecated
     void possumFaceFound(byte[] dataReceived);
 
+    /**
+     * @deprecated previews are no longer broadcast, use AwesomePossum.addPreviewListener
+     */
+    @Deprecated
     void possumImageSnapped(byte[] dataReceived);
     /**
      * The spots on given image for
@@ -0,0 +1,19 @@
+package com.telenor.possumlib.interfaces;
+
+import android.graphics.Bitmap;
+
+/**
+ * Interface for receiving preview images from the image detector. Previews are only produced
+ * while at least one of these is registered.
+ */
+public interface IPossumPreview {
+    /**
+     * A new preview image, delivered on the main thread
+     *
+     * @param image     the preview image. It is reused for the next preview of the same size, so
+     *                  copy it if it needs to outlive this call
+     * @param faceFound true if it is the aligned face used for recognition, false if it is a
+     *                  camera frame
+     */
+    void possumPreview(Bitmap image, boolean faceFound);
+}
@@ -0,0 +1,11 @@
+package com.telenor.possumlib.interfaces;
+
+/**
+ * Callback for a task submitted through PossumRuntime
+ *
+ * @param <T> type of the result of the task
+ */
+public interface ITaskCallback<T> {
+    void taskDone(T result);
+    void taskFailed(Exception exception);
+}
@@ -0,0 +1,155 @@
+package com.telenor.possumlib.models;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.telenor.possumlib.asynctasks.modelloaders.TensorLoad;
+import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.interfaces.IModelLoaded;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process wide holder of the models used by the detectors. A model is loaded (and warmed up) the
+ * first time it is requested and then kept for the lifetime of the process, so a restarted
+ * CollectionService gets the already initialized session instead of loading the graph again.
+ */
+public final class ModelRegistry {
+    private static final ModelRegistry instance = new ModelRegistry();
+    private static final String tag = ModelRegistry.class.getName();
+
+    private final SparseArray<Object> models = new SparseArray<>();
+    private final SparseArray<List<IModelLoaded>> listeners = new SparseArray<>();
+    private final SparseBooleanArray loading = new SparseBooleanArray();
+    private final SparseBooleanArray mapped = new SparseBooleanArray();
+    private final SparseArray<Long> loadTimes = new SparseArray<>();
+    private final SparseArray<Long> warmUpTimes = new SparseArray<>();
+
+    private ModelRegistry() {
+    }
+
+    public static ModelRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Requests the model for a given detector. If it is loaded, the listener is told immediately.
+     * If not, the listener is told once it is loaded, starting the load if it is not already
+     * running. The listener is kept until it is removed, so it will also receive a reloaded model.
+     *
+     * @param context      a valid android context
+     * @param detectorType the detector type wanting the model
+     * @param listener     the listener to receive the model
+     */
+    public synchronized void requestModel(@NonNull Context context, int detectorType, @NonNull IModelLoaded listener) {
+        List<IModelLoaded> detectorListeners = listeners.get(detectorType);
+        if (detectorListeners == null) {
+            detectorListeners = new ArrayList<>();
+            listeners.put(detectorType, detectorListeners);
+        }
+        if (!detectorListeners.contains(listener)) {
+            detectorListeners.add(listener);
+        }
+        Object model = models.get(detectorType);
+        if (model != null) {
+            listener.modelLoaded(detectorType, model);
+        } else if (!loading.get(detectorType)) {
+            startLoad(context.getApplicationContext(), detectorType);
+        }
+    }
+
+    /**
+     * Removes a listener from all models it has requested
+     *
+     * @param listener the listener to remove
+     */
+    public synchronized void removeListener(@NonNull IModelLoaded listener) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.valueAt(i).remove(listener);
+        }
+    }
+
+    private void startLoad(Context context, int detectorType) {
+        switch (detectorType) {
+            case DetectorType.Image:
+                loading.put(detectorType, true);
+                new TensorLoad(context, this).start();
+                break;
+            default:
+                Log.d(tag, "No model used for detector:" + detectorType);
+        }
+    }
+
+    /**
+     * Called by the loaders when they are done, successful or not
+     *
+     * @param detectorType  the detector type the model is for
+     * @param model         the loaded model, or null if it failed to load
+     * @param isMapped      whether the model file could be read memory mapped
+     * @param loadMillis    time spent loading the model
+     * @param warmUpMillis  time spent on the warm up inference
+     */
+    public synchronized void modelLoaded(int detectorType, Object model, boolean isMapped, long loadMillis, long warmUpMillis) {
+        loading.delete(detectorType);
+        if (model == null) {
+            Log.w(tag, "Model failed to load for detector:" + detectorType);
+            return;
+        }
+        models.put(detectorType, model);
+        mapped.put(detectorType, isMapped);
+        loadTimes.put(detectorType, loadMillis);
+        warmUpTimes.put(detectorType, warmUpMillis);
+        Log.i(tag, "Model for " + detectorType + " loaded in " + loadMillis + "ms (mapped:" + isMapped + "), warm up " + warmUpMillis + "ms");
+        List<IModelLoaded> detectorListeners = listeners.get(detectorType);
+        if (detectorListeners != null) {
+            for (IModelLoaded listener : new ArrayList<>(detectorListeners)) {
+                listener.modelLoaded(detectorType, model);
+            }
+        }
+    }
+
+    /**
+     * Whether the model for a detector is loaded
+     *
+     * @param detectorType the detector type
+     * @return true if loaded, false if not (yet)
+     */
+    public synchronized boolean isLoaded(int detectorType) {
+        return models.get(detectorType) != null;
+    }
+
+    /**
+     * Whether the model file was stored uncompressed, letting the native loader map it instead of
+     * reading it into memory
+     *
+     * @param detectorType the detector type
+     * @return true if mapped, false if not or not loaded
+     */
+    public synchronized boolean isMapped(int detectorType) {
+        return mapped.get(detectorType);
+    }
+
+    /**
+     * Time spent loading the model
+     *
+     * @param detectorType the detector type
+     * @return milliseconds, or -1 if not loaded
+     */
+    public synchronized long loadMillis(int detectorType) {
+        return loadTimes.get(detectorType, -1L);
+    }
+
+    /**
+     * Time spent on the first (warm up) inference after loading the model
+     *
+     * @param detectorType the detector type
+     * @return milliseconds, or -1 if not loaded
+     */
+    public synchronized long warmUpMillis(int detectorType) {
+        return warmUpTimes.get(detectorType, -1L);
+    }
+}
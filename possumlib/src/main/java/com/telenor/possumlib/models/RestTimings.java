@@ -0,0 +1,101 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Time spent in each phase of a rest call, in millis. Each phase is marked as it ends, a phase
+ * not reached stays 0.
+ */
+public class RestTimings {
+    private final long started = System.nanoTime();
+    private long lap = started;
+    private long resolve;
+    private long connect;
+    private long send;
+    private long wait;
+    private long read;
+    private long total;
+
+    private long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - lap;
+        lap = now;
+        total = now - started;
+        return elapsed / 1000000;
+    }
+
+    /**
+     * Host name looked up
+     */
+    public void resolved() {
+        resolve = lap();
+    }
+
+    /**
+     * Connection made, including tls handshake unless an open connection was reused
+     */
+    public void connected() {
+        connect = lap();
+    }
+
+    /**
+     * Request body written
+     */
+    public void sent() {
+        send = lap();
+    }
+
+    /**
+     * Response code received
+     */
+    public void responded() {
+        wait = lap();
+    }
+
+    /**
+     * Response body read
+     */
+    public void read() {
+        read = lap();
+    }
+
+    public long resolveMillis() {
+        return resolve;
+    }
+
+    public long connectMillis() {
+        return connect;
+    }
+
+    public long sendMillis() {
+        return send;
+    }
+
+    public long waitMillis() {
+        return wait;
+    }
+
+    public long readMillis() {
+        return read;
+    }
+
+    public long totalMillis() {
+        return total / 1000000;
+    }
+
+    public JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("resolve", resolve);
+        object.addProperty("connect", connect);
+        object.addProperty("send", send);
+        object.addProperty("wait", wait);
+        object.addProperty("read", read);
+        object.addProperty("total", totalMillis());
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.telenor.possumlib.models;
+
+/**
+ * Decides when a detector closes its current output file and stages it for upload, instead of
+ * letting it grow until the next upload run. A file is rotated when it reaches a number of bytes
+ * or has been written to for a given time, whichever comes first. A limit of zero or less is not
+ * used.
+ */
+public class RotationPolicy {
+    public static final RotationPolicy NEVER = new RotationPolicy(0, 0);
+    private final long maxBytes;
+    private final long maxMillis;
+
+    /**
+     * Constructor for a rotation policy
+     *
+     * @param maxBytes  size at which the file is rotated, in bytes
+     * @param maxMillis time after the first write at which the file is rotated, in milliseconds
+     */
+    public RotationPolicy(long maxBytes, long maxMillis) {
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Whether a file should be rotated
+     *
+     * @param bytes     current size of the file
+     * @param startedAt time of the first write to the file, in milliseconds
+     * @param now       current time in milliseconds
+     * @return true if the file should be closed and staged
+     */
+    public boolean shouldRotate(long bytes, long startedAt, long now) {
+        if (bytes <= 0) return false;
+        if (maxBytes > 0 && bytes >= maxBytes) return true;
+        return maxMillis > 0 && startedAt > 0 && now - startedAt >= maxMillis;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    public long maxMillis() {
+        return maxMillis;
+    }
+}
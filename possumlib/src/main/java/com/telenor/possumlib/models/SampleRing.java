@@ -0,0 +1,88 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Fixed size ring buffer of the latest rows of a detector, used in warm mode so an authentication
+ * can be sent right away instead of gathering for Constants.AUTHENTICATION_TIME first. The arrays
+ * are allocated once, new rows overwrite the oldest.
+ */
+public class SampleRing {
+    private final long[] timestamps;
+    private final JsonArray[] rows;
+    private int next;
+    private int size;
+
+    /**
+     * Constructor for the ring
+     *
+     * @param capacity max number of rows kept
+     */
+    public SampleRing(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        timestamps = new long[capacity];
+        rows = new JsonArray[capacity];
+    }
+
+    /**
+     * Adds a row, overwriting the oldest if the ring is full
+     *
+     * @param timestamp timestamp of the row in millis
+     * @param row       the row
+     */
+    public synchronized void add(long timestamp, @NonNull JsonArray row) {
+        timestamps[next] = timestamp;
+        rows[next] = row;
+        next = (next + 1) % rows.length;
+        if (size < rows.length) size++;
+    }
+
+    /**
+     * The rows from a point in time, oldest first
+     *
+     * @param from first timestamp included, in millis
+     * @return the rows, as the detector would have given them in jsonData
+     */
+    public synchronized JsonArray snapshot(long from) {
+        JsonArray snapshot = new JsonArray();
+        int start = (next - size + rows.length) % rows.length;
+        for (int i = 0; i < size; i++) {
+            int position = (start + i) % rows.length;
+            if (timestamps[position] >= from) {
+                snapshot.add(rows[position]);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Number of rows in the ring
+     *
+     * @return number of rows
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Max number of rows in the ring
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return rows.length;
+    }
+
+    /**
+     * Removes all rows
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = null;
+        }
+        next = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,128 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Samples of a detector over a time range, as primitive arrays. Each row is a timestamp and a
+ * number of float columns, stored row by row in values. Columns that are not numbers, or missing
+ * in a row, are NaN.
+ */
+public class SampleSet {
+    public static final SampleSet EMPTY = new SampleSet(new long[0], new float[0], 0);
+    private final long[] timestamps;
+    private final float[] values;
+    private final int columns;
+
+    /**
+     * Constructor for the sample set
+     *
+     * @param timestamps timestamps of the rows
+     * @param values     values of the rows, timestamps.length * columns
+     * @param columns    number of values in each row
+     */
+    public SampleSet(@NonNull long[] timestamps, @NonNull float[] values, int columns) {
+        if (values.length != timestamps.length * columns) {
+            throw new IllegalArgumentException("Expected " + timestamps.length * columns + " values, got " + values.length);
+        }
+        this.timestamps = timestamps;
+        this.values = values;
+        this.columns = columns;
+    }
+
+    /**
+     * Makes a sample set from stored rows, the first element of each being the timestamp
+     *
+     * @param rows the rows, in the order they were stored
+     * @return the sample set
+     */
+    public static SampleSet fromRows(@NonNull List<JsonArray> rows) {
+        if (rows.isEmpty()) return EMPTY;
+        int columns = 0;
+        for (JsonArray row : rows) {
+            columns = Math.max(columns, row.size() - 1);
+        }
+        long[] timestamps = new long[rows.size()];
+        float[] values = new float[rows.size() * columns];
+        Arrays.fill(values, Float.NaN);
+        for (int i = 0; i < rows.size(); i++) {
+            JsonArray row = rows.get(i);
+            timestamps[i] = row.get(0).getAsLong();
+            for (int column = 1; column < row.size(); column++) {
+                values[i * columns + column - 1] = toFloat(row.get(column));
+            }
+        }
+        return new SampleSet(timestamps, values, columns);
+    }
+
+    private static float toFloat(JsonElement element) {
+        if (!element.isJsonPrimitive()) return Float.NaN;
+        try {
+            return Float.parseFloat(element.getAsString());
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * Number of rows
+     *
+     * @return number of samples
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Number of values in each row
+     *
+     * @return number of columns
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Timestamp of a row
+     *
+     * @param row the row
+     * @return the timestamp in millis
+     */
+    public long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    /**
+     * A value of a row
+     *
+     * @param row    the row
+     * @param column the column, not counting the timestamp
+     * @return the value, or NaN if it was not a number
+     */
+    public float value(int row, int column) {
+        return values[row * columns + column];
+    }
+
+    /**
+     * The timestamps of all rows. The array is not copied.
+     *
+     * @return the timestamps
+     */
+    public long[] timestamps() {
+        return timestamps;
+    }
+
+    /**
+     * The values of all rows, row by row. The array is not copied.
+     *
+     * @return the values
+     */
+    public float[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,395 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Append only log of deflated segments, used by the zipping detectors instead of keeping a zip
+ * stream open. Each segment is complete on its own:
+ * <pre>
+ * [magic int][compressed length int][raw length int][crc32 of compressed data int][compressed data]
+ * </pre>
+ * Should the process die while a segment is written, only that segment is lost. recover cuts the
+ * log at the first segment that is incomplete or fails its checksum, and toZip turns the valid
+ * segments into the zip uploaded as before.
+ * <p>
+ * No segment holds more than MAX_SEGMENT_DATA raw bytes, well below the size recover accepts, so
+ * larger writes are split into several segments.
+ */
+public class SegmentLog implements Closeable {
+    public static final int MAGIC = 0x50534C31; // "PSL1"
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /**
+     * Max raw bytes in one segment. Deflating never grows data by more than a small fraction, so
+     * the compressed segment stays below MAX_SEGMENT_SIZE.
+     */
+    public static final int MAX_SEGMENT_DATA = 4 * 1024 * 1024;
+    private static final String tag = SegmentLog.class.getName();
+
+    private final FileOutputStream output;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private byte[] compressed = new byte[8192];
+    private long length;
+
+    /**
+     * Opens a log for appending. The log should have been recovered first, so new segments do not
+     * end up after a broken one.
+     *
+     * @param file the log file
+     * @throws IOException if the file could not be opened
+     */
+    public SegmentLog(@NonNull File file) throws IOException {
+        output = new FileOutputStream(file, true);
+        length = file.length();
+    }
+
+    /**
+     * Writes data, as one segment or as several if it is larger than MAX_SEGMENT_DATA
+     *
+     * @param data   the raw data
+     * @param offset start of the data in the array
+     * @param count  number of bytes to write
+     * @throws IOException if a segment could not be written
+     */
+    public synchronized void write(byte[] data, int offset, int count) throws IOException {
+        int written = 0;
+        while (written < count) {
+            int segment = Math.min(count - written, MAX_SEGMENT_DATA);
+            writeSegment(data, offset + written, segment);
+            written += segment;
+        }
+    }
+
+    /**
+     * Writes data as exactly one segment, for callers that read it back with readSegment
+     *
+     * @param data   the raw data
+     * @param offset start of the data in the array
+     * @param count  number of bytes to write, at most MAX_SEGMENT_DATA
+     * @throws IOException if the segment could not be written or the data is too large
+     */
+    public synchronized void writeSegment(byte[] data, int offset, int count) throws IOException {
+        if (count == 0) return;
+        if (count > MAX_SEGMENT_DATA) {
+            throw new IOException("Segment of " + count + " bytes is larger than " + MAX_SEGMENT_DATA);
+        }
+        deflater.reset();
+        deflater.setInput(data, offset, count);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                byte[] larger = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, larger, 0, compressedLength);
+                compressed = larger;
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        crc.reset();
+        crc.update(compressed, 0, compressedLength);
+        header.clear();
+        header.putInt(MAGIC).putInt(compressedLength).putInt(count).putInt((int) crc.getValue());
+        // Header and data in one write, so a segment is never split across two writes
+        byte[] segment = new byte[HEADER_SIZE + compressedLength];
+        System.arraycopy(header.array(), 0, segment, 0, HEADER_SIZE);
+        System.arraycopy(compressed, 0, segment, HEADER_SIZE, compressedLength);
+        output.write(segment);
+        length += segment.length;
+    }
+
+    /**
+     * Number of bytes in the log
+     *
+     * @return the length of the log file
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        deflater.end();
+        output.close();
+    }
+
+    /**
+     * Cuts the log after its last valid segment. A zip stream left open by an earlier version is
+     * salvaged into segments as far as it can be read.
+     *
+     * @param file the log file
+     * @return number of valid bytes kept
+     */
+    public static long recover(@NonNull File file) {
+        if (!file.exists() || file.length() == 0) return 0;
+        try {
+            if (isZip(file)) {
+                return salvageZip(file);
+            }
+            long valid = validLength(file);
+            if (valid < file.length()) {
+                Log.w(tag, "Discarding " + (file.length() - valid) + " broken bytes of " + file.getName());
+                RandomAccessFile access = new RandomAccessFile(file, "rw");
+                try {
+                    access.setLength(valid);
+                } finally {
+                    access.close();
+                }
+            }
+            return valid;
+        } catch (IOException e) {
+            Log.e(tag, "Failed to recover " + file.getName() + ", discarding it:", e);
+            if (!file.delete()) {
+                Log.e(tag, "Unable to delete " + file.getName());
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the valid segments of a log as a single entry zip
+     *
+     * @param log       the log file
+     * @param zip       the zip to write
+     * @param entryName the name of the entry in the zip
+     * @return true if there was any data to write
+     * @throws IOException if the zip could not be written
+     */
+    public static boolean toZip(@NonNull File log, @NonNull File zip, @NonNull String entryName) throws IOException {
+        if (!log.exists() || log.length() == 0) return false;
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip));
+        boolean wroteData;
+        try {
+            output.putNextEntry(new ZipEntry(entryName));
+            wroteData = readSegments(log, output) > 0;
+            output.closeEntry();
+        } finally {
+            output.close();
+        }
+        return wroteData;
+    }
+
+    /**
+     * Inflates the valid segments of a log
+     *
+     * @param log    the log file
+     * @param output stream receiving the raw data
+     * @return number of raw bytes written
+     * @throws IOException if the log could not be read
+     */
+    public static long readSegments(@NonNull File log, @NonNull OutputStream output) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+        Inflater inflater = new Inflater(true);
+        long written = 0;
+        try {
+            byte[] compressed = new byte[8192];
+            byte[] raw = new byte[8192];
+            while (true) {
+                int compressedLength;
+                int rawLength;
+                int expectedCrc;
+                try {
+                    if (input.readInt() != MAGIC) break;
+                    compressedLength = input.readInt();
+                    rawLength = input.readInt();
+                    expectedCrc = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!validLengths(compressedLength, rawLength)) break;
+                if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+                if (raw.length < rawLength) raw = new byte[rawLength];
+                try {
+                    input.readFully(compressed, 0, compressedLength);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!inflate(inflater, compressed, compressedLength, expectedCrc, raw, rawLength)) break;
+                output.write(raw, 0, rawLength);
+                written += rawLength;
+            }
+        } finally {
+            inflater.end();
+            input.close();
+        }
+        return written;
+    }
+
+    /**
+     * Inflates the single segment starting at an offset of the log, without reading the rest
+     *
+     * @param log    the log, opened for reading
+     * @param offset where the segment starts
+     * @return the raw data of the segment, or null if there is no valid segment at the offset
+     * @throws IOException if the log could not be read
+     */
+    public static byte[] readSegment(@NonNull RandomAccessFile log, long offset) throws IOException {
+        if (offset < 0 || offset + HEADER_SIZE > log.length()) return null;
+        log.seek(offset);
+        if (log.readInt() != MAGIC) return null;
+        int compressedLength = log.readInt();
+        int rawLength = log.readInt();
+        int expectedCrc = log.readInt();
+        if (!validLengths(compressedLength, rawLength) || offset + HEADER_SIZE + compressedLength > log.length()) {
+            return null;
+        }
+        byte[] compressed = new byte[compressedLength];
+        log.readFully(compressed);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            return inflate(inflater, compressed, compressedLength, expectedCrc, raw, rawLength) ? raw : null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Checks and inflates the compressed data of one segment
+     *
+     * @return true if the segment was intact and filled raw
+     */
+    private static boolean inflate(Inflater inflater, byte[] compressed, int compressedLength, int expectedCrc, byte[] raw, int rawLength) {
+        CRC32 crc = new CRC32();
+        crc.update(compressed, 0, compressedLength);
+        if ((int) crc.getValue() != expectedCrc) return false;
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+            return inflated == rawLength;
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean validLengths(int compressedLength, int rawLength) {
+        return compressedLength > 0 && compressedLength <= MAX_SEGMENT_SIZE && rawLength > 0 && rawLength <= MAX_SEGMENT_SIZE;
+    }
+
+    private static long validLength(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long valid = 0;
+        try {
+            byte[] compressed = new byte[8192];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int compressedLength;
+                int expectedCrc;
+                try {
+                    if (input.readInt() != MAGIC) break;
+                    compressedLength = input.readInt();
+                    int rawLength = input.readInt();
+                    expectedCrc = input.readInt();
+                    if (!validLengths(compressedLength, rawLength)) break;
+                    if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+                    input.readFully(compressed, 0, compressedLength);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(compressed, 0, compressedLength);
+                if ((int) crc.getValue() != expectedCrc) break;
+                valid += HEADER_SIZE + compressedLength;
+            }
+        } finally {
+            input.close();
+        }
+        return valid;
+    }
+
+    private static boolean isZip(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] start = new byte[4];
+            return input.read(start) == 4 && start[0] == 'P' && start[1] == 'K' && start[2] == 3 && start[3] == 4;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads what can be read of an unfinished zip and writes it back as a log. The data is
+     * streamed through in segments of whole lines, so a large zip is neither held in memory nor
+     * written as a segment too large to be read back.
+     */
+    private static long salvageZip(File file) throws IOException {
+        File temp = new File(file.getAbsolutePath() + ".recovered");
+        SegmentLog log = new SegmentLog(temp);
+        long salvaged = 0;
+        try {
+            ZipInputStream input = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)));
+            byte[] pending = new byte[MAX_SEGMENT_DATA];
+            int pendingLength = 0;
+            try {
+                if (input.getNextEntry() != null) {
+                    int count;
+                    while ((count = input.read(pending, pendingLength, pending.length - pendingLength)) != -1) {
+                        pendingLength += count;
+                        if (pendingLength == pending.length) {
+                            // A line longer than a segment is split, the rest keeps whole lines
+                            int end = wholeLines(pending, pendingLength);
+                            if (end == 0) end = pendingLength;
+                            log.writeSegment(pending, 0, end);
+                            salvaged += end;
+                            System.arraycopy(pending, end, pending, 0, pendingLength - end);
+                            pendingLength -= end;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // The stream ends where the process was killed, keeping what was read up to there
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException ignore) {
+                }
+            }
+            // Only whole lines are kept
+            int end = wholeLines(pending, pendingLength);
+            log.writeSegment(pending, 0, end);
+            salvaged += end;
+        } finally {
+            log.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Unable to replace " + file.getName());
+        Log.i(tag, "Salvaged " + salvaged + " bytes from unfinished zip " + file.getName());
+        return file.length();
+    }
+
+    /**
+     * Length of the data up to and including its last line break
+     */
+    private static int wholeLines(byte[] data, int length) {
+        int end = length;
+        while (end > 0 && data[end - 1] != '\n') end--;
+        return end;
+    }
+}
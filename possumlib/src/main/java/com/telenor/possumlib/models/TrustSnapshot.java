@@ -0,0 +1,197 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.constants.DetectorType;
+
+/**
+ * The trust scores of one authentication response, the combined score and one per detector. It is
+ * parsed once when the response arrives and never changed after, so it can be handed to any
+ * thread and queried without locking. A newer snapshot replaces it as a whole.
+ */
+public class TrustSnapshot {
+    /**
+     * Name of the combined score, as in the response
+     */
+    public static final String COMBINED = "trustscore";
+    /**
+     * Names of the detectors in the response, in the order they are kept
+     */
+    public static final String[] DETECTORS = {"accelerometer", "gyroscope", "sound", "network", "bluetooth", "position", "image"};
+    private static final int[] DETECTOR_TYPES = {DetectorType.Accelerometer, DetectorType.Gyroscope, DetectorType.Audio, DetectorType.Wifi, DetectorType.Bluetooth, DetectorType.Position, DetectorType.Image};
+    private static final String DEFAULT_STATUS = "OK";
+    /**
+     * Snapshot used before any response has arrived
+     */
+    public static final TrustSnapshot EMPTY = new TrustSnapshot(0, 0, 0, DEFAULT_STATUS, new float[DETECTORS.length], defaultStatuses());
+
+    private final long sequence;
+    private final long receivedAt;
+    private final float combinedScore;
+    private final String combinedStatus;
+    private final float[] scores;
+    private final String[] statuses;
+
+    private TrustSnapshot(long sequence, long receivedAt, float combinedScore, String combinedStatus, float[] scores, String[] statuses) {
+        this.sequence = sequence;
+        this.receivedAt = receivedAt;
+        this.combinedScore = combinedScore;
+        this.combinedStatus = combinedStatus;
+        this.scores = scores;
+        this.statuses = statuses;
+    }
+
+    private static String[] defaultStatuses() {
+        String[] statuses = new String[DETECTORS.length];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = DEFAULT_STATUS;
+        }
+        return statuses;
+    }
+
+    /**
+     * Parses an authentication response
+     *
+     * @param json       the response, with "trustscore" and "sensors" objects
+     * @param sequence   order the response was received in, a higher sequence is newer
+     * @param receivedAt when the response was received, in millis
+     * @return the snapshot
+     * @throws JsonParseException if the response is not as expected
+     */
+    public static TrustSnapshot parse(@NonNull String json, long sequence, long receivedAt) {
+        try {
+            JsonObject object = new JsonParser().parse(json).getAsJsonObject();
+            JsonObject combined = object.getAsJsonObject(COMBINED);
+            JsonObject sensors = object.getAsJsonObject("sensors");
+            if (combined == null || sensors == null) {
+                throw new JsonParseException("Missing trustscore or sensors in " + json);
+            }
+            float[] scores = new float[DETECTORS.length];
+            String[] statuses = new String[DETECTORS.length];
+            for (int i = 0; i < DETECTORS.length; i++) {
+                JsonObject sensor = sensors.getAsJsonObject(DETECTORS[i]);
+                if (sensor == null) {
+                    throw new JsonParseException("Missing " + DETECTORS[i] + " in " + json);
+                }
+                scores[i] = score(sensor);
+                statuses[i] = status(sensor);
+            }
+            return new TrustSnapshot(sequence, receivedAt, score(combined), status(combined), scores, statuses);
+        } catch (ClassCastException | IllegalStateException | NumberFormatException e) {
+            throw new JsonParseException("Unable to parse trust from " + json, e);
+        }
+    }
+
+    private static float score(JsonObject object) {
+        JsonElement score = object.get("score");
+        return score == null || score.isJsonNull() ? 0 : score.getAsFloat();
+    }
+
+    private static String status(JsonObject object) {
+        JsonElement status = object.get("status");
+        return status == null || status.isJsonNull() ? DEFAULT_STATUS : status.getAsString();
+    }
+
+    private static int indexOf(String detector) {
+        for (int i = 0; i < DETECTORS.length; i++) {
+            if (DETECTORS[i].equals(detector)) return i;
+        }
+        throw new IllegalArgumentException("No trust for " + detector);
+    }
+
+    /**
+     * Whether this snapshot was received after another
+     *
+     * @param other the other snapshot
+     * @return true if this is the newer one
+     */
+    public boolean isNewerThan(@NonNull TrustSnapshot other) {
+        return sequence > other.sequence;
+    }
+
+    /**
+     * When the response was received
+     *
+     * @return time in millis, 0 for the empty snapshot
+     */
+    public long receivedAt() {
+        return receivedAt;
+    }
+
+    public float combinedScore() {
+        return combinedScore;
+    }
+
+    public String combinedStatus() {
+        return combinedStatus;
+    }
+
+    /**
+     * Score of a detector, or the combined score for "trustscore"
+     *
+     * @param detector name of the detector as in the response
+     * @return the score
+     * @throws IllegalArgumentException if the response has no such detector
+     */
+    public float score(@NonNull String detector) {
+        return COMBINED.equals(detector) ? combinedScore : scores[indexOf(detector)];
+    }
+
+    /**
+     * Status of a detector, or the combined status for "trustscore"
+     *
+     * @param detector name of the detector as in the response
+     * @return the status
+     * @throws IllegalArgumentException if the response has no such detector
+     */
+    public String status(@NonNull String detector) {
+        return COMBINED.equals(detector) ? combinedStatus : statuses[indexOf(detector)];
+    }
+
+    /**
+     * Number of detectors in the snapshot
+     *
+     * @return number of detectors
+     */
+    public int size() {
+        return DETECTORS.length;
+    }
+
+    public int detectorTypeAt(int index) {
+        return DETECTOR_TYPES[index];
+    }
+
+    public float scoreAt(int index) {
+        return scores[index];
+    }
+
+    public String statusAt(int index) {
+        return statuses[index];
+    }
+
+    /**
+     * The snapshot as json, one object with score and status for the combined score and each
+     * detector. Made anew on each call.
+     *
+     * @return the json object
+     */
+    public JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.add(COMBINED, entry(combinedScore, combinedStatus));
+        for (int i = 0; i < DETECTORS.length; i++) {
+            object.add(DETECTORS[i], entry(scores[i], statuses[i]));
+        }
+        return object;
+    }
+
+    private static JsonObject entry(float score, String status) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("status", status);
+        entry.addProperty("score", score);
+        return entry;
+    }
+}
@@ -8,20 +8,35 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.abstractservices.AbstractBasicService;
-import com.telenor.possumlib.asynctasks.modelloaders.TensorLoad;
 import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.detectors.ImageDetector;
 import com.telenor.possumlib.functionality.GatheringFunctionality;
+import com.telenor.possumlib.functionality.RestClient;
 import com.telenor.possumlib.functionality.RestFunctionality;
+import com.telenor.possumlib.functionality.StreamingRestFunctionality;
 import com.telenor.possumlib.interfaces.IRestListener;
+import com.telenor.possumlib.models.ModelRegistry;
+import com.telenor.possumlib.models.RestTimings;
+import com.telenor.possumlib.models.TrustSnapshot;
+import com.telenor.possumlib.utils.PossumOptions;
+import com.telenor.possumlib.utils.PreviewChannel;
 import com.telenor.possumlib.utils.Send;
 
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /***
  * Service that handles all actions pertaining to collecting the data from the sensors.
@@ -33,6 +48,9 @@ public class CollectionService extends AbstractBasicService implements IRestList
     private static String url;
     private static String apiKey;
     private Runnable authRunnable;
+    private Runnable streamRunnable;
+    private StreamingRestFunctionality authStream;
+    private final Map<AbstractDetector, Integer> streamedRows = new HashMap<>();
     private Handler authHandler = new Handler(Looper.getMainLooper());
     private static final String tag = CollectionService.class.getName();
 
@@ -49,9 +67,21 @@ public class CollectionService extends AbstractBasicService implements IRestList
     public int onStartCommand(Intent intent, int flags, int requestCode) {
         // Ensures all detectors are terminated and cleared before adding new ones
         final String uniqueUserId = intent.getStringExtra("uniqueUserId");
+        PossumOptions.readFrom(intent);
+        if (intent.hasExtra("warm")) {
+            // Leaves any gathering or authentication going on as it is
+            setWarm(uniqueUserId, intent.getBooleanExtra("warm", false));
+            return super.onStartCommand(intent, flags, requestCode);
+        }
         url = intent.getStringExtra("url");
         apiKey = intent.getStringExtra("apiKey");
         isAuthenticating = intent.getBooleanExtra("authenticating", false);
+        PreviewChannel.setEnabled(intent.getBooleanExtra("preview", false));
+        if (uniqueUserId != null && isAuthenticating && gatheringFunctionality.isWarm()) {
+            // The rings already hold the samples, no need to gather before sending
+            performWarmAuth(uniqueUserId);
+            return super.onStartCommand(intent, flags, requestCode);
+        }
         if (uniqueUserId != null) {
             gatheringFunctionality.setAuthenticationState(isAuthenticating);
             gatheringFunctionality.setUniqueUserId(uniqueUserId);
@@ -61,10 +91,20 @@ public class CollectionService extends AbstractBasicService implements IRestList
             }
             gatheringFunctionality.startGathering();
             if (isAuthenticating) {
+                // A new authentication replaces one still gathering
+                destroyAsyncMethods();
+                final boolean streaming = PossumOptions.streamingAuth() && startAuthStream(uniqueUserId);
+                if (!streaming && Constants.AUTH_PRECONNECT) {
+                    preconnect();
+                }
                 authRunnable = new Runnable() {
                     @Override
                     public void run() {
-                        performAuth(uniqueUserId);
+                        if (streaming) {
+                            finishAuthStream();
+                        } else {
+                            performAuth(uniqueUserId);
+                        }
                     }
                 };
                 authHandler.postDelayed(authRunnable, authTime());
@@ -82,30 +122,53 @@ public class CollectionService extends AbstractBasicService implements IRestList
     public void onCreate() {
         super.onCreate();
         gatheringFunctionality = new GatheringFunctionality(this);
+        gatheringFunctionality.recoverStoredData();
         receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 if (intent == null || intent.getAction() == null) return;
-                handleIntent(intent.getStringExtra(Messaging.POSSUM_MESSAGE_TYPE));
+                handleIntent(intent.getStringExtra(Messaging.POSSUM_MESSAGE_TYPE), intent.getStringExtra(Messaging.POSSUM_MESSAGE));
             }
         };
         getApplicationContext().registerReceiver(receiver, new IntentFilter(Messaging.POSSUM_MESSAGE));
-        // Loading all the models, letting the listener be the gatherer
-        TensorLoad tensorLoad = new TensorLoad(this, gatheringFunctionality);
-        tensorLoad.execute((Void)null);
+        // Requesting all the models, letting the listener be the gatherer. They are only loaded
+        // the first time, later service starts get the already loaded model from the registry
+        ModelRegistry.getInstance().requestModel(this, DetectorType.Image, gatheringFunctionality);
         AwesomePossum.sendDetectorStatus(this);
     }
 
+    private void preconnect() {
+        try {
+            RestClient.getInstance().preconnect(new URL(url));
+        } catch (MalformedURLException e) {
+            Log.e(tag, "Unable to preconnect due to malformed url:", e);
+        }
+    }
+
+    private void setWarm(String uniqueUserId, boolean warm) {
+        if (warm && uniqueUserId != null) {
+            if (!gatheringFunctionality.isGathering()) {
+                gatheringFunctionality.setUniqueUserId(uniqueUserId);
+            }
+            gatheringFunctionality.startWarm(Constants.WARM_WINDOW);
+        } else {
+            gatheringFunctionality.stopWarm();
+        }
+    }
+
     private int authTime() {
         return Constants.AUTHENTICATION_TIME;
     }
 
-    private void handleIntent(String action) {
+    private void handleIntent(String action, String message) {
         if (action == null) return;
         switch (action) {
             case Messaging.REQUEST_DETECTORS:
                 Send.messageIntent(this, Messaging.DETECTORS_STATUS, gatheringFunctionality.detectorsAsJson().toString());
                 break;
+            case Messaging.PREVIEW_ENABLE:
+                PreviewChannel.setEnabled(Boolean.parseBoolean(message));
+                break;
             default:
         }
     }
@@ -119,6 +182,8 @@ public class CollectionService extends AbstractBasicService implements IRestList
         super.onDestroy();
         Log.d(tag, "Destroying Collector service:"+this);
         destroyAsyncMethods();
+        ModelRegistry.getInstance().removeListener(gatheringFunctionality);
+        gatheringFunctionality.stopWarm();
         gatheringFunctionality.stopGathering(true);
         getApplicationContext().unregisterReceiver(receiver);
         receiver = null;
@@ -128,24 +193,117 @@ public class CollectionService extends AbstractBasicService implements IRestList
         if (authHandler != null && authRunnable != null) {
             authHandler.removeCallbacks(authRunnable);
         }
+        cancelAuthStream();
     }
 
-    private void performAuth(String uniqueUserId) {
+    /**
+     * Opens the connection for the authentication and starts streaming the rows as the detectors
+     * gather them
+     *
+     * @param uniqueUserId the unique user id
+     * @return true if streaming, false if the authentication should be posted at the end instead
+     */
+    private boolean startAuthStream(String uniqueUserId) {
+        cancelAuthStream();
         try {
-            Send.messageIntent(this, Messaging.START_SERVER_DATA_SEND, ""+System.currentTimeMillis());
-            if (isAuthenticating) {
-                JsonObject object = new JsonObject();
-                object.addProperty("connectId", uniqueUserId);
-                for (AbstractDetector detector : gatheringFunctionality.detectors()) {
-                    detector.stopListening();
-                    object.add(detector.detectorName(), detector.jsonData());
-                    detector.clearData();
-                }
-                RestFunctionality restFunctionality = new RestFunctionality(this, url, apiKey);
-                restFunctionality.execute(object);
-//                Send.messageIntent(this, Messaging.WAITING_FOR_SERVER_RESPONSE, "Time spent since auth start to send start:"+(System.currentTimeMillis()-startTime));
-                Send.messageIntent(this, Messaging.WAITING_FOR_SERVER_RESPONSE, ""+System.currentTimeMillis());
+            authStream = new StreamingRestFunctionality(this, url, apiKey, uniqueUserId);
+        } catch (MalformedURLException e) {
+            Log.e(tag, "Failed to stream data due to malformed url:", e);
+            return false;
+        }
+        streamedRows.clear();
+        authStream.start();
+        Send.messageIntent(this, Messaging.START_SERVER_DATA_SEND, ""+System.currentTimeMillis());
+        streamRunnable = new Runnable() {
+            @Override
+            public void run() {
+                streamNewRows();
+                authHandler.postDelayed(this, Constants.AUTH_STREAM_INTERVAL);
+            }
+        };
+        authHandler.postDelayed(streamRunnable, Constants.AUTH_STREAM_INTERVAL);
+        return true;
+    }
+
+    /**
+     * Sends the rows gathered since the last frame. Some detectors add rows on other threads, like
+     * the image detector on the camera thread, so the new rows are copied under the lock of the
+     * detector.
+     */
+    private void streamNewRows() {
+        if (authStream == null) return;
+        for (AbstractDetector detector : gatheringFunctionality.detectors()) {
+            if (!detector.streamsRows()) continue;
+            Integer streamed = streamedRows.get(detector);
+            List<JsonArray> rows = new ArrayList<>();
+            int size = detector.copySessionValues(streamed == null ? 0 : streamed, rows);
+            if (!rows.isEmpty()) {
+                authStream.send(detector.detectorName(), rows);
+            }
+            streamedRows.put(detector, size);
+        }
+    }
+
+    private void finishAuthStream() {
+        authHandler.removeCallbacks(streamRunnable);
+        if (authStream == null) return;
+        for (AbstractDetector detector : gatheringFunctionality.detectors()) {
+            detector.stopListening();
+        }
+        streamNewRows();
+        for (AbstractDetector detector : gatheringFunctionality.detectors()) {
+            if (!detector.streamsRows()) {
+                // Known now that the detector has stopped
+                authStream.send(detector.detectorName(), detector.jsonData());
+            }
+            detector.clearData();
+        }
+        authStream.finish();
+        authStream = null;
+        Send.messageIntent(this, Messaging.WAITING_FOR_SERVER_RESPONSE, ""+System.currentTimeMillis());
+    }
+
+    private void cancelAuthStream() {
+        if (streamRunnable != null) {
+            authHandler.removeCallbacks(streamRunnable);
+        }
+        if (authStream != null) {
+            authStream.cancel();
+            authStream = null;
+        }
+    }
+
+    private void performAuth(String uniqueUserId) {
+        Send.messageIntent(this, Messaging.START_SERVER_DATA_SEND, ""+System.currentTimeMillis());
+        if (isAuthenticating) {
+            JsonObject object = new JsonObject();
+            object.addProperty("connectId", uniqueUserId);
+            for (AbstractDetector detector : gatheringFunctionality.detectors()) {
+                detector.stopListening();
+                object.add(detector.detectorName(), detector.jsonData());
+                detector.clearData();
             }
+            postAuth(object);
+        }
+    }
+
+    /**
+     * Sends the rows the warm detectors hold right away, leaving the detectors listening
+     *
+     * @param uniqueUserId the unique user id
+     */
+    private void performWarmAuth(String uniqueUserId) {
+        Send.messageIntent(this, Messaging.START_SERVER_DATA_SEND, ""+System.currentTimeMillis());
+        JsonObject object = gatheringFunctionality.warmData();
+        object.addProperty("connectId", uniqueUserId);
+        postAuth(object);
+    }
+
+    private void postAuth(JsonObject object) {
+        try {
+            new RestFunctionality(this, url, apiKey).post(object);
+//            Send.messageIntent(this, Messaging.WAITING_FOR_SERVER_RESPONSE, "Time spent since auth start to send start:"+(System.currentTimeMillis()-startTime));
+            Send.messageIntent(this, Messaging.WAITING_FOR_SERVER_RESPONSE, ""+System.currentTimeMillis());
         } catch (MalformedURLException e) {
             Log.e(tag, "Failed to post data due to malformed url:", e);
         }
@@ -163,10 +321,35 @@ public class CollectionService extends AbstractBasicService implements IRestList
         Intent intent = new Intent(Messaging.POSSUM_TRUST);
         intent.putExtra("message", object.toString());
         sendBroadcast(intent);
-        Send.messageIntent(this, Messaging.AUTH_DONE, null);
+        enrollIfConfirmed(object);
+        // Time spent in each phase of the post, for the app to see where authentication waits
+        RestTimings timings = RestClient.getInstance().lastTimings();
+        Send.messageIntent(this, Messaging.AUTH_DONE, timings != null ? timings.toString() : null);
         // Data is not stored to file, so just let it die
     }
 
+    /**
+     * Enrolls the faces of the authentication when the server is confident it was the user
+     *
+     * @param response the response of the authentication
+     */
+    private void enrollIfConfirmed(JsonObject response) {
+        TrustSnapshot trust;
+        try {
+            trust = TrustSnapshot.parse(response.toString(), 0, System.currentTimeMillis());
+        } catch (JsonParseException e) {
+            Log.w(tag, "Unable to read trust, no faces enrolled:", e);
+            return;
+        }
+        if (trust.combinedScore() < Constants.ENROLL_MIN_TRUST || "TRAINING".equals(trust.combinedStatus())) {
+            return;
+        }
+        AbstractDetector detector = gatheringFunctionality.detectorWithId(DetectorType.Image);
+        if (detector instanceof ImageDetector) {
+            ((ImageDetector) detector).identityConfirmed();
+        }
+    }
+
     @Override
     public void failedToPush(Exception exception) {
         Log.e(tag, "Failed to push to rest service:", exception);
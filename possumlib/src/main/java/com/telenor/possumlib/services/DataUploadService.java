@@ -3,13 +3,17 @@ package com.telenor.possumlib.services;
 import android.content.Intent;
 import android.util.Log;
 
+import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.abstractservices.AbstractAmazonUploadService;
 import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.functionality.GatheringFunctionality;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Get;
+import com.telenor.possumlib.utils.PossumOptions;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.UploadBundler;
 
 import java.io.File;
 import java.util.List;
@@ -24,6 +28,7 @@ public class DataUploadService extends AbstractAmazonUploadService {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         uniqueUserId = intent.getStringExtra("uniqueUserId");
+        PossumOptions.readFrom(intent);
         if (uniqueUserId == null) {
             Send.messageIntent(this, Messaging.UPLOAD_FAILED, "Missing unique user id");
             Log.e(tag, "Missing unique user id on upload start");
@@ -40,11 +45,20 @@ public class DataUploadService extends AbstractAmazonUploadService {
     @Override
     public List<File> filesDesiredForUpload() {
         PossumBus possumBus = new PossumBus();
-        for (AbstractDetector detector : Get.Detectors(this, possumBus)) {
+        List<AbstractDetector> detectors = Get.Detectors(this, possumBus);
+        for (AbstractDetector detector : detectors) {
             detector.setUniqueUser(uniqueUserId);
-            detector.prepareUpload();
+        }
+        GatheringFunctionality.prepareUploads(detectors);
+        for (AbstractDetector detector : detectors) {
             detector.terminate();
         }
+        // Many tiny archives are sent as one bundle instead
+        UploadBundler.bundle(this, FileUtil.getFilesReadyForUpload(this), bundleKey());
         return FileUtil.getFilesReadyForUpload(this);
     }
+
+    private String bundleKey() {
+        return "possumlibdata/" + AwesomePossum.versionName(this) + "/" + UploadBundler.BUNDLE_DETECTOR + "/" + uniqueUserId + "/" + System.currentTimeMillis() + ".zip";
+    }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.telenor.possumlib.abstractservices.AbstractAmazonUploadService;
 import com.telenor.possumlib.constants.Messaging;
 import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.UploadIndex;
 
 import org.joda.time.DateTime;
 
@@ -73,6 +74,8 @@ final public class SendUserIdService extends AbstractAmazonUploadService {
         try {
             fos = new FileOutputStream(tempFile);
             fos.write(object.toString().getBytes());
+            fos.flush();
+            UploadIndex.getInstance(this).staged(tempFile);
             list.add(tempFile);
             Log.d(tag, "Successfully wrote and added user id File to list, returning it");
         } catch (Exception e) {
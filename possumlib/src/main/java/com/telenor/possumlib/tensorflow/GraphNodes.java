@@ -0,0 +1,312 @@
+package com.telenor.possumlib.tensorflow;
+
+import android.support.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the input and output nodes of a frozen graph by reading its GraphDef, so the batched
+ * inference feeds and reads the nodes the model actually has instead of guessing their names.
+ * Only the names, ops, inputs, dtype and shape of each node are read, the weights of the constant
+ * nodes are skipped.
+ * <p>
+ * The input is the float Placeholder, preferring one of rank 4. The output is the one node no
+ * other node consumes, ignoring constants and bookkeeping ops, or the one named embeddings should
+ * there be several. A graph with more placeholders than the input needs values the batched path
+ * cannot give, and is reported as not batchable.
+ */
+public class GraphNodes {
+    private static final int DT_FLOAT = 1;
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH = 2;
+    private static final int WIRE_FIXED32 = 5;
+    private static final String PREFERRED_OUTPUT = "embeddings";
+    private final String inputNode;
+    private final String outputNode;
+    private final List<String> otherPlaceholders;
+
+    private GraphNodes(String inputNode, String outputNode, List<String> otherPlaceholders) {
+        this.inputNode = inputNode;
+        this.outputNode = outputNode;
+        this.otherPlaceholders = otherPlaceholders;
+    }
+
+    /**
+     * Name of the image input node
+     *
+     * @return the node name, or null if none was found
+     */
+    public String inputNode() {
+        return inputNode;
+    }
+
+    /**
+     * Name of the embedding output node
+     *
+     * @return the node name, or null if none or more than one was found
+     */
+    public String outputNode() {
+        return outputNode;
+    }
+
+    /**
+     * Whether the batched path can run the graph, feeding only the input node
+     *
+     * @return true if both nodes were found and no other placeholder needs a value
+     */
+    public boolean isBatchable() {
+        return inputNode != null && outputNode != null && otherPlaceholders.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "input:" + inputNode + ", output:" + outputNode + ", other placeholders:" + otherPlaceholders;
+    }
+
+    /**
+     * Reads the nodes of a serialized GraphDef
+     *
+     * @param input stream of the graph file, not closed
+     * @return the nodes found
+     * @throws IOException if the graph could not be read
+     */
+    public static GraphNodes read(@NonNull InputStream input) throws IOException {
+        Reader reader = new Reader(input);
+        List<Node> nodes = new ArrayList<>();
+        Set<String> consumed = new HashSet<>();
+        int tag;
+        while ((tag = reader.tagOrEnd()) != -1) {
+            if (tag >>> 3 == 1 && (tag & 7) == WIRE_LENGTH) {
+                Node node = readNode(reader, reader.varint());
+                nodes.add(node);
+                consumed.addAll(node.inputs);
+            } else {
+                reader.skipField(tag);
+            }
+        }
+        Node image = null;
+        List<String> placeholders = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!"Placeholder".equals(node.op)) continue;
+            placeholders.add(node.name);
+            if (node.dtype == DT_FLOAT && (image == null || (image.rank != 4 && node.rank == 4))) {
+                image = node;
+            }
+        }
+        List<String> outputs = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!consumed.contains(node.name) && !isBookkeeping(node.op)) {
+                outputs.add(node.name);
+            }
+        }
+        String output = null;
+        if (outputs.size() == 1) {
+            output = outputs.get(0);
+        } else if (outputs.contains(PREFERRED_OUTPUT)) {
+            output = PREFERRED_OUTPUT;
+        }
+        if (image != null) {
+            placeholders.remove(image.name);
+        }
+        return new GraphNodes(image != null ? image.name : null, output, placeholders);
+    }
+
+    private static boolean isBookkeeping(String op) {
+        return op == null || op.equals("Const") || op.equals("NoOp") || op.equals("Placeholder")
+                || op.equals("PlaceholderWithDefault") || op.equals("Assert") || op.startsWith("Save")
+                || op.startsWith("Restore");
+    }
+
+    private static Node readNode(Reader reader, long length) throws IOException {
+        long end = reader.position + length;
+        Node node = new Node();
+        while (reader.position < end) {
+            int tag = reader.tag();
+            int field = tag >>> 3;
+            if (field == 1 && (tag & 7) == WIRE_LENGTH) {
+                node.name = reader.string();
+            } else if (field == 2 && (tag & 7) == WIRE_LENGTH) {
+                node.op = reader.string();
+            } else if (field == 3 && (tag & 7) == WIRE_LENGTH) {
+                node.inputs.add(inputName(reader.string()));
+            } else if (field == 5 && (tag & 7) == WIRE_LENGTH) {
+                readAttr(reader, reader.varint(), node);
+            } else {
+                reader.skipField(tag);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * An input is named node, node:output or ^node for a control dependency
+     */
+    private static String inputName(String input) {
+        int start = input.startsWith("^") ? 1 : 0;
+        int colon = input.indexOf(':');
+        return input.substring(start, colon >= 0 ? colon : input.length());
+    }
+
+    /**
+     * Reads one entry of the attr map, only looking into dtype and shape. The key is written
+     * before the value, so values of other keys are skipped without being read.
+     */
+    private static void readAttr(Reader reader, long length, Node node) throws IOException {
+        long end = reader.position + length;
+        String key = null;
+        while (reader.position < end) {
+            int tag = reader.tag();
+            int field = tag >>> 3;
+            if (field == 1 && (tag & 7) == WIRE_LENGTH) {
+                key = reader.string();
+            } else if (field == 2 && (tag & 7) == WIRE_LENGTH && ("dtype".equals(key) || "shape".equals(key))) {
+                readAttrValue(reader, reader.varint(), node);
+            } else {
+                reader.skipField(tag);
+            }
+        }
+    }
+
+    private static void readAttrValue(Reader reader, long length, Node node) throws IOException {
+        long end = reader.position + length;
+        while (reader.position < end) {
+            int tag = reader.tag();
+            int field = tag >>> 3;
+            if (field == 6 && (tag & 7) == WIRE_VARINT) {
+                node.dtype = (int) reader.varint();
+            } else if (field == 7 && (tag & 7) == WIRE_LENGTH) {
+                node.rank = readRank(reader, reader.varint());
+            } else {
+                reader.skipField(tag);
+            }
+        }
+    }
+
+    private static int readRank(Reader reader, long length) throws IOException {
+        long end = reader.position + length;
+        int rank = 0;
+        boolean unknown = false;
+        while (reader.position < end) {
+            int tag = reader.tag();
+            int field = tag >>> 3;
+            if (field == 2 && (tag & 7) == WIRE_LENGTH) {
+                rank++;
+                reader.skip(reader.varint());
+            } else if (field == 3 && (tag & 7) == WIRE_VARINT) {
+                unknown = reader.varint() != 0;
+            } else {
+                reader.skipField(tag);
+            }
+        }
+        return unknown ? -1 : rank;
+    }
+
+    private static class Node {
+        private String name;
+        private String op;
+        private int dtype;
+        private int rank = -1;
+        private final List<String> inputs = new ArrayList<>();
+    }
+
+    /**
+     * Reads the protobuf wire format from a stream, keeping track of the position
+     */
+    private static class Reader {
+        private final InputStream input;
+        private long position;
+
+        private Reader(InputStream input) {
+            this.input = input;
+        }
+
+        private int read() throws IOException {
+            int value = input.read();
+            if (value == -1) throw new EOFException("Graph ended unexpectedly");
+            position++;
+            return value;
+        }
+
+        private int tagOrEnd() throws IOException {
+            int first = input.read();
+            if (first == -1) return -1;
+            position++;
+            return (int) continueVarint(first);
+        }
+
+        private int tag() throws IOException {
+            return (int) varint();
+        }
+
+        private long varint() throws IOException {
+            return continueVarint(read());
+        }
+
+        private long continueVarint(int first) throws IOException {
+            long value = first & 0x7f;
+            int shift = 7;
+            int current = first;
+            while ((current & 0x80) != 0) {
+                if (shift > 63) throw new IOException("Malformed varint in graph");
+                current = read();
+                value |= (long) (current & 0x7f) << shift;
+                shift += 7;
+            }
+            return value;
+        }
+
+        private String string() throws IOException {
+            long length = varint();
+            if (length > Integer.MAX_VALUE) throw new IOException("String too long in graph");
+            byte[] bytes = new byte[(int) length];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = input.read(bytes, offset, bytes.length - offset);
+                if (count == -1) throw new EOFException("Graph ended unexpectedly");
+                offset += count;
+            }
+            position += bytes.length;
+            return new String(bytes, "UTF-8");
+        }
+
+        private void skip(long count) throws IOException {
+            long left = count;
+            while (left > 0) {
+                long skipped = input.skip(left);
+                if (skipped <= 0) {
+                    read();
+                    skipped = 1;
+                } else {
+                    position += skipped;
+                }
+                left -= skipped;
+            }
+        }
+
+        private void skipField(int tag) throws IOException {
+            switch (tag & 7) {
+                case WIRE_VARINT:
+                    varint();
+                    break;
+                case WIRE_FIXED64:
+                    skip(8);
+                    break;
+                case WIRE_LENGTH:
+                    skip(varint());
+                    break;
+                case WIRE_FIXED32:
+                    skip(4);
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + (tag & 7) + " in graph");
+            }
+        }
+    }
+}
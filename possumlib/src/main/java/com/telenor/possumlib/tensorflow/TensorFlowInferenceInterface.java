@@ -17,6 +17,7 @@ package com.telenor.possumlib.tensorflow;
 
 import android.content.Context;
 import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.getkeepsafe.relinker.ReLinker;
@@ -41,10 +42,152 @@ public class TensorFlowInferenceInterface {
      */
     private final long id;
 
+    /**
+     * Graph nodes used by the batched path. The single face getWeights(int[]) resolves its nodes
+     * natively, the batch path needs them to fill and read the tensors itself. They are not known
+     * until setBatchNodes is called with what was read from the graph, see GraphNodes, and until
+     * then the batch path yields null without calling into the graph.
+     */
+    private String inputNode;
+    private String outputNode;
+    private String[] outputNodes;
+    private int embeddingSize;
+
+    // Reusable buffers for the batched path, only reallocated when the batch shape changes
+    private final int[] batchDims = new int[4];
+    private float[] batchInput;
+    private float[] batchOutput;
+
     public TensorFlowInferenceInterface() {
         id = new Random().nextLong();
     }
 
+    /**
+     * Changes the graph nodes and output width used by the batched inference
+     *
+     * @param inputNode     name of the image input node
+     * @param outputNode    name of the embedding output node
+     * @param embeddingSize number of floats produced per face
+     */
+    public synchronized void setBatchNodes(@NonNull String inputNode, @NonNull String outputNode, int embeddingSize) {
+        if (embeddingSize <= 0) throw new IllegalArgumentException("Invalid embedding size:" + embeddingSize);
+        this.inputNode = inputNode;
+        this.outputNode = outputNode;
+        this.outputNodes = new String[]{outputNode};
+        this.embeddingSize = embeddingSize;
+        batchOutput = null;
+    }
+
+    /**
+     * The number of floats each face yields in the batched output
+     *
+     * @return the embedding width, 0 until setBatchNodes is called
+     */
+    public synchronized int embeddingSize() {
+        return embeddingSize;
+    }
+
+    /**
+     * Whether the batch path knows the nodes of the graph
+     *
+     * @return true if setBatchNodes has been called
+     */
+    public synchronized boolean isBatchReady() {
+        return inputNode != null;
+    }
+
+    /**
+     * Runs all the given aligned faces through the graph as one input tensor of shape
+     * [count, width, width, 3]. Each face must be an rgb array as yielded by
+     * ImageUtils.bitmapToIntArray, and all faces must have the same size.
+     * <p>
+     * The returned array is a row major count x embeddingSize() matrix, where face i starts at
+     * i * embeddingSize(). It is reused by the next batch call, so copy out what you want to keep.
+     *
+     * @param rgbArrays the faces to embed
+     * @param count     the number of faces from the start of rgbArrays to use
+     * @return the embedding matrix, or null if the inference failed or the batch path is not ready
+     */
+    public synchronized float[] getWeights(int[][] rgbArrays, int count) {
+        if (count <= 0 || count > rgbArrays.length) {
+            throw new IllegalArgumentException("Invalid batch size:" + count);
+        }
+        int faceLength = rgbArrays[0].length;
+        int width = (int) Math.sqrt(faceLength / 3);
+        if (width * width * 3 != faceLength) {
+            throw new IllegalArgumentException("Face arrays must be square rgb images, length:" + faceLength);
+        }
+        if (batchInput == null || batchInput.length != count * faceLength) {
+            batchInput = new float[count * faceLength];
+        }
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int[] rgb = rgbArrays[i];
+            if (rgb.length != faceLength) {
+                throw new IllegalArgumentException("All faces in a batch must have the same size");
+            }
+            for (int value : rgb) {
+                batchInput[offset++] = value;
+            }
+        }
+        return getWeights(batchInput, count, width);
+    }
+
+    /**
+     * Runs faces already laid out as rgb floats through the graph. An array holding exactly the
+     * given faces is handed straight to fillNodeFloat, so the only copy is the one the native side
+     * makes into the tensor. Keep the array and refill it for the next call, see
+     * ImageUtils.bitmapToFloatArray. An array with room for more faces than given, as when a batch
+     * is not full, has the faces copied out first, since the native side copies the whole array.
+     * <p>
+     * The returned matrix follows the same rules as getWeights(int[][], int).
+     *
+     * @param input faces stored back to back, at least count * width * width * 3 floats
+     * @param count number of faces from the start of the array
+     * @param width width (and height) of each face in pixels
+     * @return the embedding matrix, or null if the inference failed or the batch path is not ready
+     */
+    public synchronized float[] getWeights(float[] input, int count, int width) {
+        int length = count * width * width * 3;
+        if (count <= 0 || input.length < length) {
+            throw new IllegalArgumentException("Input does not hold " + count + " faces of width " + width);
+        }
+        if (inputNode == null) return null;
+        if (input.length != length) {
+            if (batchInput == null || batchInput.length != length) {
+                batchInput = new float[length];
+            }
+            System.arraycopy(input, 0, batchInput, 0, length);
+            input = batchInput;
+        }
+        batchDims[0] = count;
+        batchDims[1] = width;
+        batchDims[2] = width;
+        batchDims[3] = 3;
+        fillNodeFloat(inputNode, batchDims, input);
+        return runBatch(count);
+    }
+
+    /**
+     * Runs the graph on the previously filled input node and reads the embeddings into the
+     * reusable output matrix
+     *
+     * @param count number of faces in the filled input
+     * @return the embedding matrix, or null if the inference failed
+     */
+    private float[] runBatch(int count) {
+        int status = runInference(outputNodes);
+        if (status != 0) {
+            Log.w(tag, "Batch inference failed with status:" + status);
+            return null;
+        }
+        if (batchOutput == null || batchOutput.length != count * embeddingSize) {
+            batchOutput = new float[count * embeddingSize];
+        }
+        readNodeFloat(outputNode, batchOutput);
+        return batchOutput;
+    }
+
     public boolean initialize(Context context) throws Exception {
         // Fallback to loading from the default libtensorflow_inference.so
         // only if the app hasn't already loaded a library containing the
@@ -0,0 +1,124 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Appends rows to a detector file through a channel kept open between writes. Rows are collected
+ * in memory and written as one group once enough bytes or time has gone by since the last write,
+ * or when flushed from the life cycle of the detector, with a single sync per group. This replaces
+ * opening, writing and closing the file for every stored event.
+ * <p>
+ * The appender has no timer of its own. The detector schedules a flush one interval after rows
+ * are left buffered, so rows are on disk within that interval even if no more are appended.
+ */
+public class BufferedAppender implements Closeable {
+    private final File file;
+    private final long flushBytes;
+    private final long flushMillis;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private FileOutputStream output;
+    private FileChannel channel;
+    private long lastFlush;
+
+    /**
+     * Constructor for an appender. Nothing is opened until the first write.
+     *
+     * @param file        the file to append to
+     * @param flushBytes  number of buffered bytes that triggers a write
+     * @param flushMillis time since the last write that triggers a write, in milliseconds
+     */
+    public BufferedAppender(@NonNull File file, long flushBytes, long flushMillis) {
+        this.file = file;
+        this.flushBytes = flushBytes;
+        this.flushMillis = flushMillis;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Buffers rows, writing the buffer when it is large or old enough
+     *
+     * @param lines rows to append
+     * @param now   current time in milliseconds
+     * @throws IOException if the buffer had to be written and that failed
+     */
+    public synchronized void append(@NonNull List<JsonArray> lines, long now) throws IOException {
+        StringBuilder rows = new StringBuilder();
+        for (JsonArray array : lines) {
+            rows.append(array.toString()).append("\r\n");
+        }
+        byte[] data = rows.toString().getBytes("UTF-8");
+        buffer.write(data, 0, data.length);
+        if (buffer.size() >= flushBytes || now - lastFlush >= flushMillis) {
+            flush();
+            lastFlush = now;
+        }
+    }
+
+    /**
+     * Number of bytes buffered but not written yet
+     *
+     * @return buffered bytes
+     */
+    public synchronized long pendingBytes() {
+        return buffer.size();
+    }
+
+    /**
+     * Writes and syncs the buffered rows
+     *
+     * @throws IOException if the rows could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (buffer.size() == 0) return;
+        if (channel != null && !file.exists()) {
+            // The file was moved away, the next group starts a new one
+            closeChannel();
+        }
+        if (channel == null) {
+            output = new FileOutputStream(file, true);
+            channel = output.getChannel();
+        }
+        ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        channel.force(false);
+        buffer.reset();
+    }
+
+    /**
+     * Writes the buffered rows and closes the file
+     *
+     * @throws IOException if the rows could not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+            channel = null;
+        }
+    }
+}
@@ -3,17 +3,67 @@ package com.telenor.possumlib.utils;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Do {
     private static Handler handler = new Handler(Looper.getMainLooper());
-    private static ExecutorService executorService = Executors.newCachedThreadPool(); //new ThreadFactoryBuilder().setNameFormat("BackgroundThread #%d").setPriority(Thread.MIN_PRIORITY).build()
+    private static final String tag = Do.class.getName();
+
+    /**
+     * Runs the runnable on the io pool of PossumRuntime
+     *
+     * @param runnable the runnable to run
+     */
     public static void inBackground(Runnable runnable) {
-        executorService.submit(runnable);
+        PossumRuntime.io().execute(runnable);
     }
     public static void onMain(Runnable runnable) {
         handler.post(runnable);
     }
+
+    /**
+     * Runs the runnable on the io pool of PossumRuntime after a delay, timed on the main looper
+     *
+     * @param runnable    the runnable to run
+     * @param delayMillis the delay in milliseconds
+     */
+    public static void inBackgroundAfter(final Runnable runnable, long delayMillis) {
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                inBackground(runnable);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Runs the tasks on the compute pool of PossumRuntime, and waits for all of them to
+     * finish. A task failing is logged and does not stop the others. Must not be called from one
+     * of the tasks.
+     *
+     * @param tasks the tasks to run
+     */
+    public static void inParallel(List<Runnable> tasks) {
+        ExecutorService computeService = PossumRuntime.compute();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable task : tasks) {
+            futures.add(computeService.submit(task));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.e(tag, "Parallel task failed:", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 }
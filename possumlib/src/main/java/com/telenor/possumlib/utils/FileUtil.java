@@ -7,14 +7,13 @@ import android.util.Log;
 import com.google.gson.JsonArray;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -26,16 +25,26 @@ public class FileUtil {
     private static final String tag = FileUtil.class.getName();
     private static DecimalFormat decimalFormat = new DecimalFormat("#,##0.#");
     private final static String[] units = new String[]{"B", "KB", "MB", "GB", "TB"};
-    private static final int BUFFER = 2048;
+    private static final int BUFFER = 64 * 1024;
 
     private static String dataDirectory(Context context) {
         return ensureDirExists(context.getFilesDir().getAbsolutePath() + "/data").getAbsolutePath();
     }
 
-    private static File getUploadDirectory(Context context) {
+    static File getUploadDirectory(Context context) {
         return ensureDirExists(dataDirectory(context) + "/Upload");
     }
 
+    /**
+     * The directory holding the samples detectors keep for range queries
+     *
+     * @param context an android context
+     * @return the sample directory
+     */
+    public static File getSampleDirectory(@NonNull Context context) {
+        return ensureDirExists(dataDirectory(context) + "/Samples");
+    }
+
     /**
      * Retrieves all relevant detector files from the upload directory
      * @param context an android context
@@ -43,25 +52,15 @@ public class FileUtil {
      * @return a list of all files of the specific type present in the upload directory
      */
     public static List<File> getAllDetectorFiles(final Context context, final String detectorName) {
-        File uploadDir = getUploadDirectory(context);
-        File[] files = uploadDir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                String[] nameSplit = toBucketKey(file).split("/");
-                if (nameSplit.length < 3) return false;
-                String detector = nameSplit[2];
-                return detector.equals(detectorName);
-                }
-        });
-        return Arrays.asList(files);
+        return UploadIndex.getInstance(context).files(detectorName);
     }
     /**
-     * Returns the list of files ready to be uploaded to S3 ordered by modification date.
+     * Returns the list of files ready to be uploaded to S3 ordered by the time they were staged.
      *
      * @return files to be uploaded
      */
     public static List<File> getFilesReadyForUpload(@NonNull Context context) {
-        return Arrays.asList(FileUtil.getUploadDirectory(context).listFiles());
+        return UploadIndex.getInstance(context).files();
     }
 
     public static File toUploadFile(Context context, String bucketKey) {
@@ -143,28 +142,43 @@ public class FileUtil {
      * @return boolean true for success, false for failure
      */
     public static File zipFile(File file, File toZip) {
+        return zipFile(file, toZip, file != null ? file.getName() : null);
+    }
+
+    /**
+     * Returns a zipped version of the file with the given entry name (but does not delete the
+     * original)
+     *
+     * @param file      the file to be zipped
+     * @param toZip     the file to be zipped to
+     * @param entryName name of the single entry in the zip
+     * @return the zip, or null on failure
+     */
+    public static File zipFile(File file, File toZip, String entryName) {
         if (file == null || file.length() == 0) {
             return null;
         }
         try {
             BufferedInputStream origin = new BufferedInputStream(new FileInputStream(file), BUFFER);
-
-            // Create output file and corresponding OutputStream
-            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(toZip));
-
-            // Write content of input file to a single entry in zip archive
-            ZipEntry entry = new ZipEntry(file.getName());
-            out.putNextEntry(entry);
-            int count;
-            byte data[] = new byte[BUFFER];
-            while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                out.write(data, 0, count);
+            try {
+                // Create output file and corresponding OutputStream. The deflater writes in small
+                // pieces, so the buffer saves a lot of small writes.
+                ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(toZip), BUFFER));
+                try {
+                    // Write content of input file to a single entry in zip archive
+                    ZipEntry entry = new ZipEntry(entryName);
+                    out.putNextEntry(entry);
+                    int count;
+                    byte data[] = new byte[BUFFER];
+                    while ((count = origin.read(data, 0, BUFFER)) != -1) {
+                        out.write(data, 0, count);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                origin.close();
             }
-
-            // Clean up
-            origin.close();
-            out.close();
-
             return toZip;
         } catch (IOException e) {
             return null;
@@ -209,6 +223,9 @@ public class FileUtil {
         if (dir == null) {
             dir = new File(dataDirectory(context));
         }
+        if (dir.equals(new File(dataDirectory(context))) || dir.equals(getUploadDirectory(context))) {
+            UploadIndex.getInstance(context).clear();
+        }
         if (dir.exists() && dir.isDirectory()) {
             for (File file : dir.listFiles()) {
                 if (file.isDirectory()) {
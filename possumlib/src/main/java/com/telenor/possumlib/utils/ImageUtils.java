@@ -16,6 +16,7 @@ import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 import static org.opencv.imgproc.Imgproc.getAffineTransform;
 import static org.opencv.imgproc.Imgproc.warpAffine;
@@ -51,6 +52,44 @@ public class ImageUtils {
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * Converts a NV21 frame straight into a bitmap turned -90 degrees, the way the front camera
+     * frames are used, without the jpeg round trip of getBytesFromFrame. The pixels are converted
+     * and turned in one pass into an array the caller keeps.
+     *
+     * @param frame  a google vision frame holding NV21 data
+     * @param pixels array of at least width * height values, overwritten
+     * @return the turned bitmap, height wide and width high
+     */
+    public static Bitmap rotatedBitmapFromFrame(Frame frame, int[] pixels) {
+        int width = frame.getMetadata().getWidth();
+        int height = frame.getMetadata().getHeight();
+        int frameSize = width * height;
+        if (pixels.length < frameSize) {
+            throw new IllegalArgumentException("Pixel array cannot hold " + width + "x" + height);
+        }
+        byte[] data = frame.getGrayscaleImageData().array();
+        for (int y = 0; y < height; y++) {
+            int chromaRow = frameSize + (y >> 1) * width;
+            for (int x = 0; x < width; x++) {
+                int luma = data[y * width + x] & 0xff;
+                int chroma = chromaRow + (x & ~1);
+                int v = (data[chroma] & 0xff) - 128;
+                int u = (data[chroma + 1] & 0xff) - 128;
+                // Full range BT.601, as the jpeg encoder reads NV21
+                int r = clamp(luma + ((359 * v) >> 8));
+                int g = clamp(luma - ((88 * u + 183 * v) >> 8));
+                int b = clamp(luma + ((454 * u) >> 8));
+                pixels[(width - 1 - x) * height + y] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return Bitmap.createBitmap(pixels, 0, height, height, width, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
     public static int[] bitmapToIntArray(Bitmap image) {
         int width = image.getWidth();
         int height = image.getHeight();
@@ -70,6 +109,33 @@ public class ImageUtils {
         return intArray;
     }
 
+    /**
+     * Writes a square image as rgb floats into an array the caller keeps, in the same layout as
+     * bitmapToIntArray, so the batched and the single face paths give the same embeddings, and
+     * the embeddings match the ones already enrolled on the server.
+     *
+     * @param image     a square bitmap
+     * @param values    the array to fill, see TensorFlowInferenceInterface.getWeights(float[], int, int)
+     * @param faceIndex which face slot in the array the image should be written to
+     */
+    public static void bitmapToFloatArray(Bitmap image, float[] values, int faceIndex) {
+        int width = image.getWidth();
+        if (width != image.getHeight()) {
+            throw new java.lang.Error("BitmapToFloatArray only makes sense on square images");
+        }
+        int[] pixels = new int[width * width];
+        image.getPixels(pixels, 0, width, 0, 0, width, width);
+        int offset = faceIndex * width * width * 3;
+        Arrays.fill(values, offset, offset + width * width * 3, 0);
+        for (int i=0; i<width; i++) {
+            for (int j=0; j<width; j++) {
+                values[offset+i*width+3*j] = (pixels[i*j] >> 16) & 0xff;
+                values[offset+i*width+3*j+1] = (pixels[i*j] >> 8) & 0xff;
+                values[offset+i*width+3*j+2] = pixels[i*j] & 0xff;
+            }
+        }
+    }
+
     public static Bitmap alignFace(Bitmap face, PointF leftEye, PointF rightEye, PointF mouth) {
        // Log.i(tag, "Face input: " + face.getWidth() + ", " + face.getHeight());
         MatOfPoint2f src = new MatOfPoint2f();
@@ -0,0 +1,114 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the transfers an upload run has started and not seen finish, by their transfer
+ * utility id. The transfer utility keeps such transfers between runs and resumes them on its own,
+ * so the next run attaches to them instead of sending the file again, and deletes the file once
+ * they complete.
+ */
+public class PendingTransfers {
+    /**
+     * Name of the file keeping the transfers, in the files directory
+     */
+    public static final String STATE_FILE = "uploadTransfers";
+    private static final String tag = PendingTransfers.class.getName();
+
+    private final File stateFile;
+    private final Map<Integer, File> transfers = new LinkedHashMap<>();
+
+    /**
+     * Constructor for the pending transfers
+     *
+     * @param stateFile file keeping the transfers between runs
+     */
+    public PendingTransfers(@NonNull File stateFile) {
+        this.stateFile = stateFile;
+        readState();
+    }
+
+    /**
+     * Records a transfer that has been started
+     *
+     * @param id   the id given by the transfer utility
+     * @param file the file being sent
+     */
+    public synchronized void started(int id, @NonNull File file) {
+        transfers.put(id, file);
+        writeState();
+    }
+
+    /**
+     * Forgets a transfer that has completed, failed or been canceled
+     *
+     * @param id the id given by the transfer utility
+     */
+    public synchronized void finished(int id) {
+        if (transfers.remove(id) != null) {
+            writeState();
+        }
+    }
+
+    /**
+     * The transfers not seen finish, in the order they were started
+     *
+     * @return a copy of the transfers by id
+     */
+    public synchronized Map<Integer, File> all() {
+        return new LinkedHashMap<>(transfers);
+    }
+
+    private void readState() {
+        if (!stateFile.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(stateFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 2);
+                if (parts.length < 2) continue;
+                transfers.put(Integer.parseInt(parts[0]), new File(parts[1]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(tag, "Unable to read pending transfers, starting over:", e);
+            transfers.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void writeState() {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(stateFile, false);
+            for (Map.Entry<Integer, File> entry : transfers.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue().getAbsolutePath() + "\n");
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Unable to store pending transfers:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Intent;
+import android.support.annotation.NonNull;
+
+import com.telenor.possumlib.constants.Constants;
+
+/**
+ * Options the app sets through AwesomePossum for formats its backend has to support. They are
+ * stored by AwesomePossum and sent along with the intents starting the services, so they are known
+ * in the process the services run in. All are off until the app turns them on.
+ */
+public class PossumOptions {
+    private static volatile boolean streamingAuth;
+    private static volatile boolean summaryFaceAuth;
+    private static volatile boolean encodedUploads;
+
+    /**
+     * Takes the options sent with an intent starting a service. Options not in the intent keep
+     * their value.
+     *
+     * @param intent the intent starting the service
+     */
+    public static void readFrom(@NonNull Intent intent) {
+        streamingAuth = intent.getBooleanExtra(Constants.STREAMING_AUTH, streamingAuth);
+        summaryFaceAuth = intent.getBooleanExtra(Constants.SUMMARY_FACE_AUTH, summaryFaceAuth);
+        encodedUploads = intent.getBooleanExtra(Constants.ENCODED_UPLOADS, encodedUploads);
+    }
+
+    /**
+     * Whether authentication rows are streamed to the server as NDJSON during the window instead
+     * of posted as a single object at its end
+     *
+     * @return true if streamed
+     */
+    public static boolean streamingAuth() {
+        return streamingAuth;
+    }
+
+    /**
+     * Whether an authentication sends a summary of the faces found instead of one row per face
+     *
+     * @return true if the summary is sent
+     */
+    public static boolean summaryFaceAuth() {
+        return summaryFaceAuth;
+    }
+
+    /**
+     * Whether detectors upload their data with their own codec instead of as text
+     *
+     * @return true if encoded
+     */
+    public static boolean encodedUploads() {
+        return encodedUploads;
+    }
+}
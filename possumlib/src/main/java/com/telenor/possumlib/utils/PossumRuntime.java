@@ -0,0 +1,176 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.telenor.possumlib.interfaces.ITaskCallback;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pools of the library. Work is split by what it waits on, so a slow upload does not
+ * hold up a model load or a file write:
+ * <ul>
+ * <li>io - disk and sensor reads, like recording sound or writing files</li>
+ * <li>compute - cpu bound work, bounded by the number of cores</li>
+ * <li>network - rest calls and uploads</li>
+ * </ul>
+ * Each pool has a fixed number of named threads, which time out when idle so the pools cost
+ * nothing between sessions. Tasks are handed to a pool through submit, which tells the callback
+ * on the main thread. The pools are shut down when the last service of the process is destroyed,
+ * and a pool that has been shut down is made again the next time it is asked for.
+ */
+public class PossumRuntime {
+    private static final int IO_THREADS = 4;
+    private static final int COMPUTE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int NETWORK_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final String tag = PossumRuntime.class.getName();
+    private static ThreadPoolExecutor io;
+    private static ThreadPoolExecutor compute;
+    private static ThreadPoolExecutor network;
+
+    /**
+     * Executor running the callbacks on the main thread
+     */
+    public static final Executor MAIN = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            Do.onMain(runnable);
+        }
+    };
+
+    /**
+     * Pool for disk and sensor work
+     *
+     * @return the io pool
+     */
+    public static synchronized ExecutorService io() {
+        if (io == null || io.isShutdown()) {
+            io = create("possum-io", IO_THREADS);
+        }
+        return io;
+    }
+
+    /**
+     * Pool for cpu bound work
+     *
+     * @return the compute pool
+     */
+    public static synchronized ExecutorService compute() {
+        if (compute == null || compute.isShutdown()) {
+            compute = create("possum-compute", COMPUTE_THREADS);
+        }
+        return compute;
+    }
+
+    /**
+     * Pool for network work
+     *
+     * @return the network pool
+     */
+    public static synchronized ExecutorService network() {
+        if (network == null || network.isShutdown()) {
+            network = create("possum-network", NETWORK_THREADS);
+        }
+        return network;
+    }
+
+    /**
+     * Runs a task on a pool and gives the result to the callback on the main thread
+     *
+     * @param pool     the pool to run the task on
+     * @param task     the task
+     * @param callback told of the result or failure, unless the future is cancelled
+     * @param <T>      type of the result
+     * @return the future of the task
+     */
+    public static <T> Future<T> submit(@NonNull ExecutorService pool, @NonNull Callable<T> task, @NonNull ITaskCallback<T> callback) {
+        return submit(pool, task, callback, MAIN);
+    }
+
+    /**
+     * Runs a task on a pool and gives the result to the callback on the given executor
+     *
+     * @param pool             the pool to run the task on
+     * @param task             the task
+     * @param callback         told of the result or failure, unless the future is cancelled
+     * @param callbackExecutor the executor the callback is run on
+     * @param <T>              type of the result
+     * @return the future of the task
+     */
+    public static <T> Future<T> submit(@NonNull ExecutorService pool, @NonNull Callable<T> task, @NonNull final ITaskCallback<T> callback, @NonNull final Executor callbackExecutor) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                T result = null;
+                Exception exception = null;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                } catch (InterruptedException e) {
+                    exception = e;
+                }
+                deliver(callback, callbackExecutor, result, exception);
+            }
+        };
+        pool.execute(future);
+        return future;
+    }
+
+    private static <T> void deliver(final ITaskCallback<T> callback, Executor callbackExecutor, final T result, final Exception exception) {
+        if (exception != null) {
+            Log.e(tag, "Task failed:", exception);
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (exception != null) {
+                    callback.taskFailed(exception);
+                } else {
+                    callback.taskDone(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops all pools, letting the tasks already submitted finish
+     */
+    public static synchronized void shutdown() {
+        if (io != null) io.shutdown();
+        if (compute != null) compute.shutdown();
+        if (network != null) network.shutdown();
+        io = null;
+        compute = null;
+        network = null;
+    }
+
+    private static ThreadPoolExecutor create(final String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
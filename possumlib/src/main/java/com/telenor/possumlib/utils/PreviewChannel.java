@@ -0,0 +1,71 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.constants.Messaging;
+
+/**
+ * Sends preview images from the image detector to the app. It is off until the app registers a
+ * preview listener, and even then only sends an image every Constants.PREVIEW_INTERVAL
+ * milliseconds per kind. Images are sent as raw pixels in a broadcast restricted to the app's own
+ * package - no encoding, and nothing leaves the app.
+ */
+public class PreviewChannel {
+    private static volatile boolean enabled;
+    private static final long[] lastSent = new long[2];
+    private static int[] pixels;
+
+    public static synchronized void setEnabled(boolean isEnabled) {
+        enabled = isEnabled;
+        lastSent[0] = 0;
+        lastSent[1] = 0;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checks whether a preview of the given kind should be produced now. Call it before doing any
+     * work to create the preview image.
+     *
+     * @param faceFound true for the aligned face, false for a camera frame
+     * @return true if a preview should be published
+     */
+    public static synchronized boolean wantsPreview(boolean faceFound) {
+        if (!enabled) return false;
+        int kind = faceFound ? 1 : 0;
+        long now = SystemClock.elapsedRealtime();
+        if (lastSent[kind] != 0 && now - lastSent[kind] < Constants.PREVIEW_INTERVAL) return false;
+        lastSent[kind] = now;
+        return true;
+    }
+
+    /**
+     * Sends the image to the app. Should only be called after wantsPreview has returned true.
+     *
+     * @param context   a valid android context
+     * @param image     the image to send
+     * @param faceFound true for the aligned face, false for a camera frame
+     */
+    public static synchronized void publish(@NonNull Context context, @NonNull Bitmap image, boolean faceFound) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (pixels == null || pixels.length != width * height) {
+            pixels = new int[width * height];
+        }
+        image.getPixels(pixels, 0, width, 0, 0, width, height);
+        Intent intent = new Intent(Messaging.POSSUM_PREVIEW);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra("pixels", pixels);
+        intent.putExtra("width", width);
+        intent.putExtra("height", height);
+        intent.putExtra("foundFace", faceFound);
+        context.sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,317 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.models.SampleSet;
+import com.telenor.possumlib.models.SegmentLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest samples of a detector on the device, so a time range can be read back without
+ * unzipping everything stored. Rows are written in blocks, each a segment of a SegmentLog, and an
+ * index next to the log holds the time range and offset of every block:
+ * <pre>
+ * [first timestamp long][last timestamp long][offset long][rows int]
+ * </pre>
+ * A block is written to the log before its index entry, so readers in other processes only see
+ * whole blocks. When the log reaches half of its limit it becomes the old generation, replacing
+ * the one before it, which keeps the store between half and all of the limit.
+ */
+public class SampleStore implements Closeable {
+    private static final int ENTRY_SIZE = 28;
+    private static final String LOG = ".blk";
+    private static final String INDEX = ".idx";
+    private static final String OLD = ".old";
+    private static final String tag = SampleStore.class.getName();
+    private final File directory;
+    private final String name;
+    private final long maxBytes;
+    private final int blockRows;
+    private final long blockMillis;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRows;
+    private long pendingFirst;
+    private long pendingLast;
+    private long pendingStarted;
+    private SegmentLog log;
+    private FileOutputStream index;
+
+    /**
+     * Constructor for the store of a detector
+     *
+     * @param directory   directory holding the stores
+     * @param name        name of the detector
+     * @param maxBytes    limit of the compressed samples kept
+     * @param blockRows   number of rows making a full block
+     * @param blockMillis time after which a block is written even if not full
+     */
+    public SampleStore(@NonNull File directory, @NonNull String name, long maxBytes, int blockRows, long blockMillis) {
+        this.directory = directory;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.blockRows = blockRows;
+        this.blockMillis = blockMillis;
+    }
+
+    /**
+     * Adds rows to the block being gathered, writing it when it is full or old enough. Rows not
+     * starting with a timestamp are skipped.
+     *
+     * @param rows the rows to keep
+     * @param now  present time in millis
+     * @throws IOException if a block could not be written
+     */
+    public synchronized void append(@NonNull List<JsonArray> rows, long now) throws IOException {
+        for (JsonArray row : rows) {
+            Long timestamp = timestamp(row);
+            if (timestamp == null) continue;
+            if (pendingRows == 0) {
+                pendingFirst = timestamp;
+                pendingLast = timestamp;
+                pendingStarted = now;
+            } else {
+                pendingFirst = Math.min(pendingFirst, timestamp);
+                pendingLast = Math.max(pendingLast, timestamp);
+            }
+            pending.append(row.toString()).append("\r\n");
+            pendingRows++;
+        }
+        if (pendingRows >= blockRows || (pendingRows > 0 && now - pendingStarted >= blockMillis)) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the rows gathered so far as a block
+     *
+     * @throws IOException if the block could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (pendingRows == 0) return;
+        if (log == null) {
+            open();
+        }
+        long offset = log.length();
+        byte[] data = pending.toString().getBytes("UTF-8");
+        // One segment per block, the index points at it
+        log.writeSegment(data, 0, data.length);
+        entry.clear();
+        entry.putLong(pendingFirst).putLong(pendingLast).putLong(offset).putInt(pendingRows);
+        index.write(entry.array());
+        pending.setLength(0);
+        pendingRows = 0;
+        if (log.length() >= maxBytes / 2) {
+            rotate();
+        }
+    }
+
+    /**
+     * Number of rows not written to a block yet
+     *
+     * @return number of rows
+     */
+    public synchronized int pendingRows() {
+        return pendingRows;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            closeFiles();
+        }
+    }
+
+    /**
+     * Reads the samples of a detector in a time range. Only the blocks whose range overlaps are
+     * inflated.
+     *
+     * @param directory directory holding the stores
+     * @param name      name of the detector
+     * @param from      first timestamp included, in millis
+     * @param to        timestamp the range ends before, in millis
+     * @return the samples, empty if there are none
+     * @throws IOException if the store could not be read
+     */
+    public static SampleSet read(@NonNull File directory, @NonNull String name, long from, long to) throws IOException {
+        List<JsonArray> rows = new ArrayList<>();
+        if (from < to) {
+            JsonParser parser = new JsonParser();
+            readGeneration(new File(directory, name + OLD + LOG), new File(directory, name + OLD + INDEX), from, to, parser, rows);
+            readGeneration(new File(directory, name + LOG), new File(directory, name + INDEX), from, to, parser, rows);
+        }
+        return SampleSet.fromRows(rows);
+    }
+
+    /**
+     * Deletes the samples of a detector, both generations
+     *
+     * @param directory directory holding the stores
+     * @param name      name of the detector
+     */
+    public static void delete(@NonNull File directory, @NonNull String name) {
+        // The indexes go first, so a reader never finds entries pointing into a deleted log
+        FileUtil.deleteFile(new File(directory, name + OLD + INDEX));
+        FileUtil.deleteFile(new File(directory, name + INDEX));
+        FileUtil.deleteFile(new File(directory, name + OLD + LOG));
+        FileUtil.deleteFile(new File(directory, name + LOG));
+    }
+
+    /**
+     * Deletes the samples of all detectors
+     *
+     * @param directory directory holding the stores
+     */
+    public static void deleteAll(@NonNull File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().endsWith(INDEX)) {
+                FileUtil.deleteFile(file);
+            }
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(LOG)) {
+                FileUtil.deleteFile(file);
+            }
+        }
+    }
+
+    private static void readGeneration(File logFile, File indexFile, long from, long to, JsonParser parser, List<JsonArray> rows) throws IOException {
+        if (!indexFile.exists() || !logFile.exists()) return;
+        byte[] entries;
+        RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "r");
+        try {
+            // A half written entry at the end is left for the next read
+            entries = new byte[(int) (indexAccess.length() - indexAccess.length() % ENTRY_SIZE)];
+            indexAccess.readFully(entries);
+        } finally {
+            indexAccess.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(entries);
+        RandomAccessFile logAccess = null;
+        try {
+            while (buffer.remaining() >= ENTRY_SIZE) {
+                long first = buffer.getLong();
+                long last = buffer.getLong();
+                long offset = buffer.getLong();
+                buffer.getInt();
+                if (last < from || first >= to) continue;
+                if (logAccess == null) {
+                    logAccess = new RandomAccessFile(logFile, "r");
+                }
+                byte[] block = SegmentLog.readSegment(logAccess, offset);
+                if (block == null) {
+                    // Rotated away while reading, or cut off by recovery
+                    Log.w(tag, "No block at " + offset + " of " + logFile.getName());
+                    continue;
+                }
+                for (String line : new String(block, "UTF-8").split("\r\n")) {
+                    JsonArray row = parse(parser, line);
+                    if (row == null) continue;
+                    Long timestamp = timestamp(row);
+                    if (timestamp != null && timestamp >= from && timestamp < to) {
+                        rows.add(row);
+                    }
+                }
+            }
+        } finally {
+            if (logAccess != null) {
+                logAccess.close();
+            }
+        }
+    }
+
+    private static JsonArray parse(JsonParser parser, String line) {
+        if (line.isEmpty()) return null;
+        try {
+            JsonElement element = parser.parse(line);
+            return element.isJsonArray() ? element.getAsJsonArray() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static Long timestamp(JsonArray row) {
+        if (row.size() == 0 || !row.get(0).isJsonPrimitive()) return null;
+        try {
+            return row.get(0).getAsLong();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the current generation for appending, first cutting off a block or index entry left
+     * half written by a killed process
+     */
+    private void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory.getAbsolutePath());
+        }
+        File logFile = new File(directory, name + LOG);
+        File indexFile = new File(directory, name + INDEX);
+        long valid = SegmentLog.recover(logFile);
+        if (indexFile.exists()) {
+            RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "rw");
+            try {
+                long kept = 0;
+                long whole = indexAccess.length() - indexAccess.length() % ENTRY_SIZE;
+                while (kept < whole) {
+                    indexAccess.seek(kept + 16);
+                    if (indexAccess.readLong() >= valid) break;
+                    kept += ENTRY_SIZE;
+                }
+                if (kept != indexAccess.length()) {
+                    Log.w(tag, "Cutting index of " + name + " from " + indexAccess.length() + " to " + kept + " bytes");
+                    indexAccess.setLength(kept);
+                }
+            } finally {
+                indexAccess.close();
+            }
+        }
+        log = new SegmentLog(logFile);
+        index = new FileOutputStream(indexFile, true);
+    }
+
+    private void rotate() throws IOException {
+        closeFiles();
+        File oldLog = new File(directory, name + OLD + LOG);
+        File oldIndex = new File(directory, name + OLD + INDEX);
+        // The index goes first, so a reader never finds old entries pointing into a newer log
+        FileUtil.deleteFile(oldIndex);
+        FileUtil.deleteFile(oldLog);
+        if (!new File(directory, name + LOG).renameTo(oldLog) || !new File(directory, name + INDEX).renameTo(oldIndex)) {
+            Log.e(tag, "Unable to rotate samples of " + name);
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            if (log != null) {
+                log.close();
+            }
+        } finally {
+            log = null;
+            if (index != null) {
+                index.close();
+                index = null;
+            }
+        }
+    }
+}
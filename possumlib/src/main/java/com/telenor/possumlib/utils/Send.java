@@ -23,11 +23,17 @@ public class Send {
         context.sendBroadcast(intent);
     }
 
-    public static void imageByteArrayIntent(@NonNull Context context, boolean faceFound, byte[] array) {
+    /**
+     * Sends a message that only reaches receivers within the app itself
+     *
+     * @param type    the type of the message, should always be a constant from Messaging
+     * @param message the actual message to be sent
+     */
+    public static void packageMessageIntent(@NonNull Context context, String type, String message) {
         Intent intent = new Intent(Messaging.POSSUM_MESSAGE);
-        intent.putExtra(Messaging.POSSUM_MESSAGE_TYPE, Messaging.POSSUM_PREVIEWS);
-        intent.putExtra("preview", array);
-        intent.putExtra("foundFace", faceFound);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(Messaging.POSSUM_MESSAGE_TYPE, type);
+        intent.putExtra(Messaging.POSSUM_MESSAGE, message);
         context.sendBroadcast(intent);
     }
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.utils.codec.Codecs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Keeps the files staged for upload within a global and a per detector byte limit, so failing
+ * uploads cannot fill the device. It is run on the io pool each time a detector stages a file, and
+ * does a few evictions per call at most, oldest files first. Detectors either have their oldest files deleted
+ * or, for motion data, thinned to every other sample until they are too small to be worth keeping.
+ * The current output files of the detectors are not counted, rotation keeps them small.
+ */
+public class StorageQuota {
+    public static final int EVICT_OLDEST = 0;
+    public static final int EVICT_DOWNSAMPLE = 1;
+
+    private static StorageQuota instance;
+    private static final int maxEvictionsPerCall = 4;
+    private static final long minDownsampleSize = 64 * 1024;
+    private static final String tag = StorageQuota.class.getName();
+
+    private final UploadIndex index;
+    private final long globalLimit;
+    private final long detectorLimit;
+    private final Map<String, Long> detectorLimits = new HashMap<>();
+    private final Map<String, Integer> policies = new HashMap<>();
+    private final Map<String, long[]> counters = new HashMap<>(); // detector -> {evicted files, downsampled files, freed bytes}
+    private final Object evictionLock = new Object(); // one enforce at a time, held while files are rewritten
+    private final Object pendingLock = new Object(); // guards pending and enforcing only
+    private final Map<String, Integer> pending = new LinkedHashMap<>();
+    private boolean enforcing;
+
+    /**
+     * Gets the quota of the upload directory of the context
+     *
+     * @param context a valid android context
+     * @return the storage quota
+     */
+    public static synchronized StorageQuota getInstance(@NonNull Context context) {
+        UploadIndex index = UploadIndex.getInstance(context);
+        if (instance == null || instance.index != index) {
+            instance = new StorageQuota(index, Constants.STORAGE_QUOTA, Constants.DETECTOR_STORAGE_QUOTA);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for a quota over an upload index, normally reached through getInstance
+     *
+     * @param index         index of the staged files
+     * @param globalLimit   max bytes staged in total
+     * @param detectorLimit max bytes staged for each detector
+     */
+    public StorageQuota(@NonNull UploadIndex index, long globalLimit, long detectorLimit) {
+        this.index = index;
+        this.globalLimit = globalLimit;
+        this.detectorLimit = detectorLimit;
+    }
+
+    /**
+     * Sets a byte limit for a detector other than the default one
+     *
+     * @param detectorName the name of the detector
+     * @param limit        max bytes staged for the detector
+     */
+    public synchronized void setDetectorLimit(@NonNull String detectorName, long limit) {
+        detectorLimits.put(detectorName, limit);
+    }
+
+    /**
+     * The byte limit of a detector
+     *
+     * @param detectorName the name of the detector
+     * @return max bytes staged for the detector
+     */
+    public synchronized long detectorLimit(@NonNull String detectorName) {
+        Long limit = detectorLimits.get(detectorName);
+        return limit == null ? detectorLimit : limit;
+    }
+
+    /**
+     * Evicts staged files until the detector and the global limit are met, or the max number of
+     * evictions for one call is reached. The policy is remembered, so it is used as well when the
+     * files of the detector are evicted for the global limit. Files are rewritten or deleted
+     * without holding the quota itself, so limits and counters can be read meanwhile.
+     *
+     * @param detectorName the name of the detector that stored data
+     * @param policy       EVICT_OLDEST or EVICT_DOWNSAMPLE
+     * @return number of files deleted or downsampled
+     */
+    public int enforce(@NonNull String detectorName, int policy) {
+        synchronized (this) {
+            policies.put(detectorName, policy);
+        }
+        synchronized (evictionLock) {
+            int evictions = 0;
+            while (evictions < maxEvictionsPerCall) {
+                File victim = null;
+                if (index.bytes(detectorName) > detectorLimit(detectorName)) {
+                    victim = oldest(index.files(detectorName));
+                } else if (index.totalBytes() > globalLimit) {
+                    victim = oldest(index.files());
+                }
+                if (victim == null) break;
+                evict(victim);
+                evictions++;
+            }
+            return evictions;
+        }
+    }
+
+    /**
+     * Enforces the limits on the io pool, so a detector staging a file does not wait for old
+     * files to be deleted or rewritten. Requests made while one is running are gathered and run
+     * once after it. Only the queue is locked here, never the files being evicted.
+     *
+     * @param detectorName the name of the detector that staged a file
+     * @param policy       EVICT_OLDEST or EVICT_DOWNSAMPLE
+     */
+    public void enforceInBackground(@NonNull String detectorName, int policy) {
+        synchronized (pendingLock) {
+            pending.put(detectorName, policy);
+            if (enforcing) return;
+            enforcing = true;
+        }
+        PossumRuntime.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    String detector;
+                    int detectorPolicy;
+                    synchronized (pendingLock) {
+                        if (pending.isEmpty()) {
+                            enforcing = false;
+                            return;
+                        }
+                        Map.Entry<String, Integer> next = pending.entrySet().iterator().next();
+                        detector = next.getKey();
+                        detectorPolicy = next.getValue();
+                        pending.remove(detector);
+                    }
+                    try {
+                        enforce(detector, detectorPolicy);
+                    } catch (RuntimeException e) {
+                        Log.e(tag, "Failed to enforce quota of " + detector + ":", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private File oldest(List<File> files) {
+        for (File file : files) {
+            // The consent files are tiny and needed for the rest to make sense
+            if (!UploadIndex.detectorOf(file.getName()).isEmpty()) return file;
+        }
+        return null;
+    }
+
+    private void evict(File file) {
+        String detector = UploadIndex.detectorOf(file.getName());
+        Integer policy;
+        synchronized (this) {
+            policy = policies.get(detector);
+        }
+        long size = file.length();
+        if (policy != null && policy == EVICT_DOWNSAMPLE && size > minDownsampleSize
+                && !UploadBundler.BUNDLE_DETECTOR.equals(detector)) {
+            File temp = new File(file.getParentFile().getParentFile(), file.getName() + ".tmp");
+            try {
+                if (downsample(file, temp) && temp.length() < size && temp.renameTo(file)) {
+                    index.resized(file);
+                    count(detector, 0, 1, size - file.length());
+                    Log.i(tag, "Downsampled " + file.getName() + " from " + size + " to " + file.length() + " bytes");
+                    return;
+                }
+            } catch (IOException e) {
+                Log.e(tag, "Failed to downsample " + file.getName() + ", deleting it:", e);
+            } finally {
+                if (temp.exists()) {
+                    FileUtil.deleteFile(temp);
+                }
+            }
+        }
+        FileUtil.deleteFile(file);
+        index.removed(file);
+        count(detector, 1, 0, size);
+        Log.i(tag, "Evicted " + file.getName() + " (" + size + " bytes)");
+    }
+
+    private synchronized void count(String detector, int evicted, int downsampled, long bytes) {
+        long[] counter = counters.get(detector);
+        if (counter == null) {
+            counter = new long[3];
+            counters.put(detector, counter);
+        }
+        counter[0] += evicted;
+        counter[1] += downsampled;
+        counter[2] += bytes;
+    }
+
+    /**
+     * Writes a staged zip again with every other line of its entry, keeping the entry name. Only
+     * text rows can be thinned this way, an entry written by a binary codec is left alone and
+     * the zip is evicted whole instead.
+     *
+     * @param zip    the staged zip
+     * @param output the zip to write
+     * @return true if the zip had a text entry to downsample
+     * @throws IOException if the zip could not be read or written
+     */
+    public static boolean downsample(@NonNull File zip, @NonNull File output) throws IOException {
+        ZipInputStream input = new ZipInputStream(new FileInputStream(zip));
+        try {
+            ZipEntry entry = input.getNextEntry();
+            if (entry == null || Codecs.isEncoded(entry.getName())) return false;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+            ZipOutputStream zipOutput = new ZipOutputStream(new FileOutputStream(output));
+            try {
+                zipOutput.putNextEntry(new ZipEntry(entry.getName()));
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (lineNumber++ % 2 == 0) {
+                        zipOutput.write(line.getBytes("UTF-8"));
+                        zipOutput.write("\r\n".getBytes());
+                    }
+                }
+                zipOutput.closeEntry();
+            } finally {
+                zipOutput.close();
+            }
+            return true;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Eviction counters of a detector, for the status of the detector
+     *
+     * @param detectorName the name of the detector
+     * @return json object with the limit, staged bytes and eviction counters
+     */
+    public synchronized JsonObject toJson(@NonNull String detectorName) {
+        long[] counter = counters.get(detectorName);
+        JsonObject object = new JsonObject();
+        object.addProperty("limit", detectorLimit(detectorName));
+        object.addProperty("staged", index.bytes(detectorName));
+        object.addProperty("evictedFiles", counter == null ? 0 : counter[0]);
+        object.addProperty("downsampledFiles", counter == null ? 0 : counter[1]);
+        object.addProperty("evictedBytes", counter == null ? 0 : counter[2]);
+        return object;
+    }
+}
@@ -0,0 +1,229 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the small staged detector archives into one bundle, so an upload run sends one object
+ * instead of many tiny ones. The bundle is a plain zip. Each staged file is stored (not deflated
+ * again) as its own entry, and a manifest.json entry maps the entries back to their original
+ * bucket keys, along with size and crc. Any zip library can read it, and unpack does the same in
+ * plain java.
+ */
+public class UploadBundler {
+    public static final String MANIFEST = "manifest.json";
+    public static final String BUNDLE_DETECTOR = "bundle";
+    private static final long maxBundledFileSize = 64 * 1024;
+    private static final int minBundledFiles = 2;
+    private static final int BUFFER = 8192;
+    private static final String tag = UploadBundler.class.getName();
+
+    /**
+     * Whether a staged file should go into a bundle. Consent and meta data files keep their own
+     * keys so they are still sent first, and bundles are not bundled again.
+     *
+     * @param file the staged file
+     * @return true if it can be bundled
+     */
+    public static boolean isBundleable(@NonNull File file) {
+        String detector = UploadIndex.detectorOf(file.getName());
+        return UploadScheduler.priority(file) != UploadScheduler.PRIORITY_CONSENT
+                && !BUNDLE_DETECTOR.equals(detector) && file.length() <= maxBundledFileSize;
+    }
+
+    /**
+     * Packs the small files among the staged ones into a bundle, staging the bundle and removing
+     * the packed files. Files that have failed to upload are left out, so they keep their retry
+     * state, as are files an unfinished transfer is still sending. Nothing is done if there are too few small files.
+     *
+     * @param context   a valid android context
+     * @param staged    the staged files
+     * @param bucketKey the bucket key of the bundle
+     * @return the staged bundle, or null if no bundle was made
+     */
+    public static File bundle(@NonNull Context context, @NonNull List<File> staged, @NonNull String bucketKey) {
+        UploadScheduler scheduler = new UploadScheduler(new File(context.getFilesDir(), UploadScheduler.STATE_FILE), 0);
+        Collection<File> transferring = new PendingTransfers(new File(context.getFilesDir(), PendingTransfers.STATE_FILE)).all().values();
+        List<File> small = new ArrayList<>();
+        for (File file : staged) {
+            if (isBundleable(file) && scheduler.attempts(file) == 0 && !transferring.contains(file.getAbsoluteFile())) {
+                small.add(file);
+            }
+        }
+        if (small.size() < minBundledFiles) return null;
+        File bundle = FileUtil.toUploadFile(context, bucketKey);
+        File temp = new File(bundle.getParentFile().getParentFile(), bundle.getName() + ".tmp");
+        try {
+            write(small, temp);
+        } catch (IOException e) {
+            Log.e(tag, "Failed to bundle staged files:", e);
+            FileUtil.deleteFile(temp);
+            return null;
+        }
+        if (!temp.renameTo(bundle)) {
+            Log.e(tag, "Failed to stage bundle");
+            FileUtil.deleteFile(temp);
+            return null;
+        }
+        UploadIndex index = UploadIndex.getInstance(context);
+        index.staged(bundle);
+        for (File file : small) {
+            FileUtil.deleteFile(file);
+            index.removed(file);
+        }
+        Log.i(tag, "Bundled " + small.size() + " files into " + bundle.getName());
+        return bundle;
+    }
+
+    /**
+     * Writes the files into a bundle
+     *
+     * @param files  staged files, named by their bucket keys
+     * @param bundle the bundle to write
+     * @throws IOException if any file could not be read or the bundle written
+     */
+    public static void write(@NonNull List<File> files, @NonNull File bundle) throws IOException {
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(bundle));
+        try {
+            JsonArray manifest = new JsonArray();
+            byte[] buffer = new byte[BUFFER];
+            for (File file : files) {
+                String bucketKey = FileUtil.toBucketKey(file);
+                long crc = crc(file, buffer);
+                ZipEntry entry = new ZipEntry(bucketKey);
+                // The files are zips already, deflating them again gains nothing
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(file.length());
+                entry.setCompressedSize(file.length());
+                entry.setCrc(crc);
+                output.putNextEntry(entry);
+                copy(new FileInputStream(file), output, buffer);
+                output.closeEntry();
+                JsonObject item = new JsonObject();
+                item.addProperty("entry", bucketKey);
+                item.addProperty("bucketKey", bucketKey);
+                item.addProperty("size", file.length());
+                item.addProperty("crc", crc);
+                manifest.add(item);
+            }
+            output.putNextEntry(new ZipEntry(MANIFEST));
+            output.write(manifest.toString().getBytes("UTF-8"));
+            output.closeEntry();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Unpacks a bundle, checking each entry against the manifest
+     *
+     * @param bundle    the bundle
+     * @param directory directory to write the entries to, named by their bucket keys with '/'
+     *                  replaced by '#'
+     * @return the unpacked files by their original bucket keys
+     * @throws IOException if the bundle is unreadable, lacks a manifest or an entry does not match it
+     */
+    public static Map<String, File> unpack(@NonNull File bundle, @NonNull File directory) throws IOException {
+        Map<String, File> entries = new HashMap<>();
+        Map<String, Long> crcs = new HashMap<>();
+        JsonArray manifest = null;
+        byte[] buffer = new byte[BUFFER];
+        ZipInputStream input = new ZipInputStream(new BufferedInputStream(new FileInputStream(bundle)));
+        try {
+            ZipEntry entry;
+            while ((entry = input.getNextEntry()) != null) {
+                if (MANIFEST.equals(entry.getName())) {
+                    ByteArrayOutputStream json = new ByteArrayOutputStream();
+                    copyEntry(input, json, buffer, null);
+                    manifest = new JsonParser().parse(json.toString("UTF-8")).getAsJsonArray();
+                } else {
+                    String name = entry.getName().replace('/', '#');
+                    if (name.equals(".") || name.equals("..")) throw new IOException("Invalid entry " + name);
+                    File file = new File(directory, name);
+                    CRC32 crc = new CRC32();
+                    FileOutputStream output = new FileOutputStream(file);
+                    try {
+                        copyEntry(input, output, buffer, crc);
+                    } finally {
+                        output.close();
+                    }
+                    entries.put(entry.getName(), file);
+                    crcs.put(entry.getName(), crc.getValue());
+                }
+            }
+        } finally {
+            input.close();
+        }
+        if (manifest == null) throw new IOException("Bundle has no manifest");
+        Map<String, File> unpacked = new HashMap<>();
+        for (int i = 0; i < manifest.size(); i++) {
+            JsonObject item = manifest.get(i).getAsJsonObject();
+            String name = item.get("entry").getAsString();
+            File file = entries.get(name);
+            if (file == null) throw new IOException("Bundle is missing entry " + name);
+            if (file.length() != item.get("size").getAsLong() || crcs.get(name) != item.get("crc").getAsLong()) {
+                throw new IOException("Entry " + name + " does not match the manifest");
+            }
+            unpacked.put(item.get("bucketKey").getAsString(), file);
+        }
+        return unpacked;
+    }
+
+    private static long crc(File file, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream input = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void copy(InputStream input, OutputStream output, byte[] buffer) throws IOException {
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void copyEntry(ZipInputStream input, OutputStream output, byte[] buffer, CRC32 crc) throws IOException {
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+            if (crc != null) {
+                crc.update(buffer, 0, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the files staged for upload, so sizes and listings do not need to scan the
+ * upload directory. Every change is appended to a small journal ("+ size name" or "- name"), which
+ * is read on start and compacted when it has grown much larger than the index itself. Should the
+ * journal be missing, the index is built from the upload directory once.
+ * <p>
+ * Listings are served from memory without touching the disk. Files that disappear without being
+ * reported are dropped when the index is loaded and each time the journal is compacted.
+ */
+public final class UploadIndex {
+    private static UploadIndex instance;
+    private static final String journalName = "uploadIndex";
+    private static final String tag = UploadIndex.class.getName();
+
+    private final File uploadDirectory;
+    private final File journal;
+    private File filesDirectory;
+    private final Map<String, Long> files = new LinkedHashMap<>();
+    private final Map<String, Set<String>> detectorFiles = new HashMap<>();
+    private final Map<String, Long> detectorBytes = new HashMap<>();
+    private final Map<String, Integer> detectorCounts = new HashMap<>();
+    private long totalBytes;
+    private int journalLines;
+
+    /**
+     * Gets the index of the upload directory of the context
+     *
+     * @param context a valid android context
+     * @return the upload index
+     */
+    public static synchronized UploadIndex getInstance(@NonNull Context context) {
+        File filesDirectory = context.getFilesDir();
+        if (instance == null || !filesDirectory.equals(instance.filesDirectory)) {
+            instance = new UploadIndex(FileUtil.getUploadDirectory(context), new File(filesDirectory, journalName));
+            instance.filesDirectory = filesDirectory;
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for an index of a given directory, normally reached through getInstance
+     *
+     * @param uploadDirectory the directory holding the staged files
+     * @param journal         the file keeping the index between runs
+     */
+    public UploadIndex(@NonNull File uploadDirectory, @NonNull File journal) {
+        this.uploadDirectory = uploadDirectory;
+        this.journal = journal;
+        if (journal.exists()) {
+            readJournal();
+        } else {
+            rebuild();
+        }
+    }
+
+    /**
+     * The detector a staged file belongs to, found from its bucket key
+     * (possumlibdata/version/detector/user/time.zip)
+     *
+     * @param fileName name of the file in the upload directory
+     * @return the detector name, or an empty string for files not from detectors
+     */
+    public static String detectorOf(@NonNull String fileName) {
+        int first = fileName.indexOf('#');
+        if (first < 0) return "";
+        int second = fileName.indexOf('#', first + 1);
+        if (second < 0) return "";
+        int third = fileName.indexOf('#', second + 1);
+        if (third < 0) return "";
+        return fileName.substring(second + 1, third);
+    }
+
+    /**
+     * Adds a file that has been moved into the upload directory
+     *
+     * @param file the staged file
+     */
+    public synchronized void staged(@NonNull File file) {
+        String name = file.getName();
+        long size = file.length();
+        if (files.containsKey(name)) {
+            remove(name);
+        }
+        add(name, size);
+        append("+ " + size + " " + name);
+    }
+
+    /**
+     * Updates the size of a staged file that has been rewritten, keeping its place in the order
+     *
+     * @param file the rewritten file
+     */
+    public synchronized void resized(@NonNull File file) {
+        String name = file.getName();
+        if (!files.containsKey(name)) return;
+        long size = file.length();
+        resize(name, size);
+        append("+ " + size + " " + name);
+    }
+
+    /**
+     * Removes a file that has been uploaded or deleted
+     *
+     * @param file the file no longer staged
+     */
+    public synchronized void removed(@NonNull File file) {
+        String name = file.getName();
+        if (!files.containsKey(name)) return;
+        remove(name);
+        append("- " + name);
+    }
+
+    /**
+     * Forgets all files, used when the upload directory is cleared
+     */
+    public synchronized void clear() {
+        files.clear();
+        detectorFiles.clear();
+        detectorBytes.clear();
+        detectorCounts.clear();
+        totalBytes = 0;
+        writeJournal();
+    }
+
+    /**
+     * Bytes staged for a detector
+     *
+     * @param detectorName the name of the detector
+     * @return number of bytes
+     */
+    public synchronized long bytes(@NonNull String detectorName) {
+        Long bytes = detectorBytes.get(detectorName);
+        return bytes == null ? 0 : bytes;
+    }
+
+    /**
+     * Number of files staged for a detector
+     *
+     * @param detectorName the name of the detector
+     * @return number of files
+     */
+    public synchronized int count(@NonNull String detectorName) {
+        Integer count = detectorCounts.get(detectorName);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Bytes staged in total
+     *
+     * @return number of bytes
+     */
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * All staged files, in the order they were staged
+     *
+     * @return the staged files
+     */
+    public synchronized List<File> files() {
+        return files(null);
+    }
+
+    /**
+     * The staged files of a detector, in the order they were staged
+     *
+     * @param detectorName the name of the detector, or null for all files
+     * @return the staged files
+     */
+    public synchronized List<File> files(String detectorName) {
+        Collection<String> names = detectorName == null ? files.keySet() : detectorFiles.get(detectorName);
+        if (names == null) return new ArrayList<>();
+        List<File> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            result.add(new File(uploadDirectory, name));
+        }
+        return result;
+    }
+
+    private void add(String name, long size) {
+        files.put(name, size);
+        String detector = detectorOf(name);
+        Set<String> names = detectorFiles.get(detector);
+        if (names == null) {
+            names = new LinkedHashSet<>();
+            detectorFiles.put(detector, names);
+        }
+        names.add(name);
+        Long bytes = detectorBytes.get(detector);
+        detectorBytes.put(detector, (bytes == null ? 0 : bytes) + size);
+        Integer count = detectorCounts.get(detector);
+        detectorCounts.put(detector, (count == null ? 0 : count) + 1);
+        totalBytes += size;
+    }
+
+    private void resize(String name, long size) {
+        long difference = size - files.put(name, size);
+        String detector = detectorOf(name);
+        detectorBytes.put(detector, detectorBytes.get(detector) + difference);
+        totalBytes += difference;
+    }
+
+    private void remove(String name) {
+        Long size = files.remove(name);
+        if (size == null) return;
+        String detector = detectorOf(name);
+        detectorFiles.get(detector).remove(name);
+        detectorBytes.put(detector, detectorBytes.get(detector) - size);
+        detectorCounts.put(detector, detectorCounts.get(detector) - 1);
+        totalBytes -= size;
+    }
+
+    private void rebuild() {
+        File[] staged = uploadDirectory.listFiles();
+        if (staged != null) {
+            for (File file : staged) {
+                if (file.isFile()) {
+                    add(file.getName(), file.length());
+                }
+            }
+        }
+        writeJournal();
+    }
+
+    private void readJournal() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(journal));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                if (line.startsWith("+ ")) {
+                    int space = line.indexOf(' ', 2);
+                    if (space < 0) continue;
+                    String name = line.substring(space + 1);
+                    long size = Long.parseLong(line.substring(2, space));
+                    if (files.containsKey(name)) {
+                        resize(name, size);
+                    } else {
+                        add(name, size);
+                    }
+                } else if (line.startsWith("- ")) {
+                    remove(line.substring(2));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(tag, "Upload index unreadable, rebuilding it:", e);
+            files.clear();
+            detectorFiles.clear();
+            detectorBytes.clear();
+            detectorCounts.clear();
+            totalBytes = 0;
+            rebuild();
+            return;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        if (dropMissing() || journalLines > 2 * files.size() + 16) {
+            writeJournal();
+        }
+    }
+
+    /**
+     * Drops the files no longer in the upload directory
+     *
+     * @return true if any file was dropped
+     */
+    private boolean dropMissing() {
+        List<String> missing = new ArrayList<>();
+        for (String name : files.keySet()) {
+            if (!new File(uploadDirectory, name).exists()) {
+                missing.add(name);
+            }
+        }
+        for (String name : missing) {
+            remove(name);
+        }
+        return !missing.isEmpty();
+    }
+
+    private void writeJournal() {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(journal, false);
+            for (Map.Entry<String, Long> entry : files.entrySet()) {
+                writer.write("+ " + entry.getValue() + " " + entry.getKey() + "\n");
+            }
+            journalLines = files.size();
+        } catch (IOException e) {
+            Log.e(tag, "Failed to write upload index:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void append(String line) {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(journal, true);
+            writer.write(line + "\n");
+            journalLines++;
+            if (journalLines > 2 * files.size() + 16) {
+                writer.close();
+                writer = null;
+                dropMissing();
+                writeJournal();
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Failed to update upload index:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the staged files confirmed as uploaded, by bucket key and sha-256 of their content.
+ * A file is deleted once its upload completes, but should the app die before that, or the delete
+ * fail, the next run finds the file in the manifest and deletes it instead of sending it again.
+ * Entries are dropped once their file is gone from the upload directory.
+ */
+public class UploadManifest {
+    private static UploadManifest instance;
+    private static final String manifestName = "uploadManifest";
+    private static final String tag = UploadManifest.class.getName();
+    private final File manifestFile;
+    private final File uploadDirectory;
+    private final Map<String, String> uploaded = new HashMap<>(); // bucket key -> sha-256
+
+    /**
+     * Gets the manifest of the upload directory of the context
+     *
+     * @param context a valid android context
+     * @return the upload manifest
+     */
+    public static synchronized UploadManifest getInstance(@NonNull Context context) {
+        File uploadDirectory = FileUtil.getUploadDirectory(context);
+        if (instance == null || !instance.uploadDirectory.equals(uploadDirectory)) {
+            instance = new UploadManifest(new File(context.getFilesDir(), manifestName), uploadDirectory);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for the manifest, normally reached through getInstance
+     *
+     * @param manifestFile    file keeping the confirmed uploads between runs
+     * @param uploadDirectory the directory holding the staged files
+     */
+    public UploadManifest(@NonNull File manifestFile, @NonNull File uploadDirectory) {
+        this.manifestFile = manifestFile;
+        this.uploadDirectory = uploadDirectory;
+        readManifest();
+    }
+
+    /**
+     * The sha-256 of a file, as hex
+     *
+     * @param file the file to hash
+     * @return the hash
+     * @throws IOException if the file could not be read
+     */
+    public static String hash(@NonNull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Records a confirmed upload
+     *
+     * @param bucketKey the bucket key the file was uploaded to
+     * @param hash      the sha-256 of the uploaded file
+     */
+    public synchronized void confirmed(@NonNull String bucketKey, @NonNull String hash) {
+        uploaded.put(bucketKey, hash);
+        Writer writer = null;
+        try {
+            writer = new FileWriter(manifestFile, true);
+            writer.write(hash + " " + bucketKey + "\n");
+        } catch (IOException e) {
+            Log.e(tag, "Failed to record upload:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a file with the given content has been uploaded to the bucket key
+     *
+     * @param bucketKey the bucket key
+     * @param hash      the sha-256 of the file
+     * @return true if the upload was confirmed
+     */
+    public synchronized boolean isUploaded(@NonNull String bucketKey, @NonNull String hash) {
+        return hash.equals(uploaded.get(bucketKey));
+    }
+
+    /**
+     * Number of confirmed uploads remembered
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return uploaded.size();
+    }
+
+    /**
+     * Deletes the staged files that have been uploaded already, and forgets the entries whose
+     * files are gone. Only files with a known bucket key are hashed.
+     *
+     * @param files the staged files
+     * @param index the upload index to remove deleted files from, or null
+     * @return the files still to upload
+     */
+    public synchronized List<File> removeUploaded(@NonNull List<File> files, UploadIndex index) {
+        List<File> remaining = new ArrayList<>();
+        for (File file : files) {
+            String bucketKey = FileUtil.toBucketKey(file);
+            String hash = uploaded.get(bucketKey);
+            try {
+                if (hash != null && hash.equals(hash(file))) {
+                    Log.i(tag, "Already uploaded, deleting: " + file.getName());
+                    FileUtil.deleteFile(file);
+                    if (index != null) {
+                        index.removed(file);
+                    }
+                    continue;
+                }
+            } catch (IOException e) {
+                Log.e(tag, "Unable to hash " + file.getName() + ":", e);
+            }
+            remaining.add(file);
+        }
+        boolean pruned = false;
+        for (Iterator<String> iterator = uploaded.keySet().iterator(); iterator.hasNext(); ) {
+            if (!new File(uploadDirectory, iterator.next().replace('/', '#')).exists()) {
+                iterator.remove();
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            writeManifest();
+        }
+        return remaining;
+    }
+
+    private void readManifest() {
+        if (!manifestFile.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(manifestFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) continue;
+                uploaded.put(line.substring(space + 1), line.substring(0, space));
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Unable to read upload manifest:", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void writeManifest() {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(manifestFile, false);
+            for (Map.Entry<String, String> entry : uploaded.entrySet()) {
+                writer.write(entry.getValue() + " " + entry.getKey() + "\n");
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Unable to write upload manifest:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which staged files an upload run should send, and in which order. Consent and meta data
+ * files go first, then small files, then the large sensor archives. Files that failed are held
+ * back with an exponential backoff, kept in a file so it survives the upload service, and each run
+ * stops once its byte budget is spent.
+ */
+public class UploadScheduler {
+    public static final int PRIORITY_CONSENT = 0;
+    public static final int PRIORITY_SMALL = 1;
+    public static final int PRIORITY_LARGE = 2;
+    /**
+     * Name of the file keeping the retry state, in the files directory
+     */
+    public static final String STATE_FILE = "uploadRetries";
+
+    private static final long smallFileSize = 64 * 1024;
+    private static final long baseBackoff = 30 * 1000;
+    private static final long maxBackoff = 6 * 60 * 60 * 1000;
+    private static final String metaDataDetector = "MetaData";
+    private static final String tag = UploadScheduler.class.getName();
+
+    private final File stateFile;
+    private final long byteBudget;
+    private final Map<String, long[]> retries = new HashMap<>(); // path -> {attempts, next attempt}
+
+    /**
+     * Constructor for the scheduler
+     *
+     * @param stateFile  file keeping the retry state between runs
+     * @param byteBudget max bytes to send in one run
+     */
+    public UploadScheduler(@NonNull File stateFile, long byteBudget) {
+        this.stateFile = stateFile;
+        this.byteBudget = byteBudget;
+        readState();
+    }
+
+    /**
+     * The priority of a staged file, lower goes first
+     *
+     * @param file the staged file
+     * @return one of the priority constants
+     */
+    public static int priority(@NonNull File file) {
+        String detector = UploadIndex.detectorOf(file.getName());
+        if (detector.isEmpty() || metaDataDetector.equals(detector)) return PRIORITY_CONSENT;
+        return file.length() <= smallFileSize ? PRIORITY_SMALL : PRIORITY_LARGE;
+    }
+
+    /**
+     * Orders the files for a run, leaving out the ones waiting for a retry and the ones not
+     * fitting in the byte budget. The first file is always let through, so a file larger than the
+     * budget is not stuck forever.
+     *
+     * @param files the staged files
+     * @param now   current time in milliseconds
+     * @return the files to upload, in order
+     */
+    public synchronized List<File> plan(@NonNull List<File> files, long now) {
+        // Files no longer staged do not need their retry state
+        boolean pruned = false;
+        for (Iterator<String> iterator = retries.keySet().iterator(); iterator.hasNext(); ) {
+            if (!new File(iterator.next()).exists()) {
+                iterator.remove();
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            writeState();
+        }
+        List<File> candidates = new ArrayList<>();
+        for (File file : files) {
+            long[] retry = retries.get(file.getAbsolutePath());
+            if (retry == null || retry[1] <= now) {
+                candidates.add(file);
+            }
+        }
+        final Map<File, Integer> priorities = new HashMap<>();
+        final Map<File, Long> sizes = new HashMap<>();
+        for (File file : candidates) {
+            priorities.put(file, priority(file));
+            sizes.put(file, file.length());
+        }
+        // Stable sort, so files of equal priority and size keep the order they were staged in
+        Collections.sort(candidates, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                int byPriority = priorities.get(first) - priorities.get(second);
+                if (byPriority != 0) return byPriority;
+                if (priorities.get(first) == PRIORITY_CONSENT) return 0;
+                long bySize = sizes.get(first) - sizes.get(second);
+                return bySize < 0 ? -1 : bySize > 0 ? 1 : 0;
+            }
+        });
+        List<File> planned = new ArrayList<>();
+        long bytes = 0;
+        for (File file : candidates) {
+            long size = sizes.get(file);
+            if (!planned.isEmpty() && bytes + size > byteBudget) continue;
+            planned.add(file);
+            bytes += size;
+        }
+        return planned;
+    }
+
+    /**
+     * Marks a file as failed, holding it back with a backoff doubling for each attempt
+     *
+     * @param file the file that failed
+     * @param now  current time in milliseconds
+     */
+    public synchronized void failed(@NonNull File file, long now) {
+        long[] retry = retries.get(file.getAbsolutePath());
+        if (retry == null) {
+            retry = new long[2];
+            retries.put(file.getAbsolutePath(), retry);
+        }
+        retry[0]++;
+        retry[1] = now + backoff((int) retry[0]);
+        writeState();
+    }
+
+    /**
+     * Forgets the retry state of an uploaded file
+     *
+     * @param file the file that was uploaded
+     */
+    public synchronized void succeeded(@NonNull File file) {
+        if (retries.remove(file.getAbsolutePath()) != null) {
+            writeState();
+        }
+    }
+
+    /**
+     * Number of failed attempts of a file
+     *
+     * @param file the staged file
+     * @return the number of failed attempts
+     */
+    public synchronized int attempts(@NonNull File file) {
+        long[] retry = retries.get(file.getAbsolutePath());
+        return retry == null ? 0 : (int) retry[0];
+    }
+
+    /**
+     * Time to wait before the next attempt
+     *
+     * @param attempts number of failed attempts so far
+     * @return milliseconds to wait
+     */
+    public static long backoff(int attempts) {
+        if (attempts <= 0) return 0;
+        int shift = Math.min(attempts - 1, 20);
+        return Math.min(maxBackoff, baseBackoff << shift);
+    }
+
+    private void readState() {
+        if (!stateFile.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(stateFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3) continue;
+                retries.put(parts[2], new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])});
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(tag, "Unable to read upload retries, starting over:", e);
+            retries.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void writeState() {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(stateFile, false);
+            for (Map.Entry<String, long[]> entry : retries.entrySet()) {
+                writer.write(entry.getValue()[0] + " " + entry.getValue()[1] + " " + entry.getKey() + "\n");
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Unable to store upload retries:", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.telenor.possumlib.utils.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads what BitWriter wrote. Bytes are read one at a time, so nothing after the last byte of a
+ * block is taken from the stream.
+ */
+class BitReader {
+    private final InputStream input;
+    private int current;
+    private int left;
+
+    BitReader(InputStream input) {
+        this.input = input;
+    }
+
+    boolean readBit() throws IOException {
+        if (left == 0) {
+            current = input.read();
+            if (current == -1) throw new EOFException("Bits cut short");
+            left = 8;
+        }
+        return ((current >>> --left) & 1) != 0;
+    }
+
+    long readBits(int bits) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bits; i++) {
+            value = (value << 1) | (readBit() ? 1 : 0);
+        }
+        return value;
+    }
+}
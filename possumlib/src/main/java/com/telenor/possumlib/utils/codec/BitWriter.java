@@ -0,0 +1,46 @@
+package com.telenor.possumlib.utils.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes single bits and bit fields, most significant bit first
+ */
+class BitWriter {
+    private final OutputStream output;
+    private int current;
+    private int used;
+
+    BitWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    void writeBit(boolean bit) throws IOException {
+        current = (current << 1) | (bit ? 1 : 0);
+        if (++used == 8) {
+            output.write(current);
+            current = 0;
+            used = 0;
+        }
+    }
+
+    /**
+     * Writes the lowest bits of a value
+     */
+    void writeBits(long value, int bits) throws IOException {
+        for (int i = bits - 1; i >= 0; i--) {
+            writeBit(((value >>> i) & 1) != 0);
+        }
+    }
+
+    /**
+     * Pads the last byte with zeros and writes it
+     */
+    void flush() throws IOException {
+        if (used > 0) {
+            output.write(current << (8 - used));
+            current = 0;
+            used = 0;
+        }
+    }
+}
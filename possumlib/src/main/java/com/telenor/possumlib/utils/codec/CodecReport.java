@@ -0,0 +1,121 @@
+package com.telenor.possumlib.utils.codec;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * How well a codec did on a set of rows: size compared to the text format and how fast it
+ * encoded and decoded
+ */
+public class CodecReport {
+    private final String codec;
+    private final int rows;
+    private final long textBytes;
+    private final long encodedBytes;
+    private final long encodeNanos;
+    private final long decodeNanos;
+
+    /**
+     * Constructor for a report
+     *
+     * @param codec        name of the codec
+     * @param rows         number of rows encoded
+     * @param textBytes    size of the rows as text
+     * @param encodedBytes size of the encoded rows
+     * @param encodeNanos  time spent encoding
+     * @param decodeNanos  time spent decoding, or -1 if not decoded
+     */
+    public CodecReport(@NonNull String codec, int rows, long textBytes, long encodedBytes, long encodeNanos, long decodeNanos) {
+        this.codec = codec;
+        this.rows = rows;
+        this.textBytes = textBytes;
+        this.encodedBytes = encodedBytes;
+        this.encodeNanos = encodeNanos;
+        this.decodeNanos = decodeNanos;
+    }
+
+    /**
+     * Encodes and decodes rows with a codec, checking that the same rows come back
+     *
+     * @param codec the codec to measure
+     * @param rows  the rows to encode
+     * @return the report
+     * @throws IOException              if the rows could not be encoded or decoded
+     * @throws IllegalArgumentException if the rows do not suit the codec
+     * @throws IllegalStateException    if the decoded rows differ from the encoded ones
+     */
+    public static CodecReport measure(@NonNull IDetectorCodec codec, @NonNull List<JsonArray> rows) throws IOException {
+        long textBytes = Codecs.encode(Codecs.TEXT, rows).length;
+        long start = System.nanoTime();
+        byte[] encoded = Codecs.encode(codec, rows);
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<JsonArray> decoded = codec.decode(new ByteArrayInputStream(encoded));
+        long decodeNanos = System.nanoTime() - start;
+        if (!decoded.equals(rows)) throw new IllegalStateException(codec.name() + " did not decode to the same rows");
+        return new CodecReport(codec.name(), rows.size(), textBytes, encoded.length, encodeNanos, decodeNanos);
+    }
+
+    public String codec() {
+        return codec;
+    }
+
+    public long encodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * Size of the text compared to the encoded size, higher is better
+     *
+     * @return the compression ratio
+     */
+    public double ratio() {
+        return encodedBytes == 0 ? 0 : (double) textBytes / encodedBytes;
+    }
+
+    /**
+     * Text megabytes encoded per second
+     *
+     * @return the encode throughput
+     */
+    public double encodeThroughput() {
+        return throughput(encodeNanos);
+    }
+
+    /**
+     * Text megabytes decoded per second
+     *
+     * @return the decode throughput, or -1 if not decoded
+     */
+    public double decodeThroughput() {
+        return decodeNanos < 0 ? -1 : throughput(decodeNanos);
+    }
+
+    private double throughput(long nanos) {
+        return nanos <= 0 ? 0 : textBytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    public JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("codec", codec);
+        object.addProperty("rows", rows);
+        object.addProperty("textBytes", textBytes);
+        object.addProperty("encodedBytes", encodedBytes);
+        object.addProperty("ratio", ratio());
+        object.addProperty("encodeMBps", encodeThroughput());
+        object.addProperty("decodeMBps", decodeThroughput());
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.telenor.possumlib.utils.codec;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
+import com.telenor.possumlib.models.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The codecs and the helpers for writing stored detector data with them
+ */
+public final class Codecs {
+    public static final IDetectorCodec TEXT = new TextCodec();
+    public static final IDetectorCodec MOTION = new MotionCodec();
+    public static final IDetectorCodec SCAN = new ScanCodec();
+    private static final IDetectorCodec[] encoded = {MOTION, SCAN};
+    private static final int blockRows = 4096;
+    private static final int BUFFER = 64 * 1024;
+
+    private Codecs() {
+    }
+
+    /**
+     * Whether a zip entry was written by one of the binary codecs, found from the codec name
+     * encodeToZip adds to its name. Entries of text rows have no such extension.
+     *
+     * @param entryName the name of the zip entry
+     * @return true if the entry is encoded
+     */
+    public static boolean isEncoded(@NonNull String entryName) {
+        for (IDetectorCodec codec : encoded) {
+            if (entryName.endsWith("." + codec.name())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a stream of text rows into a zip with a single entry, named by the entry name and
+     * the codec, in blocks of a few thousand rows
+     *
+     * @param codec     the codec to use
+     * @param text      the stored rows, one json array per line
+     * @param zip       the zip to write
+     * @param entryName the name of the entry before the codec is added
+     * @return the report of the encoding
+     * @throws IOException              if the rows could not be read or the zip written
+     * @throws IllegalArgumentException if the rows do not suit the codec
+     */
+    public static CodecReport encodeToZip(@NonNull IDetectorCodec codec, @NonNull InputStream text, @NonNull File zip, @NonNull String entryName) throws IOException {
+        long start = System.nanoTime();
+        long textBytes = 0;
+        int rowCount = 0;
+        ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip), BUFFER));
+        try {
+            output.putNextEntry(new ZipEntry(entryName + "." + codec.name()));
+            CountingOutputStream encoded = new CountingOutputStream(output);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(text, "UTF-8"), BUFFER);
+            JsonParser parser = new JsonParser();
+            List<JsonArray> rows = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                textBytes += line.length() + 2;
+                try {
+                    rows.add(parser.parse(line).getAsJsonArray());
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Invalid row: " + line, e);
+                }
+                if (rows.size() == blockRows) {
+                    codec.encode(rows, encoded);
+                    rowCount += rows.size();
+                    rows.clear();
+                }
+            }
+            if (!rows.isEmpty()) {
+                codec.encode(rows, encoded);
+                rowCount += rows.size();
+            }
+            output.closeEntry();
+            return new CodecReport(codec.name(), rowCount, textBytes, encoded.getCount(), System.nanoTime() - start, -1);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Decodes all blocks of a stream
+     *
+     * @param codec the codec the stream was written with
+     * @param input the encoded stream
+     * @return all rows
+     * @throws IOException if the stream is unreadable
+     */
+    public static List<JsonArray> decodeAll(@NonNull IDetectorCodec codec, @NonNull InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        List<JsonArray> rows = new ArrayList<>();
+        while (true) {
+            buffered.mark(1);
+            if (buffered.read() == -1) return rows;
+            buffered.reset();
+            rows.addAll(codec.decode(buffered));
+        }
+    }
+
+    /**
+     * Encodes rows in memory
+     *
+     * @param codec the codec to use
+     * @param rows  the rows to encode
+     * @return the encoded block
+     * @throws IOException if the rows could not be encoded
+     */
+    public static byte[] encode(@NonNull IDetectorCodec codec, @NonNull List<JsonArray> rows) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        codec.encode(rows, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * The string of a row element, which must be a json string
+     */
+    static String text(JsonElement element) {
+        if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+            throw new IllegalArgumentException("Not a string: " + element);
+        }
+        return element.getAsString();
+    }
+
+    /**
+     * The number of a row element, which must be a json string written back the same by
+     * Long.toString
+     */
+    static long parseLong(JsonElement element) {
+        String text = text(element);
+        long value;
+        try {
+            value = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + text);
+        }
+        if (!Long.toString(value).equals(text)) throw new IllegalArgumentException("Integer would not be written back the same: " + text);
+        return value;
+    }
+}
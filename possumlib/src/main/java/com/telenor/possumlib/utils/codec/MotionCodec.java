@@ -0,0 +1,152 @@
+package com.telenor.possumlib.utils.codec;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codec for motion sensor rows, [timestamp, value, value, ...] with the values being floats.
+ * Timestamps are stored as zigzag varint deltas. Each value column is compressed the way Gorilla
+ * compresses floats: every value is xor'ed with the one before it, and only the bits that changed
+ * are stored, reusing the position of the changed bits when the new ones fit inside it.
+ * <pre>
+ * [rows varint][columns varint][first timestamp][timestamp deltas...][bits of column 0][bits of column 1]...
+ * </pre>
+ */
+public class MotionCodec implements IDetectorCodec {
+    public static final String NAME = "motion";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(@NonNull List<JsonArray> rows, @NonNull OutputStream output) throws IOException {
+        int columns = rows.isEmpty() ? 0 : rows.get(0).size() - 1;
+        if (!rows.isEmpty() && columns < 1) throw new IllegalArgumentException("Rows have no values");
+        long[] timestamps = new long[rows.size()];
+        int[][] values = new int[columns][rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            JsonArray array = rows.get(row);
+            if (array.size() != columns + 1) throw new IllegalArgumentException("Rows differ in size");
+            timestamps[row] = Codecs.parseLong(array.get(0));
+            for (int column = 0; column < columns; column++) {
+                values[column][row] = Float.floatToRawIntBits(parseFloat(array.get(column + 1)));
+            }
+        }
+        VarInt.writeUnsigned(output, rows.size());
+        VarInt.writeUnsigned(output, columns);
+        long previous = 0;
+        for (long timestamp : timestamps) {
+            VarInt.writeSigned(output, timestamp - previous);
+            previous = timestamp;
+        }
+        BitWriter bits = new BitWriter(output);
+        for (int[] column : values) {
+            writeColumn(column, bits);
+        }
+        bits.flush();
+    }
+
+    private static float parseFloat(JsonElement element) {
+        String text = Codecs.text(element);
+        float value;
+        try {
+            value = Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a float: " + text);
+        }
+        if (!Float.toString(value).equals(text)) throw new IllegalArgumentException("Float would not be written back the same: " + text);
+        return value;
+    }
+
+    private static void writeColumn(int[] column, BitWriter bits) throws IOException {
+        if (column.length == 0) return;
+        bits.writeBits(column[0], 32);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < column.length; i++) {
+            int xor = column[i] ^ column[i - 1];
+            if (xor == 0) {
+                bits.writeBit(false);
+                continue;
+            }
+            bits.writeBit(true);
+            int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // Fits in the window of the previous value
+                bits.writeBit(false);
+                bits.writeBits(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int length = 32 - leading - trailing;
+                bits.writeBit(true);
+                bits.writeBits(leading, 5);
+                bits.writeBits(length - 1, 5);
+                bits.writeBits(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    @Override
+    public List<JsonArray> decode(@NonNull InputStream input) throws IOException {
+        int rowCount = (int) VarInt.readUnsigned(input);
+        int columns = (int) VarInt.readUnsigned(input);
+        long[] timestamps = new long[rowCount];
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            previous += VarInt.readSigned(input);
+            timestamps[row] = previous;
+        }
+        BitReader bits = new BitReader(input);
+        int[][] values = new int[columns][];
+        for (int column = 0; column < columns; column++) {
+            values[column] = readColumn(rowCount, bits);
+        }
+        List<JsonArray> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            JsonArray array = new JsonArray();
+            array.add(new JsonPrimitive(Long.toString(timestamps[row])));
+            for (int column = 0; column < columns; column++) {
+                array.add(new JsonPrimitive(Float.toString(Float.intBitsToFloat(values[column][row]))));
+            }
+            rows.add(array);
+        }
+        return rows;
+    }
+
+    private static int[] readColumn(int rowCount, BitReader bits) throws IOException {
+        int[] column = new int[rowCount];
+        if (rowCount == 0) return column;
+        column[0] = (int) bits.readBits(32);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < rowCount; i++) {
+            if (!bits.readBit()) {
+                column[i] = column[i - 1];
+                continue;
+            }
+            if (bits.readBit()) {
+                leading = (int) bits.readBits(5);
+                int length = (int) bits.readBits(5) + 1;
+                trailing = 32 - leading - length;
+                if (trailing < 0) throw new IOException("Invalid bit window");
+            }
+            int xor = (int) bits.readBits(32 - leading - trailing) << trailing;
+            column[i] = column[i - 1] ^ xor;
+        }
+        return column;
+    }
+}
@@ -0,0 +1,105 @@
+package com.telenor.possumlib.utils.codec;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec for scan rows, [timestamp, identifier, number, ...] like the BSSID and signal level of a
+ * wifi scan. Scans see the same few identifiers over and over, so each identifier is written once
+ * and referred to by its index afterwards. Timestamps are stored as deltas and the numbers (rssi
+ * and the like) as zigzag varints.
+ * <pre>
+ * [rows varint][numbers varint] then per row: [timestamp delta][index][(identifier if new)][numbers...]
+ * </pre>
+ */
+public class ScanCodec implements IDetectorCodec {
+    public static final String NAME = "scan";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(@NonNull List<JsonArray> rows, @NonNull OutputStream output) throws IOException {
+        int numbers = rows.isEmpty() ? 0 : rows.get(0).size() - 2;
+        if (!rows.isEmpty() && numbers < 0) throw new IllegalArgumentException("Rows have no identifier");
+        // Everything is checked before anything is written
+        for (JsonArray row : rows) {
+            if (row.size() != numbers + 2) throw new IllegalArgumentException("Rows differ in size");
+            Codecs.parseLong(row.get(0));
+            Codecs.text(row.get(1));
+            for (int i = 0; i < numbers; i++) {
+                Codecs.parseLong(row.get(i + 2));
+            }
+        }
+        VarInt.writeUnsigned(output, rows.size());
+        VarInt.writeUnsigned(output, numbers);
+        Map<String, Integer> dictionary = new HashMap<>();
+        long previous = 0;
+        for (JsonArray row : rows) {
+            long timestamp = Codecs.parseLong(row.get(0));
+            VarInt.writeSigned(output, timestamp - previous);
+            previous = timestamp;
+            String identifier = Codecs.text(row.get(1));
+            Integer index = dictionary.get(identifier);
+            if (index == null) {
+                VarInt.writeUnsigned(output, dictionary.size());
+                byte[] bytes = identifier.getBytes("UTF-8");
+                VarInt.writeUnsigned(output, bytes.length);
+                output.write(bytes);
+                dictionary.put(identifier, dictionary.size());
+            } else {
+                VarInt.writeUnsigned(output, index);
+            }
+            for (int i = 0; i < numbers; i++) {
+                VarInt.writeSigned(output, Codecs.parseLong(row.get(i + 2)));
+            }
+        }
+    }
+
+    @Override
+    public List<JsonArray> decode(@NonNull InputStream input) throws IOException {
+        int rowCount = (int) VarInt.readUnsigned(input);
+        int numbers = (int) VarInt.readUnsigned(input);
+        List<String> dictionary = new ArrayList<>();
+        List<JsonArray> rows = new ArrayList<>(rowCount);
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            JsonArray array = new JsonArray();
+            previous += VarInt.readSigned(input);
+            array.add(new JsonPrimitive(Long.toString(previous)));
+            int index = (int) VarInt.readUnsigned(input);
+            if (index == dictionary.size()) {
+                byte[] bytes = new byte[(int) VarInt.readUnsigned(input)];
+                int read = 0;
+                while (read < bytes.length) {
+                    int count = input.read(bytes, read, bytes.length - read);
+                    if (count == -1) throw new EOFException("Identifier cut short");
+                    read += count;
+                }
+                dictionary.add(new String(bytes, "UTF-8"));
+            } else if (index > dictionary.size()) {
+                throw new IOException("Unknown identifier " + index);
+            }
+            array.add(new JsonPrimitive(dictionary.get(index)));
+            for (int i = 0; i < numbers; i++) {
+                array.add(new JsonPrimitive(Long.toString(VarInt.readSigned(input))));
+            }
+            rows.add(array);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,54 @@
+package com.telenor.possumlib.utils.codec;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.interfaces.IDetectorCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The plain format the detectors have always stored, one json array per line. A block runs to the
+ * end of the stream.
+ */
+public class TextCodec implements IDetectorCodec {
+    public static final String NAME = "text";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(@NonNull List<JsonArray> rows, @NonNull OutputStream output) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (JsonArray row : rows) {
+            lines.append(row.toString()).append("\r\n");
+        }
+        output.write(lines.toString().getBytes("UTF-8"));
+    }
+
+    @Override
+    public List<JsonArray> decode(@NonNull InputStream input) throws IOException {
+        List<JsonArray> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        JsonParser parser = new JsonParser();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            try {
+                rows.add(parser.parse(line).getAsJsonArray());
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid row: " + line, e);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,43 @@
+package com.telenor.possumlib.utils.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Variable length integers, seven bits per byte, with zigzag for signed values so small negative
+ * numbers stay small too
+ */
+public final class VarInt {
+    private VarInt() {
+    }
+
+    public static void writeUnsigned(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    public static long readUnsigned(InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.read();
+            if (b == -1) throw new EOFException("Varint cut short");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint too long");
+    }
+
+    public static void writeSigned(OutputStream output, long value) throws IOException {
+        writeUnsigned(output, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSigned(InputStream input) throws IOException {
+        long value = readUnsigned(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
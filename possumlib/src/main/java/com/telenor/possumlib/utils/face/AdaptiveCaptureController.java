@@ -0,0 +1,115 @@
+package com.telenor.possumlib.utils.face;
+
+/**
+ * Decides how hard the camera should work. While no face is present the camera only scans at a
+ * low frame rate and resolution. The first face found switches it to a short burst at full rate,
+ * which ends either when enough face samples have been accepted or when the face has been gone
+ * for a while. Once enough samples are gathered the camera is not needed for the rest of the
+ * session.
+ * <p>
+ * The controller only keeps the state, it is up to the owner to rebuild the camera when a method
+ * reports a changed mode.
+ */
+public class AdaptiveCaptureController {
+    public static final int MODE_IDLE = 0;
+    public static final int MODE_BURST = 1;
+    public static final int MODE_DONE = 2;
+
+    public static final int IDLE_FPS = 5;
+    public static final int IDLE_WIDTH = 320;
+    public static final int IDLE_HEIGHT = 240;
+    public static final int BURST_FPS = 30;
+    public static final int BURST_WIDTH = 640;
+    public static final int BURST_HEIGHT = 480;
+
+    private final int samplesWanted;
+    private final long burstTimeout;
+    private int mode = MODE_IDLE;
+    private int samples;
+    private long lastFaceSeen;
+
+    /**
+     * Constructor for the capture controller
+     *
+     * @param samplesWanted number of accepted faces before the camera is no longer needed
+     * @param burstTimeout  milliseconds without a face before a burst falls back to idle
+     */
+    public AdaptiveCaptureController(int samplesWanted, long burstTimeout) {
+        this.samplesWanted = samplesWanted;
+        this.burstTimeout = burstTimeout;
+    }
+
+    /**
+     * Starts a new session, going back to idle scanning
+     */
+    public synchronized void reset() {
+        mode = MODE_IDLE;
+        samples = 0;
+        lastFaceSeen = 0;
+    }
+
+    /**
+     * Called for every processed frame
+     *
+     * @param now current time in milliseconds
+     * @return true if the mode changed
+     */
+    public synchronized boolean frameProcessed(long now) {
+        if (mode == MODE_BURST && now - lastFaceSeen >= burstTimeout) {
+            mode = MODE_IDLE;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when a face is found in a frame
+     *
+     * @param now current time in milliseconds
+     * @return true if the mode changed
+     */
+    public synchronized boolean faceSeen(long now) {
+        if (mode == MODE_DONE) return false;
+        lastFaceSeen = now;
+        if (mode == MODE_IDLE) {
+            mode = MODE_BURST;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when a face was good enough to be used
+     *
+     * @return true if the mode changed
+     */
+    public synchronized boolean sampleAccepted() {
+        if (mode == MODE_DONE) return false;
+        samples++;
+        if (samples >= samplesWanted) {
+            mode = MODE_DONE;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized int mode() {
+        return mode;
+    }
+
+    public synchronized int samples() {
+        return samples;
+    }
+
+    public synchronized int requestedFps() {
+        return mode == MODE_BURST ? BURST_FPS : IDLE_FPS;
+    }
+
+    public synchronized int previewWidth() {
+        return mode == MODE_BURST ? BURST_WIDTH : IDLE_WIDTH;
+    }
+
+    public synchronized int previewHeight() {
+        return mode == MODE_BURST ? BURST_HEIGHT : IDLE_HEIGHT;
+    }
+}
@@ -7,7 +7,6 @@ import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
 import com.telenor.possumlib.interfaces.IFaceFound;
-import com.telenor.possumlib.utils.ImageUtils;
 
 /**
  * A custom face detector, reporting any face found to the listener interface
@@ -33,14 +32,10 @@ public class AwesomeFaceDetector extends Detector<Face> {
             return new SparseArray<>();
         }
         SparseArray<Face> faces = mDelegate.detect(frame);
-        // TODO: This class must be changed in master, it should NOT do the image processing here at all
-        // When you need to change it, frame should be sent - not the byte array
         if (listener != null) {
-            // TODO: This method should compress the image. Any way of compressing it to a scaled size directly?
-            byte[] byteArray = ImageUtils.getBytesFromFrame(frame);
-            listener.imageTaken(byteArray);
+            listener.imageTaken(frame);
             if (faces.size() > 0) {
-                listener.faceFound(faces.get(faces.keyAt(0)), byteArray);
+                listener.faceFound(faces.get(faces.keyAt(0)), frame);
             }
         }
         return faces;
@@ -0,0 +1,360 @@
+package com.telenor.possumlib.utils.face;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.WindowManager;
+
+import com.google.android.gms.vision.Frame;
+import com.telenor.possumlib.interfaces.ICaptureFailed;
+import com.telenor.possumlib.interfaces.ICaptureSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * Capture source using Camera2 and an ImageReader delivering YUV_420_888 images. The reader holds
+ * a fixed number of images, and each image is converted into one of a fixed pool of NV21 buffers
+ * before the image is handed back, so no memory is allocated per frame. Detection runs on the
+ * thread of the source, straight from the image callback.
+ * <p>
+ * The camera is opened and configured asynchronously, so most failures come after start has
+ * returned. They stop the source and are given to the failure listener.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2CaptureSource implements ICaptureSource {
+    private static final int maxImages = 2;
+    private final Context context;
+    private final AwesomeFaceDetector detector;
+    private final ICaptureFailed failureListener;
+    private final CameraManager cameraManager;
+    private final String cameraId;
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private ImageReader imageReader;
+    private final ByteBuffer[] bufferPool = new ByteBuffer[maxImages];
+    private int nextBuffer;
+    private int width;
+    private int height;
+    private Range<Integer> fpsRange;
+    private int rotation;
+    private int frameId;
+    private static final String tag = Camera2CaptureSource.class.getName();
+
+    public Camera2CaptureSource(@NonNull Context context, @NonNull AwesomeFaceDetector detector, @NonNull ICaptureFailed failureListener) {
+        this.context = context;
+        this.detector = detector;
+        this.failureListener = failureListener;
+        cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        cameraId = frontCameraId(cameraManager);
+    }
+
+    /**
+     * Whether Camera2 is worth using. Devices with only legacy Camera2 support run it on top of the
+     * old camera api, so there the vision CameraSource is just as good.
+     *
+     * @param context a valid android context
+     * @return true if there is a front camera with more than legacy support
+     */
+    public static boolean isSupported(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        String id = frontCameraId(manager);
+        if (id == null) return false;
+        try {
+            Integer level = manager.getCameraCharacteristics(id).get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.d(tag, "Unable to check camera2 support:", e);
+            return false;
+        }
+    }
+
+    private static String frontCameraId(CameraManager manager) {
+        if (manager == null) return null;
+        try {
+            for (String id : manager.getCameraIdList()) {
+                Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) return id;
+            }
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.d(tag, "Unable to list cameras:", e);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("MissingPermission")
+    public synchronized void start(int width, int height, int fps) throws IOException {
+        stop();
+        if (cameraId == null) throw new IOException("No front camera found");
+        if (cameraThread == null) {
+            cameraThread = new HandlerThread("PossumCamera");
+            cameraThread.start();
+            cameraHandler = new Handler(cameraThread.getLooper());
+        }
+        try {
+            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (map == null) throw new IOException("Camera has no stream configurations");
+            Size size = closestSize(map.getOutputSizes(ImageFormat.YUV_420_888), width, height);
+            fpsRange = fpsRange(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES), fps);
+            rotation = frameRotation(characteristics);
+            if (size.getWidth() != this.width || size.getHeight() != this.height || bufferPool[0] == null) {
+                this.width = size.getWidth();
+                this.height = size.getHeight();
+                for (int i = 0; i < maxImages; i++) {
+                    bufferPool[i] = ByteBuffer.allocate(this.width * this.height * 3 / 2);
+                }
+            }
+            imageReader = ImageReader.newInstance(this.width, this.height, ImageFormat.YUV_420_888, maxImages);
+            imageReader.setOnImageAvailableListener(imageListener, cameraHandler);
+            cameraManager.openCamera(cameraId, deviceCallback, cameraHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            stop();
+            throw new IOException("Unable to open camera", e);
+        }
+    }
+
+    private final CameraDevice.StateCallback deviceCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            synchronized (Camera2CaptureSource.this) {
+                if (imageReader == null) {
+                    // Stopped while the camera was opening
+                    camera.close();
+                    return;
+                }
+                cameraDevice = camera;
+                try {
+                    camera.createCaptureSession(Collections.singletonList(imageReader.getSurface()), sessionCallback, cameraHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    fail(camera, new IOException("Failed to create capture session", e));
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            fail(camera, new IOException("Camera disconnected"));
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            fail(camera, new IOException("Camera error:" + error));
+        }
+    };
+
+    /**
+     * Stops the source and tells the listener, unless the failing camera is not the one in use
+     * anymore
+     */
+    private void fail(CameraDevice camera, Exception exception) {
+        synchronized (this) {
+            if (camera != null && camera != cameraDevice) {
+                camera.close();
+            }
+            // A camera still opening has not been set yet
+            boolean current = camera == null || camera == cameraDevice || cameraDevice == null;
+            if (imageReader == null || !current) return;
+            stop();
+        }
+        Log.e(tag, "Camera2 failed:", exception);
+        failureListener.captureFailed(this, exception);
+    }
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            synchronized (Camera2CaptureSource.this) {
+                if (cameraDevice == null || imageReader == null) {
+                    session.close();
+                    return;
+                }
+                captureSession = session;
+                try {
+                    CaptureRequest.Builder request = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                    request.addTarget(imageReader.getSurface());
+                    if (fpsRange != null) {
+                        request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                    }
+                    session.setRepeatingRequest(request.build(), null, cameraHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    fail(null, new IOException("Failed to start capturing", e));
+                }
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            session.close();
+            synchronized (Camera2CaptureSource.this) {
+                // Stopped while configuring
+                if (imageReader == null) return;
+            }
+            fail(null, new IOException("Failed to configure capture session"));
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener imageListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            imageAvailable(reader);
+        }
+    };
+
+    private void imageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        if (image == null) return;
+        Frame frame;
+        try {
+            // Size, rotation and buffers are changed by start, read them as start left them
+            synchronized (this) {
+                if (reader != imageReader) return;
+                ByteBuffer buffer = bufferPool[nextBuffer];
+                nextBuffer = (nextBuffer + 1) % maxImages;
+                toNv21(image, buffer);
+                frame = new Frame.Builder()
+                        .setImageData(buffer, width, height, ImageFormat.NV21)
+                        .setRotation(rotation)
+                        .setId(frameId++)
+                        .setTimestampMillis(System.currentTimeMillis())
+                        .build();
+            }
+        } finally {
+            image.close();
+        }
+        detector.detect(frame);
+    }
+
+    /**
+     * Copies a YUV_420_888 image into an NV21 buffer, the format the face detector and the
+     * existing image utils expect
+     */
+    private static void toNv21(Image image, ByteBuffer output) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] out = output.array();
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer luma = planes[0].getBuffer();
+        int lumaStride = planes[0].getRowStride();
+        if (lumaStride == width) {
+            luma.get(out, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                luma.position(row * lumaStride);
+                luma.get(out, row * width, width);
+            }
+        }
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int chromaStride = planes[1].getRowStride();
+        int pixelStride = planes[1].getPixelStride();
+        int index = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            int offset = row * chromaStride;
+            for (int col = 0; col < width / 2; col++) {
+                int position = offset + col * pixelStride;
+                out[index++] = v.get(position);
+                out[index++] = u.get(position);
+            }
+        }
+        output.rewind();
+    }
+
+    private static Size closestSize(Size[] sizes, int width, int height) {
+        Size best = sizes[0];
+        int bestDiff = Integer.MAX_VALUE;
+        for (Size size : sizes) {
+            int diff = Math.abs(size.getWidth() - width) + Math.abs(size.getHeight() - height);
+            if (diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Picks the lowest fps range reaching the wanted fps, letting auto exposure drop below it in
+     * low light
+     */
+    private static Range<Integer> fpsRange(Range<Integer>[] ranges, int fps) {
+        if (ranges == null || ranges.length == 0) return null;
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < fps) continue;
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        if (best != null) return best;
+        best = ranges[0];
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() > best.getUpper()) best = range;
+        }
+        return best;
+    }
+
+    /**
+     * Same rotation as the vision CameraSource uses for the front camera
+     */
+    private int frameRotation(CameraCharacteristics characteristics) {
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = windowManager != null ? windowManager.getDefaultDisplay().getRotation() * 90 : 0;
+        int angle = ((sensorOrientation != null ? sensorOrientation : 0) + degrees) % 360;
+        return angle / 90;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        stop();
+        if (cameraThread != null) {
+            cameraThread.quitSafely();
+            cameraThread = null;
+            cameraHandler = null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.telenor.possumlib.utils.face;
+
+import com.google.gson.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a running summary of the face embeddings found in a session, so the session can be sent
+ * as a fixed size payload instead of one row per face. Each embedding is weighted by the quality
+ * of its face. The summary holds the weighted mean and variance per dimension, along with the
+ * k embeddings of highest quality.
+ */
+public class EmbeddingAggregator {
+    private final int size;
+    private final int topK;
+    private final double[] mean;
+    private final double[] squareSum;
+    private final float[][] topEmbeddings;
+    private final float[] topQuality;
+    private final long[] topTimestamps;
+    private double weightSum;
+    private int count;
+    private int topCount;
+
+    /**
+     * Constructor for the aggregator
+     *
+     * @param size the length of the embeddings
+     * @param topK the number of best embeddings to keep
+     */
+    public EmbeddingAggregator(int size, int topK) {
+        this.size = size;
+        this.topK = topK;
+        mean = new double[size];
+        squareSum = new double[size];
+        topEmbeddings = new float[topK][size];
+        topQuality = new float[topK];
+        topTimestamps = new long[topK];
+    }
+
+    /**
+     * Adds an embedding to the summary
+     *
+     * @param embedding the embedding, must be of the aggregators size
+     * @param quality   the quality of the face, used as weight. Must be above 0
+     * @param timestamp when the face was found
+     */
+    public synchronized void add(float[] embedding, float quality, long timestamp) {
+        if (embedding.length != size) {
+            throw new IllegalArgumentException("Embedding of length " + embedding.length + " does not match " + size);
+        }
+        if (quality <= 0) return;
+        count++;
+        // Weighted incremental mean and variance (West)
+        weightSum += quality;
+        double ratio = quality / weightSum;
+        for (int i = 0; i < size; i++) {
+            double delta = embedding[i] - mean[i];
+            mean[i] += ratio * delta;
+            squareSum[i] += quality * delta * (embedding[i] - mean[i]);
+        }
+        int slot;
+        if (topCount < topK) {
+            slot = topCount++;
+        } else {
+            slot = 0;
+            for (int i = 1; i < topK; i++) {
+                if (topQuality[i] < topQuality[slot]) slot = i;
+            }
+            if (topQuality[slot] >= quality) return;
+        }
+        System.arraycopy(embedding, 0, topEmbeddings[slot], 0, size);
+        topQuality[slot] = quality;
+        topTimestamps[slot] = timestamp;
+    }
+
+    /**
+     * Copies of the best embeddings kept, of at least the given quality
+     *
+     * @param minQuality the lowest quality included
+     * @return the embeddings, in no particular order
+     */
+    public synchronized List<float[]> topEmbeddings(float minQuality) {
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < topCount; i++) {
+            if (topQuality[i] >= minQuality) {
+                embeddings.add(topEmbeddings[i].clone());
+            }
+        }
+        return embeddings;
+    }
+
+    /**
+     * Forgets all embeddings added
+     */
+    public synchronized void reset() {
+        weightSum = 0;
+        count = 0;
+        topCount = 0;
+        for (int i = 0; i < size; i++) {
+            mean[i] = 0;
+            squareSum[i] = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * The weighted mean of a dimension
+     *
+     * @param index the dimension
+     * @return the mean, 0 if nothing is added
+     */
+    public synchronized double mean(int index) {
+        return mean[index];
+    }
+
+    /**
+     * Copies the weighted mean into an array
+     *
+     * @param output array of the aggregators size to receive the mean
+     */
+    public synchronized void mean(float[] output) {
+        for (int i = 0; i < size; i++) {
+            output[i] = (float) mean[i];
+        }
+    }
+
+    /**
+     * The weighted variance of a dimension
+     *
+     * @param index the dimension
+     * @return the variance, 0 if nothing is added
+     */
+    public synchronized double variance(int index) {
+        return weightSum > 0 ? squareSum[index] / weightSum : 0;
+    }
+
+    /**
+     * Writes the summary in the same row layout as the other detectors. The first row is
+     * ["summary", count, weightSum], followed by a "mean" and a "variance" row, and then one
+     * [timestamp, quality, embedding...] row per kept embedding, best first.
+     *
+     * @return the summary, or an empty array if nothing is added
+     */
+    public synchronized JsonArray toJson() {
+        JsonArray output = new JsonArray();
+        if (count == 0) return output;
+        JsonArray summary = new JsonArray();
+        summary.add("summary");
+        summary.add(count);
+        summary.add(weightSum);
+        output.add(summary);
+        JsonArray meanRow = new JsonArray();
+        JsonArray varianceRow = new JsonArray();
+        meanRow.add("mean");
+        varianceRow.add("variance");
+        for (int i = 0; i < size; i++) {
+            meanRow.add((float) mean[i]);
+            varianceRow.add((float) (squareSum[i] / weightSum));
+        }
+        output.add(meanRow);
+        output.add(varianceRow);
+        boolean[] written = new boolean[topCount];
+        for (int row = 0; row < topCount; row++) {
+            int best = -1;
+            for (int i = 0; i < topCount; i++) {
+                if (!written[i] && (best == -1 || topQuality[i] > topQuality[best])) best = i;
+            }
+            written[best] = true;
+            JsonArray embeddingRow = new JsonArray();
+            embeddingRow.add(topTimestamps[best]);
+            embeddingRow.add(topQuality[best]);
+            for (float value : topEmbeddings[best]) {
+                embeddingRow.add(value);
+            }
+            output.add(embeddingRow);
+        }
+        return output;
+    }
+}
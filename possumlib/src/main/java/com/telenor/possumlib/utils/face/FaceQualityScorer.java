@@ -0,0 +1,204 @@
+package com.telenor.possumlib.utils.face;
+
+import android.graphics.PointF;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheap quality check of a found face, meant to run before the face is decoded, aligned and run
+ * through the model. Pose and size are taken from the face itself, while brightness and sharpness
+ * (variance of the laplacian) are measured on a downsampled crop of the luma plane of the frame.
+ * Rejections are counted per reason.
+ */
+public class FaceQualityScorer {
+    public static final int ACCEPTED = 0;
+    public static final int REJECTED_POSE = 1;
+    public static final int REJECTED_SIZE = 2;
+    public static final int REJECTED_DARK = 3;
+    public static final int REJECTED_BRIGHT = 4;
+    public static final int REJECTED_BLUR = 5;
+    private static final String[] reasonNames = new String[]{"accepted", "pose", "size", "dark", "bright", "blur"};
+
+    private static final float maxEulerY = 20; // Degrees the head can be turned sideways
+    private static final float maxEulerZ = 15; // Degrees the head can be tilted
+    private static final float minEyeDistance = 20; // Pixels between the eyes in the frame
+    private static final int minBrightness = 40;
+    private static final int maxBrightness = 220;
+    private static final double minSharpness = 50;
+    private static final int samplesPerSide = 48; // The crop is sampled on a grid of about this size
+
+    private final int[] counters = new int[reasonNames.length];
+    private float lastQuality;
+    private double lastSharpness;
+    private double lastBrightness;
+
+    /**
+     * Checks whether a face is good enough to be used
+     *
+     * @param face     the face found
+     * @param frame    the frame the face was found in
+     * @param leftEye  position of the left eye
+     * @param rightEye position of the right eye
+     * @return ACCEPTED or the reason for rejecting the face
+     */
+    public int score(Face face, Frame frame, PointF leftEye, PointF rightEye) {
+        Frame.Metadata metadata = frame.getMetadata();
+        PointF position = face.getPosition();
+        float eyeDistance = (float) Math.hypot(rightEye.x - leftEye.x, rightEye.y - leftEye.y);
+        return score(frame.getGrayscaleImageData(), metadata.getWidth(), metadata.getHeight(), metadata.getRotation(),
+                position.x, position.y, face.getWidth(), face.getHeight(), face.getEulerY(), face.getEulerZ(), eyeDistance);
+    }
+
+    /**
+     * Checks whether a face is good enough to be used. The face box is given in the upright
+     * coordinates the face detector reports, while the luma plane is in the raw orientation of the
+     * camera.
+     *
+     * @param luma        the luma plane of the frame, one byte per pixel
+     * @param width       raw width of the frame
+     * @param height      raw height of the frame
+     * @param rotation    quarter turns (clockwise) needed to make the raw frame upright
+     * @param left        left side of the face box
+     * @param top         top side of the face box
+     * @param faceWidth   width of the face box
+     * @param faceHeight  height of the face box
+     * @param eulerY      sideways rotation of the head in degrees
+     * @param eulerZ      tilt of the head in degrees
+     * @param eyeDistance distance between the eyes in pixels
+     * @return ACCEPTED or the reason for rejecting the face
+     */
+    public synchronized int score(ByteBuffer luma, int width, int height, int rotation, float left, float top,
+                                  float faceWidth, float faceHeight, float eulerY, float eulerZ, float eyeDistance) {
+        int result = measure(luma, width, height, rotation, left, top, faceWidth, faceHeight, eulerY, eulerZ, eyeDistance);
+        counters[result]++;
+        if (result != ACCEPTED) {
+            lastQuality = 0;
+        }
+        return result;
+    }
+
+    private int measure(ByteBuffer luma, int width, int height, int rotation, float left, float top,
+                        float faceWidth, float faceHeight, float eulerY, float eulerZ, float eyeDistance) {
+        if (Math.abs(eulerY) > maxEulerY || Math.abs(eulerZ) > maxEulerZ) return REJECTED_POSE;
+        if (eyeDistance < minEyeDistance) return REJECTED_SIZE;
+
+        // Map the upright face box back to the raw frame
+        float right = left + faceWidth;
+        float bottom = top + faceHeight;
+        int x1, y1, x2, y2;
+        switch (rotation & 3) {
+            case 1:
+                x1 = (int) top;
+                x2 = (int) bottom;
+                y1 = (int) (height - 1 - right);
+                y2 = (int) (height - 1 - left);
+                break;
+            case 2:
+                x1 = (int) (width - 1 - right);
+                x2 = (int) (width - 1 - left);
+                y1 = (int) (height - 1 - bottom);
+                y2 = (int) (height - 1 - top);
+                break;
+            case 3:
+                x1 = (int) (width - 1 - bottom);
+                x2 = (int) (width - 1 - top);
+                y1 = (int) left;
+                y2 = (int) right;
+                break;
+            default:
+                x1 = (int) left;
+                x2 = (int) right;
+                y1 = (int) top;
+                y2 = (int) bottom;
+        }
+        x1 = Math.max(0, x1);
+        y1 = Math.max(0, y1);
+        x2 = Math.min(width - 1, x2);
+        y2 = Math.min(height - 1, y2);
+        int step = Math.max(1, Math.max(x2 - x1, y2 - y1) / samplesPerSide);
+        if (x2 - x1 < 2 * step || y2 - y1 < 2 * step) return REJECTED_SIZE;
+
+        // Brightness over the whole sampled crop, laplacian on the inner samples
+        long brightnessSum = 0;
+        int brightnessCount = 0;
+        double lapSum = 0;
+        double lapSquareSum = 0;
+        int lapCount = 0;
+        for (int y = y1; y <= y2; y += step) {
+            int row = y * width;
+            for (int x = x1; x <= x2; x += step) {
+                int center = luma.get(row + x) & 0xff;
+                brightnessSum += center;
+                brightnessCount++;
+                if (x - step < x1 || x + step > x2 || y - step < y1 || y + step > y2) continue;
+                int laplacian = 4 * center
+                        - (luma.get(row + x - step) & 0xff)
+                        - (luma.get(row + x + step) & 0xff)
+                        - (luma.get(row - step * width + x) & 0xff)
+                        - (luma.get(row + step * width + x) & 0xff);
+                lapSum += laplacian;
+                lapSquareSum += laplacian * laplacian;
+                lapCount++;
+            }
+        }
+        lastBrightness = (double) brightnessSum / brightnessCount;
+        if (lastBrightness < minBrightness) return REJECTED_DARK;
+        if (lastBrightness > maxBrightness) return REJECTED_BRIGHT;
+        double lapMean = lapCount == 0 ? 0 : lapSum / lapCount;
+        lastSharpness = lapCount == 0 ? 0 : lapSquareSum / lapCount - lapMean * lapMean;
+        if (lastSharpness < minSharpness) return REJECTED_BLUR;
+
+        float pose = (1 - Math.abs(eulerY) / maxEulerY) * (1 - Math.abs(eulerZ) / maxEulerZ);
+        float sharpness = (float) Math.min(1, lastSharpness / (4 * minSharpness));
+        lastQuality = Math.max(0.01f, pose * sharpness);
+        return ACCEPTED;
+    }
+
+    /**
+     * Quality of the last accepted face
+     *
+     * @return a value between 0 and 1, 0 if the last face was rejected
+     */
+    public synchronized float lastQuality() {
+        return lastQuality;
+    }
+
+    /**
+     * Number of faces given a result
+     *
+     * @param result ACCEPTED or one of the reasons
+     * @return the number of faces with that result
+     */
+    public synchronized int count(int result) {
+        return counters[result];
+    }
+
+    /**
+     * Name of a result, used for logging and statistics
+     *
+     * @param result ACCEPTED or one of the reasons
+     * @return a short name
+     */
+    public static String reasonName(int result) {
+        return reasonNames[result];
+    }
+
+    /**
+     * Counters and last measurements as a json object
+     *
+     * @return a json object with the counters
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        for (int i = 0; i < counters.length; i++) {
+            object.addProperty(reasonNames[i], counters[i]);
+        }
+        object.addProperty("lastSharpness", lastSharpness);
+        object.addProperty("lastBrightness", lastBrightness);
+        return object;
+    }
+}
@@ -0,0 +1,263 @@
+package com.telenor.possumlib.utils.face;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Enrolled face templates per user, kept on the device so faces can be verified without asking
+ * the server. The templates of a user are stored as one packed float file: an int with the
+ * template size, followed by the normalized templates back to back. Once the max number of
+ * templates is reached, a new template replaces the oldest, so the templates follow the user's
+ * face as it changes.
+ * <p>
+ * The templates are biometric data and are stored unencrypted in the app's private files
+ * directory, readable by the app alone unless the device is rooted. They are removed with the
+ * user's data, see AwesomePossum.resetMyData, and when the library is terminated.
+ */
+public class FaceTemplateStore {
+    private static final String fileEnding = ".tpl";
+    private static final String directoryName = "faceTemplates";
+    private final File directory;
+    private final int maxTemplates;
+    private final Map<String, float[]> cache = new HashMap<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+    private static final String tag = FaceTemplateStore.class.getName();
+
+    /**
+     * Constructor for the template store
+     *
+     * @param directory    directory to store the templates in
+     * @param maxTemplates the max number of templates stored per user
+     */
+    public FaceTemplateStore(@NonNull File directory, int maxTemplates) {
+        this.directory = directory;
+        this.maxTemplates = maxTemplates;
+    }
+
+    /**
+     * The directory the templates are kept in
+     *
+     * @param context a valid android context
+     * @return the template directory
+     */
+    public static File directory(@NonNull Context context) {
+        return new File(context.getFilesDir(), directoryName);
+    }
+
+    /**
+     * Adds a template to a user, replacing the oldest should the user have all the templates it
+     * can have
+     *
+     * @param userId    the unique user id
+     * @param embedding the face embedding to enroll
+     * @return true if added, false if failed to store
+     */
+    public synchronized boolean add(@NonNull String userId, @NonNull float[] embedding) {
+        float[] templates = templates(userId);
+        Integer size = sizes.get(userId);
+        if (size != null && size != embedding.length) {
+            Log.w(tag, "Template size changed from " + size + " to " + embedding.length + ", starting over");
+            clear(userId);
+            templates = templates(userId);
+        }
+        int count = templates.length / embedding.length;
+        float[] normalized = FaceVerifier.normalize(embedding);
+        if (count >= maxTemplates) {
+            return replaceOldest(userId, templates, normalized);
+        }
+        File file = templateFile(userId);
+        RandomAccessFile output = null;
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                Log.w(tag, "Failed to create template directory");
+                return false;
+            }
+            output = new RandomAccessFile(file, "rw");
+            boolean isNew = output.length() == 0;
+            ByteBuffer buffer = ByteBuffer.allocate((isNew ? 4 : 0) + normalized.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            if (isNew) {
+                buffer.putInt(normalized.length);
+            }
+            buffer.asFloatBuffer().put(normalized);
+            output.seek(output.length());
+            output.write(buffer.array());
+        } catch (IOException e) {
+            Log.e(tag, "Failed to store template:", e);
+            return false;
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        float[] grown = new float[templates.length + normalized.length];
+        System.arraycopy(templates, 0, grown, 0, templates.length);
+        System.arraycopy(normalized, 0, grown, templates.length, normalized.length);
+        cache.put(userId, grown);
+        sizes.put(userId, normalized.length);
+        return true;
+    }
+
+    /**
+     * Drops the oldest templates so the new one fits, rewriting the file of the user
+     */
+    private boolean replaceOldest(String userId, float[] templates, float[] normalized) {
+        int size = normalized.length;
+        int kept = (maxTemplates - 1) * size;
+        float[] replaced = new float[kept + size];
+        System.arraycopy(templates, templates.length - kept, replaced, 0, kept);
+        System.arraycopy(normalized, 0, replaced, kept, size);
+        File file = templateFile(userId);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        RandomAccessFile output = null;
+        try {
+            output = new RandomAccessFile(temporary, "rw");
+            output.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(4 + replaced.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(size);
+            buffer.asFloatBuffer().put(replaced);
+            output.write(buffer.array());
+            output.close();
+            output = null;
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Unable to replace " + file.getName());
+            }
+        } catch (IOException e) {
+            Log.e(tag, "Failed to store template:", e);
+            if (temporary.exists() && !temporary.delete()) {
+                Log.w(tag, "Failed to delete " + temporary.getName());
+            }
+            return false;
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        cache.put(userId, replaced);
+        return true;
+    }
+
+    /**
+     * The packed, normalized templates of a user. Loaded from file the first time, and again
+     * should the file have been removed, as when another process clears the user's data.
+     *
+     * @param userId the unique user id
+     * @return the templates back to back, an empty array if none are enrolled
+     */
+    public synchronized float[] templates(@NonNull String userId) {
+        File file = templateFile(userId);
+        float[] templates = cache.get(userId);
+        if (templates != null && (templates.length == 0 || file.exists())) return templates;
+        sizes.remove(userId);
+        templates = new float[0];
+        if (file.exists()) {
+            RandomAccessFile input = null;
+            try {
+                input = new RandomAccessFile(file, "r");
+                byte[] bytes = new byte[(int) input.length()];
+                input.readFully(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                int size = buffer.getInt();
+                FloatBuffer floats = buffer.asFloatBuffer();
+                // A partly written template at the end is dropped
+                int count = size > 0 ? floats.remaining() / size : 0;
+                templates = new float[count * size];
+                floats.get(templates);
+                sizes.put(userId, size);
+            } catch (IOException | RuntimeException e) {
+                Log.e(tag, "Failed to read templates, ignoring them:", e);
+                templates = new float[0];
+            } finally {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+        }
+        cache.put(userId, templates);
+        return templates;
+    }
+
+    /**
+     * The length of the templates of a user
+     *
+     * @param userId the unique user id
+     * @return the template size, or 0 if none are enrolled
+     */
+    public synchronized int templateSize(@NonNull String userId) {
+        templates(userId);
+        Integer size = sizes.get(userId);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * Number of templates enrolled for a user
+     *
+     * @param userId the unique user id
+     * @return number of templates
+     */
+    public synchronized int count(@NonNull String userId) {
+        int size = templateSize(userId);
+        return size == 0 ? 0 : templates(userId).length / size;
+    }
+
+    /**
+     * Whether the user has all the templates it can have
+     *
+     * @param userId the unique user id
+     * @return true if a new template replaces the oldest
+     */
+    public synchronized boolean isFull(@NonNull String userId) {
+        return count(userId) >= maxTemplates;
+    }
+
+    /**
+     * Removes all templates of a user
+     *
+     * @param userId the unique user id
+     */
+    public synchronized void clear(@NonNull String userId) {
+        cache.remove(userId);
+        sizes.remove(userId);
+        File file = templateFile(userId);
+        if (file.exists() && !file.delete()) {
+            Log.w(tag, "Failed to delete templates of user");
+        }
+    }
+
+    /**
+     * Removes the templates of all users
+     */
+    public synchronized void clearAll() {
+        cache.clear();
+        sizes.clear();
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(tag, "Failed to delete " + file.getName());
+            }
+        }
+    }
+
+    private File templateFile(String userId) {
+        return new File(directory, userId.replace('/', '#') + fileEnding);
+    }
+}
@@ -0,0 +1,76 @@
+package com.telenor.possumlib.utils.face;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Compares a face embedding with the enrolled templates of a user. Templates are stored
+ * normalized, so the cosine similarity is a single dot product per template.
+ */
+public class FaceVerifier {
+    private final FaceTemplateStore store;
+
+    public FaceVerifier(@NonNull FaceTemplateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Scores an embedding against the templates of a user
+     *
+     * @param userId    the unique user id
+     * @param embedding the face embedding to verify
+     * @return the best cosine similarity clamped to 0-1, or -1 if the user has no templates of the
+     * same size
+     */
+    public float score(@NonNull String userId, @NonNull float[] embedding) {
+        float[] templates = store.templates(userId);
+        int size = store.templateSize(userId);
+        if (size != embedding.length || templates.length == 0) return -1;
+        return Math.max(0, bestSimilarity(templates, size, embedding));
+    }
+
+    /**
+     * Finds the best cosine similarity between an embedding and a set of normalized templates
+     *
+     * @param templates normalized templates packed back to back
+     * @param size      the length of each template
+     * @param embedding the embedding to compare, need not be normalized
+     * @return the best similarity, between -1 and 1
+     */
+    public static float bestSimilarity(@NonNull float[] templates, int size, @NonNull float[] embedding) {
+        float norm = norm(embedding);
+        if (norm == 0) return 0;
+        float best = -1;
+        for (int offset = 0; offset + size <= templates.length; offset += size) {
+            float dot = 0;
+            for (int i = 0; i < size; i++) {
+                dot += templates[offset + i] * embedding[i];
+            }
+            if (dot > best) best = dot;
+        }
+        return best / norm;
+    }
+
+    /**
+     * Makes a normalized copy of an embedding
+     *
+     * @param embedding the embedding
+     * @return a copy with length 1, or all zeroes if the embedding is zero
+     */
+    public static float[] normalize(@NonNull float[] embedding) {
+        float norm = norm(embedding);
+        float[] normalized = new float[embedding.length];
+        if (norm == 0) return normalized;
+        for (int i = 0; i < embedding.length; i++) {
+            normalized[i] = embedding[i] / norm;
+        }
+        return normalized;
+    }
+
+    private static float norm(float[] embedding) {
+        float sum = 0;
+        for (float value : embedding) {
+            sum += value * value;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,78 @@
+package com.telenor.possumlib.utils.face;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.vision.CameraSource;
+import com.telenor.possumlib.interfaces.ICaptureSource;
+
+import java.io.IOException;
+
+/**
+ * Capture source using the CameraSource of Play Services Vision. Frame rate and preview size of a
+ * CameraSource cannot be changed once built, so new values means building a new one.
+ */
+public class VisionCaptureSource implements ICaptureSource {
+    private final Context context;
+    private final AwesomeFaceDetector detector;
+    private CameraSource cameraSource;
+    private int width;
+    private int height;
+    private int fps;
+    private boolean running;
+    private static final String tag = VisionCaptureSource.class.getName();
+
+    public VisionCaptureSource(@NonNull Context context, @NonNull AwesomeFaceDetector detector) {
+        this.context = context;
+        this.detector = detector;
+    }
+
+    @Override
+    @SuppressWarnings("MissingPermission")
+    public void start(int width, int height, int fps) throws IOException {
+        stop();
+        if (cameraSource != null && (width != this.width || height != this.height || fps != this.fps)) {
+            releaseCameraSource();
+            // Releasing the camera source also releases the processor of the detector
+            detector.setProcessor(new AwesomeFaceProcessor(detector, new AwesomeFaceTracker()));
+        }
+        if (cameraSource == null) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            cameraSource = new CameraSource.Builder(context, detector)
+                    .setFacing(CameraSource.CAMERA_FACING_FRONT)
+                    .setRequestedPreviewSize(width, height)
+                    .setRequestedFps(fps)
+                    .build();
+        }
+        cameraSource.start();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        if (cameraSource != null && running) {
+            cameraSource.stop();
+        }
+        running = false;
+    }
+
+    @Override
+    public void release() {
+        releaseCameraSource();
+    }
+
+    private void releaseCameraSource() {
+        if (cameraSource != null) {
+            try {
+                cameraSource.release();
+            } catch (Exception e) {
+                Log.e(tag, "Possum failed to release camera:", e);
+            }
+        }
+        cameraSource = null;
+        running = false;
+    }
+}
@@ -9,6 +9,8 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
 import android.os.PowerManager;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
 import com.telenor.possumlib.FileManipulator;
 import com.telenor.possumlib.JodaInit;
 import com.telenor.possumlib.PossumTestRunner;
@@ -202,6 +204,34 @@ public class AbstractAndroidRegularDetectorTest {
 //        Assert.assertEquals(0, storedField.getInt(androidRegularSensor));
     }
 
+    @Test
+    public void testWarmRowsGoToRing() throws Exception {
+        Assert.assertTrue(androidRegularSensor.isWarmable());
+        androidRegularSensor.setUniqueUser("testUser");
+        Assert.assertTrue(androidRegularSensor.startListening());
+        androidRegularSensor.setWarm(3000, true);
+        Assert.assertTrue(androidRegularSensor.isWarm());
+        SensorEvent event = SensorEvents.createSensorEvent(mockedSensor, System.currentTimeMillis(), 0, 10, 10, 10);
+        JsonArray row = new JsonArray();
+        row.add(new JsonPrimitive("" + System.currentTimeMillis()));
+        androidRegularSensor.sessionValues().add(row);
+        androidRegularSensor.onSensorChanged(event);
+        // Warm only, so the row is not kept for storing
+        Assert.assertEquals(0, androidRegularSensor.sessionValues().size());
+        Assert.assertEquals(1, androidRegularSensor.warmData().size());
+
+        androidRegularSensor.setWarm(3000, false);
+        androidRegularSensor.sessionValues().add(row);
+        androidRegularSensor.onSensorChanged(event);
+        Assert.assertEquals(1, androidRegularSensor.sessionValues().size());
+        Assert.assertEquals(2, androidRegularSensor.warmData().size());
+
+        androidRegularSensor.setWarm(0, false);
+        Assert.assertFalse(androidRegularSensor.isWarm());
+        Assert.assertEquals(0, androidRegularSensor.warmData().size());
+        androidRegularSensor.stopListening();
+    }
+
     @Test
     public void testAccuracyChanged() throws Exception {
         ShadowLog.setupLogging();
@@ -9,6 +9,7 @@ import com.telenor.possumlib.JodaInit;
 import com.telenor.possumlib.PossumTestRunner;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.changeevents.PossumEvent;
+import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.interfaces.ISensorStatusUpdate;
 import com.telenor.possumlib.models.PossumBus;
@@ -22,10 +23,12 @@ import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.mockito.Mockito.mock;
@@ -357,4 +360,74 @@ public class AbstractDetectorTest {
         Assert.assertFalse(fakedStoredData.exists());
         Assert.assertTrue(zippedFile.exists());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStoreDataRotatesOldFile() throws Exception {
+        JsonArray value = new JsonArray();
+        value.add(1);
+        abstractDetector.sessionValues().add(value);
+        abstractDetector.storeData();
+        Assert.assertTrue(fakedStoredData.length() > 0);
+        timestamp += Constants.ROTATION_INTERVAL - 1;
+        abstractDetector.sessionValues().add(value);
+        abstractDetector.storeData();
+        Assert.assertTrue(fakedStoredData.exists());
+        timestamp += 1;
+        abstractDetector.sessionValues().add(value);
+        abstractDetector.storeData();
+        Assert.assertFalse(fakedStoredData.exists());
+    }
+
+    @Test
+    public void testStoreDataRotatesFileLeftByEarlierRun() throws Exception {
+        FileOutputStream output = new FileOutputStream(fakedStoredData);
+        output.write("[1]\r\n".getBytes());
+        output.close();
+        Assert.assertTrue(fakedStoredData.setLastModified(timestamp - Constants.ROTATION_INTERVAL));
+        JsonArray value = new JsonArray();
+        value.add(1);
+        abstractDetector.sessionValues().add(value);
+        abstractDetector.storeData();
+        Assert.assertFalse(fakedStoredData.exists());
+    }
+
+    @Test
+    public void testRotatedFileIsStagedByPrepareUpload() throws Exception {
+        FileOutputStream output = new FileOutputStream(fakedStoredData);
+        output.write("[1]\r\n".getBytes());
+        output.close();
+        Assert.assertTrue(fakedStoredData.setLastModified(timestamp - Constants.ROTATION_INTERVAL));
+        JsonArray value = new JsonArray();
+        value.add(1);
+        abstractDetector.sessionValues().add(value);
+        abstractDetector.storeData();
+        abstractDetector.prepareUpload();
+        File[] left = fakedStoredData.getParentFile().listFiles();
+        Assert.assertNotNull(left);
+        for (File file : left) {
+            Assert.assertFalse(file.getName().startsWith(fakedStoredData.getName() + ".rotated."));
+        }
+        File[] staged = new File(RuntimeEnvironment.application.getFilesDir(), "data/Upload").listFiles();
+        Assert.assertNotNull(staged);
+        Assert.assertEquals(1, staged.length);
+    }
+
+    @Test
+    public void testCopySessionValuesFromIndex() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            JsonArray value = new JsonArray();
+            value.add(i);
+            abstractDetector.sessionValues().add(value);
+        }
+        List<JsonArray> rows = new ArrayList<>();
+        Assert.assertEquals(3, abstractDetector.copySessionValues(1, rows));
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals(1, rows.get(0).get(0).getAsInt());
+        abstractDetector.clearData();
+        rows.clear();
+        abstractDetector.sessionValues().add(new JsonArray());
+        // Fewer rows than the index, so they were cleared and all are copied
+        Assert.assertEquals(1, abstractDetector.copySessionValues(3, rows));
+        Assert.assertEquals(1, rows.size());
+    }
+}
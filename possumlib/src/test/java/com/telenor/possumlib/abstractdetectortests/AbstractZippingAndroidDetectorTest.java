@@ -10,9 +10,12 @@ import android.os.PowerManager;
 
 import com.telenor.possumlib.JodaInit;
 import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.abstractdetectors.AbstractZippingAndroidDetector;
 import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.functionality.GatheringFunctionality;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.SegmentLog;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -25,11 +28,11 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowApplication;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.FileInputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.zip.ZipOutputStream;
+import java.util.Collections;
+import java.util.zip.ZipInputStream;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
@@ -124,41 +127,83 @@ public class AbstractZippingAndroidDetectorTest {
 
     @Test
     public void testStartListening() throws Exception {
-        Field outerStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("outerStream");
+        Field outerStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("segmentLog");
         outerStreamField.setAccessible(true);
-        ZipOutputStream zipStreamBefore = (ZipOutputStream) outerStreamField.get(androidSensor);
+        SegmentLog zipStreamBefore = (SegmentLog) outerStreamField.get(androidSensor);
         Assert.assertNull(zipStreamBefore);
 //        Assert.assertTrue(androidSensor.startListening());
 //        Assert.assertTrue(androidSensor.isListening());
-//        ZipOutputStream zipStream = (ZipOutputStream) outerStreamField.get(androidSensor);
+//        SegmentLog zipStream = (SegmentLog) outerStreamField.get(androidSensor);
 //        Assert.assertNotNull(zipStream);
     }
 
     @Test
     public void testStopListening() throws Exception {
-        Field outerStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("outerStream");
+        Field outerStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("segmentLog");
         outerStreamField.setAccessible(true);
 //        Assert.assertTrue(androidSensor.startListening());
-//        ZipOutputStream zipStream = (ZipOutputStream) outerStreamField.get(androidSensor);
+//        SegmentLog zipStream = (SegmentLog) outerStreamField.get(androidSensor);
 //        Assert.assertNotNull(zipStream);
 //        Assert.assertTrue(androidSensor.isListening());
 //        androidSensor.stopListening();
-//        ZipOutputStream zipStreamAfter = (ZipOutputStream) outerStreamField.get(androidSensor);
+//        SegmentLog zipStreamAfter = (SegmentLog) outerStreamField.get(androidSensor);
 //        Assert.assertNull(zipStreamAfter);
 //        Assert.assertFalse(androidSensor.isListening());
     }
 
     @Test
-    public void testCreateZipStream() throws Exception {
-        Method zipMethod = AbstractZippingAndroidDetector.class.getDeclaredMethod("createZipStream", OutputStream.class);
-        zipMethod.setAccessible(true);
-        OutputStream oStream = new FileOutputStream(fakeFile);
-        ZipOutputStream zipStream = (ZipOutputStream) zipMethod.invoke(androidSensor, oStream);
-        Assert.assertNotNull(zipStream);
-        long fileSize = fakeFile.length();
-        zipStream.write("This is a test".getBytes());
+    public void testStageLog() throws Exception {
+        SegmentLog log = new SegmentLog(fakeFile);
+        byte[] data = "This is a test\r\n".getBytes();
+        log.write(data, 0, data.length);
+        log.close();
+        Method stageMethod = AbstractZippingAndroidDetector.class.getDeclaredMethod("stageLog");
+        stageMethod.setAccessible(true);
+        stageMethod.invoke(androidSensor);
+        File zip = new File(fakeFile.getAbsolutePath() + ".zip");
+        Assert.assertTrue(zip.length() > 0);
+        Assert.assertFalse(fakeFile.exists());
+        ZipInputStream zipStream = new ZipInputStream(new FileInputStream(zip));
+        Assert.assertEquals(fakeFile.getName(), zipStream.getNextEntry().getName());
+        byte[] read = new byte[data.length];
+        Assert.assertEquals(data.length, zipStream.read(read));
+        Assert.assertEquals("This is a test\r\n", new String(read));
         zipStream.close();
-        Assert.assertTrue(fakeFile.length() > fileSize);
+        Assert.assertTrue(zip.delete());
+    }
+
+    @Test
+    public void testClosedLogIsStagedByPrepareUpload() throws Exception {
+        SegmentLog log = new SegmentLog(fakeFile);
+        byte[] data = "This is a test\r\n".getBytes();
+        log.write(data, 0, data.length);
+        log.close();
+        // A stopped detector has closed its log without staging it, which still counts as stored
+        Assert.assertEquals(100 + fakeFile.length(), androidSensor.fileSize());
+        androidSensor.prepareUpload();
+        File zip = new File(fakeFile.getAbsolutePath() + ".zip");
+        Assert.assertTrue(zip.length() > 0);
+        Assert.assertFalse(fakeFile.exists());
+        Assert.assertTrue(zip.delete());
+    }
+
+    @Test
+    public void testStopListeningLeavesStagingToThePreparePass() throws Exception {
+        Field segmentLogField = AbstractZippingAndroidDetector.class.getDeclaredField("segmentLog");
+        segmentLogField.setAccessible(true);
+        SegmentLog log = new SegmentLog(fakeFile);
+        byte[] data = "This is a test\r\n".getBytes();
+        log.write(data, 0, data.length);
+        segmentLogField.set(androidSensor, log);
+        androidSensor.stopListening();
+        File zip = new File(fakeFile.getAbsolutePath() + ".zip");
+        Assert.assertNull(segmentLogField.get(androidSensor));
+        Assert.assertFalse(zip.exists());
+        Assert.assertTrue(fakeFile.length() > 0);
+        GatheringFunctionality.prepareUploads(Collections.<AbstractDetector>singletonList(androidSensor));
+        Assert.assertTrue(zip.length() > 0);
+        Assert.assertFalse(fakeFile.exists());
+        Assert.assertTrue(zip.delete());
     }
 
     @Test
@@ -199,12 +244,12 @@ public class AbstractZippingAndroidDetectorTest {
 
     @Test
     public void testPrepareForUpload() throws Exception {
-        Field outerStream = AbstractZippingAndroidDetector.class.getDeclaredField("outerStream");
+        Field outerStream = AbstractZippingAndroidDetector.class.getDeclaredField("segmentLog");
         outerStream.setAccessible(true);
-        ZipOutputStream zipStream = (ZipOutputStream) outerStream.get(androidSensor);
+        SegmentLog zipStream = (SegmentLog) outerStream.get(androidSensor);
         Assert.assertNull(zipStream);
 //        Assert.assertTrue(androidSensor.startListening());
-//        zipStream = (ZipOutputStream) outerStream.get(androidSensor);
+//        zipStream = (SegmentLog) outerStream.get(androidSensor);
 //        Assert.assertNotNull(zipStream);
 //
 //        androidSensor.prepareUpload();
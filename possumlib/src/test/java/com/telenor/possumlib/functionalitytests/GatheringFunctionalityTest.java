@@ -1,6 +1,7 @@
 package com.telenor.possumlib.functionalitytests;
 
 import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.functionality.GatheringFunctionality;
 
 import org.junit.After;
@@ -8,6 +9,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 @RunWith(PossumTestRunner.class)
 public class GatheringFunctionalityTest {
     private GatheringFunctionality gatheringFunctionality;
@@ -41,6 +50,20 @@ public class GatheringFunctionalityTest {
 //        Assert.assertTrue(detectors instanceof ConcurrentLinkedQueue);
     }
 
+    @Test
+    public void testPrepareUploadsPreparesAllDetectors() throws Exception {
+        List<AbstractDetector> detectors = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            detectors.add(mock(AbstractDetector.class));
+        }
+        // One failing detector should not keep the others from being prepared
+        doThrow(new RuntimeException("Failed")).when(detectors.get(2)).prepareUpload();
+        GatheringFunctionality.prepareUploads(detectors);
+        for (AbstractDetector detector : detectors) {
+            verify(detector, times(1)).prepareUpload();
+        }
+    }
+
 //    @Test
 //    public void testSettingKurtIdStopsGathering() throws Exception {
 //        gatheringFunctionality = new GatheringFunctionality(RuntimeEnvironment.application){
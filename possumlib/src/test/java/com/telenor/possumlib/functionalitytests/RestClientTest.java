@@ -0,0 +1,116 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.functionality.RestClient;
+import com.telenor.possumlib.models.RestTimings;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class RestClientTest {
+    private HttpServer server;
+    private URL url;
+    private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> apiKeys = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/auth", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                apiKeys.add(exchange.getRequestHeaders().getFirst("x-api-key"));
+                String body = read(exchange.getRequestBody());
+                respond(exchange, 200, "{\"echo\":" + body + "}");
+            }
+        });
+        server.createContext("/fail", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                read(exchange.getRequestBody());
+                respond(exchange, 403, "{\"message\":\"Forbidden\"}");
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/auth");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        input.close();
+        return output.toString("UTF-8");
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] data = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, data.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(data);
+        output.close();
+    }
+
+    @Test
+    public void testPostReturnsResponse() throws Exception {
+        RestClient client = new RestClient(5000, 5000);
+        Assert.assertNull(client.lastTimings());
+        Assert.assertEquals("{\"echo\":{\"connectId\":\"user\"}}", client.post(url, "key", "{\"connectId\":\"user\"}".getBytes()));
+        Assert.assertEquals("key", apiKeys.get(0));
+        RestTimings timings = client.lastTimings();
+        Assert.assertNotNull(timings);
+        Assert.assertTrue(timings.totalMillis() >= timings.connectMillis() + timings.waitMillis());
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        RestClient client = new RestClient(5000, 5000);
+        for (int i = 0; i < 3; i++) {
+            client.post(url, "key", ("{\"call\":" + i + "}").getBytes());
+        }
+        Assert.assertEquals(3, clientPorts.size());
+        Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+        Assert.assertEquals(clientPorts.get(0), clientPorts.get(2));
+    }
+
+    @Test
+    public void testErrorResponseFails() throws Exception {
+        RestClient client = new RestClient(5000, 5000);
+        try {
+            client.post(new URL(url, "/fail"), "key", "{}".getBytes());
+            Assert.fail("Should not succeed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("403"));
+            Assert.assertTrue(e.getMessage().contains("Forbidden"));
+        }
+        Assert.assertNotNull(client.lastTimings());
+        // The client is still fine afterwards
+        client.post(url, "key", "{}".getBytes());
+    }
+}
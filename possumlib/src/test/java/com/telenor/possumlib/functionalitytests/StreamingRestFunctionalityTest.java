@@ -0,0 +1,132 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.functionality.StreamingRestFunctionality;
+import com.telenor.possumlib.interfaces.IRestListener;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(PossumTestRunner.class)
+public class StreamingRestFunctionalityTest {
+    private StreamingRestFunctionality stream;
+
+    @Before
+    public void setUp() throws Exception {
+        IRestListener listener = new IRestListener() {
+            @Override
+            public void successfullyPushed(String message) {
+            }
+
+            @Override
+            public void failedToPush(Exception exception) {
+            }
+        };
+        stream = new StreamingRestFunctionality(listener, "http://fakeAssUrl.com", "fakeAsHell", "myFakeUserId");
+    }
+
+    private static List<JsonArray> rows(String... timestamps) {
+        List<JsonArray> rows = new ArrayList<>();
+        for (String timestamp : timestamps) {
+            JsonArray row = new JsonArray();
+            row.add(new JsonPrimitive(timestamp));
+            row.add(new JsonPrimitive("1.0"));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testFramesAreWrittenAsLines() throws Exception {
+        stream.send("accelerometer", rows("1", "2"));
+        stream.send("gyroscope", Collections.<JsonArray>emptyList());
+        stream.send("gyroscope", rows("3"));
+        stream.finish();
+        stream.send("accelerometer", rows("4"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(3, stream.streamTo(output));
+        String[] lines = output.toString("UTF-8").split("\n");
+        Assert.assertEquals(3, lines.length);
+        JsonParser parser = new JsonParser();
+        Assert.assertEquals("myFakeUserId", parser.parse(lines[0]).getAsJsonObject().get("connectId").getAsString());
+        JsonObject first = parser.parse(lines[1]).getAsJsonObject();
+        Assert.assertEquals("accelerometer", first.get("detector").getAsString());
+        Assert.assertEquals(2, first.get("data").getAsJsonArray().size());
+        JsonObject second = parser.parse(lines[2]).getAsJsonObject();
+        Assert.assertEquals("gyroscope", second.get("detector").getAsString());
+        Assert.assertEquals("3", second.get("data").getAsJsonArray().get(0).getAsJsonArray().get(0).getAsString());
+    }
+
+    @Test
+    public void testSummaryIsSentAsGiven() throws Exception {
+        JsonArray summary = new JsonArray();
+        JsonObject face = new JsonObject();
+        face.addProperty("quality", 0.9f);
+        summary.add(face);
+        stream.send("image", summary);
+        stream.send("image", new JsonArray());
+        stream.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(2, stream.streamTo(output));
+        String[] lines = output.toString("UTF-8").split("\n");
+        JsonObject frame = new JsonParser().parse(lines[1]).getAsJsonObject();
+        Assert.assertEquals("image", frame.get("detector").getAsString());
+        Assert.assertEquals(0.9f, frame.get("data").getAsJsonArray().get(0).getAsJsonObject().get("quality").getAsFloat(), 0);
+    }
+
+    @Test
+    public void testFramesAreFlushedAsTheyCome() throws Exception {
+        final Semaphore flushed = new Semaphore(0);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                flushed.release();
+            }
+        };
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stream.streamTo(output);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        // Each frame reaches the server before the window ends
+        Assert.assertTrue(flushed.tryAcquire(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, output.toString("UTF-8").split("\n").length);
+        stream.send("accelerometer", rows("1"));
+        Assert.assertTrue(flushed.tryAcquire(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, output.toString("UTF-8").split("\n").length);
+        stream.finish();
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+    }
+
+    @Test
+    public void testCancelStopsStreaming() throws Exception {
+        stream.send("accelerometer", rows("1"));
+        stream.cancel();
+        stream.send("accelerometer", rows("2"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(0, stream.streamTo(output));
+        Assert.assertEquals(0, output.size());
+    }
+}
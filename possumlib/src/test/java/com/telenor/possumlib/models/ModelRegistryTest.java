@@ -0,0 +1,61 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.interfaces.IModelLoaded;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(PossumTestRunner.class)
+public class ModelRegistryTest {
+    private static final int fakeDetectorType = 9999;
+    private ModelRegistry registry;
+    private IModelLoaded mockedListener;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = ModelRegistry.getInstance();
+        mockedListener = mock(IModelLoaded.class);
+    }
+
+    @Test
+    public void testListenerIsToldWhenModelLoads() throws Exception {
+        Object model = new Object();
+        registry.requestModel(RuntimeEnvironment.application, fakeDetectorType, mockedListener);
+        verify(mockedListener, never()).modelLoaded(fakeDetectorType, model);
+        registry.modelLoaded(fakeDetectorType, model, true, 100, 20);
+        verify(mockedListener, times(1)).modelLoaded(fakeDetectorType, model);
+        Assert.assertTrue(registry.isLoaded(fakeDetectorType));
+        Assert.assertTrue(registry.isMapped(fakeDetectorType));
+        Assert.assertEquals(100, registry.loadMillis(fakeDetectorType));
+        Assert.assertEquals(20, registry.warmUpMillis(fakeDetectorType));
+
+        // A second request gets the already loaded model directly
+        IModelLoaded secondListener = mock(IModelLoaded.class);
+        registry.requestModel(RuntimeEnvironment.application, fakeDetectorType, secondListener);
+        verify(secondListener, times(1)).modelLoaded(fakeDetectorType, model);
+        registry.removeListener(mockedListener);
+        registry.removeListener(secondListener);
+    }
+
+    @Test
+    public void testFailedLoadIsNotPublished() throws Exception {
+        int otherType = fakeDetectorType + 1;
+        registry.requestModel(RuntimeEnvironment.application, otherType, mockedListener);
+        registry.modelLoaded(otherType, null, false, 0, 0);
+        Assert.assertFalse(registry.isLoaded(otherType));
+        Assert.assertEquals(-1, registry.loadMillis(otherType));
+        registry.removeListener(mockedListener);
+        Object model = new Object();
+        registry.modelLoaded(otherType, model, false, 1, 1);
+        verify(mockedListener, never()).modelLoaded(otherType, model);
+    }
+}
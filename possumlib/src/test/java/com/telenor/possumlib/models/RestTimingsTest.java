@@ -0,0 +1,37 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class RestTimingsTest {
+    @Test
+    public void testPhasesAreMeasuredFromTheLastMark() throws Exception {
+        RestTimings timings = new RestTimings();
+        Thread.sleep(20);
+        timings.connected();
+        timings.sent();
+        Thread.sleep(20);
+        timings.responded();
+        timings.read();
+        Assert.assertTrue(timings.connectMillis() >= 20);
+        Assert.assertTrue(timings.sendMillis() < 20);
+        Assert.assertTrue(timings.waitMillis() >= 20);
+        Assert.assertEquals(0, timings.resolveMillis());
+        Assert.assertTrue(timings.totalMillis() >= 40);
+    }
+
+    @Test
+    public void testToJson() throws Exception {
+        RestTimings timings = new RestTimings();
+        timings.connected();
+        JsonObject object = timings.toJson();
+        for (String phase : new String[]{"resolve", "connect", "send", "wait", "read", "total"}) {
+            Assert.assertTrue(object.has(phase));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class RotationPolicyTest {
+    @Test
+    public void testRotatesOnSize() throws Exception {
+        RotationPolicy policy = new RotationPolicy(1000, 0);
+        Assert.assertFalse(policy.shouldRotate(999, 1, Long.MAX_VALUE));
+        Assert.assertTrue(policy.shouldRotate(1000, 1, 1));
+    }
+
+    @Test
+    public void testRotatesOnAge() throws Exception {
+        RotationPolicy policy = new RotationPolicy(0, 60000);
+        Assert.assertFalse(policy.shouldRotate(Long.MAX_VALUE, 1000, 60999));
+        Assert.assertTrue(policy.shouldRotate(1, 1000, 61000));
+        // Unknown start is never too old
+        Assert.assertFalse(policy.shouldRotate(1, 0, 61000));
+    }
+
+    @Test
+    public void testEmptyFileIsNeverRotated() throws Exception {
+        Assert.assertFalse(new RotationPolicy(1, 1).shouldRotate(0, 1, 1000));
+    }
+
+    @Test
+    public void testNeverRotates() throws Exception {
+        Assert.assertFalse(RotationPolicy.NEVER.shouldRotate(Long.MAX_VALUE, 1, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,78 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class SampleRingTest {
+    private static JsonArray row(long timestamp) {
+        JsonArray row = new JsonArray();
+        row.add(new JsonPrimitive("" + timestamp));
+        row.add(new JsonPrimitive("0.5"));
+        return row;
+    }
+
+    private static long timestamp(JsonArray snapshot, int index) {
+        return snapshot.get(index).getAsJsonArray().get(0).getAsLong();
+    }
+
+    @Test
+    public void testRowsAreKeptInOrder() throws Exception {
+        SampleRing ring = new SampleRing(5);
+        for (long timestamp = 100; timestamp < 103; timestamp++) {
+            ring.add(timestamp, row(timestamp));
+        }
+        JsonArray snapshot = ring.snapshot(0);
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(100, timestamp(snapshot, 0));
+        Assert.assertEquals(102, timestamp(snapshot, 2));
+    }
+
+    @Test
+    public void testOldestRowsAreOverwritten() throws Exception {
+        SampleRing ring = new SampleRing(4);
+        for (long timestamp = 100; timestamp < 110; timestamp++) {
+            ring.add(timestamp, row(timestamp));
+        }
+        Assert.assertEquals(4, ring.size());
+        Assert.assertEquals(4, ring.capacity());
+        JsonArray snapshot = ring.snapshot(0);
+        Assert.assertEquals(4, snapshot.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(106 + i, timestamp(snapshot, i));
+        }
+    }
+
+    @Test
+    public void testSnapshotLeavesOutRowsBeforeWindow() throws Exception {
+        SampleRing ring = new SampleRing(10);
+        for (long timestamp = 100; timestamp < 110; timestamp++) {
+            ring.add(timestamp, row(timestamp));
+        }
+        JsonArray snapshot = ring.snapshot(107);
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(107, timestamp(snapshot, 0));
+        Assert.assertEquals(10, ring.size());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        SampleRing ring = new SampleRing(3);
+        ring.add(1, row(1));
+        ring.clear();
+        Assert.assertEquals(0, ring.size());
+        Assert.assertEquals(0, ring.snapshot(0).size());
+        ring.add(2, row(2));
+        Assert.assertEquals(2, timestamp(ring.snapshot(0), 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() throws Exception {
+        new SampleRing(0);
+    }
+}
@@ -0,0 +1,201 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class SegmentLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String... segments) throws Exception {
+        SegmentLog log = new SegmentLog(file);
+        for (String segment : segments) {
+            byte[] data = segment.getBytes();
+            log.write(data, 0, data.length);
+        }
+        log.close();
+    }
+
+    private static String read(File file) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentLog.readSegments(file, output);
+        return output.toString();
+    }
+
+    @Test
+    public void testSegmentsAreReadBack() throws Exception {
+        File file = folder.newFile("log");
+        write(file, "[1,2,3]\r\n", "[4,5,6]\r\n");
+        write(file, "[7,8,9]\r\n");
+        Assert.assertEquals("[1,2,3]\r\n[4,5,6]\r\n[7,8,9]\r\n", read(file));
+    }
+
+    @Test
+    public void testLengthFollowsWrites() throws Exception {
+        File file = folder.newFile("log");
+        SegmentLog log = new SegmentLog(file);
+        Assert.assertEquals(0, log.length());
+        byte[] data = "[1,2,3]\r\n".getBytes();
+        log.write(data, 0, data.length);
+        log.write(data, 0, 0);
+        log.close();
+        Assert.assertEquals(file.length(), log.length());
+        Assert.assertTrue(log.length() > 16);
+    }
+
+    @Test
+    public void testSingleSegmentIsReadAtOffset() throws Exception {
+        File file = folder.newFile("log");
+        write(file, "[1,2,3]\r\n");
+        long offset = file.length();
+        write(file, "[4,5,6]\r\n", "[7,8,9]\r\n");
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        Assert.assertEquals("[4,5,6]\r\n", new String(SegmentLog.readSegment(access, offset)));
+        Assert.assertEquals("[1,2,3]\r\n", new String(SegmentLog.readSegment(access, 0)));
+        Assert.assertNull(SegmentLog.readSegment(access, offset + 1));
+        Assert.assertNull(SegmentLog.readSegment(access, file.length()));
+        access.close();
+    }
+
+    @Test
+    public void testRecoverCutsHalfWrittenSegment() throws Exception {
+        File file = folder.newFile("log");
+        write(file, "[1,2,3]\r\n", "[4,5,6]\r\n");
+        long valid = file.length();
+        write(file, "[7,8,9]\r\n");
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(file.length() - 3);
+        access.close();
+        Assert.assertEquals(valid, SegmentLog.recover(file));
+        Assert.assertEquals(valid, file.length());
+        write(file, "[10,11,12]\r\n");
+        Assert.assertEquals("[1,2,3]\r\n[4,5,6]\r\n[10,11,12]\r\n", read(file));
+    }
+
+    @Test
+    public void testRecoverCutsCorruptSegment() throws Exception {
+        File file = folder.newFile("log");
+        write(file, "[1,2,3]\r\n");
+        long valid = file.length();
+        write(file, "[4,5,6]\r\n");
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.seek(file.length() - 1);
+        int last = access.read();
+        access.seek(file.length() - 1);
+        access.write(last ^ 0xFF);
+        access.close();
+        Assert.assertEquals(valid, SegmentLog.recover(file));
+        Assert.assertEquals("[1,2,3]\r\n", read(file));
+    }
+
+    @Test
+    public void testRecoverSalvagesUnfinishedZip() throws Exception {
+        File file = folder.newFile("log");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        zip.putNextEntry(new ZipEntry("log"));
+        // Enough data for the deflater to have written some of it, but never closed, like the zip
+        // stream of a killed process
+        for (int i = 0; i < 50000; i++) {
+            zip.write(("[" + i + "," + (i * 7919 % 10007) + "]\r\n").getBytes());
+        }
+        zip.flush();
+        Assert.assertTrue(SegmentLog.recover(file) > 0);
+        String salvaged = read(file);
+        Assert.assertTrue(salvaged.startsWith("[0,0]\r\n[1,7919]\r\n"));
+        Assert.assertTrue(salvaged.endsWith("\n"));
+    }
+
+    @Test
+    public void testLargeWriteIsSplitIntoSegments() throws Exception {
+        File file = folder.newFile("log");
+        byte[] data = new byte[SegmentLog.MAX_SEGMENT_DATA * 2 + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        SegmentLog log = new SegmentLog(file);
+        log.write(data, 0, data.length);
+        log.close();
+        Assert.assertEquals(file.length(), SegmentLog.recover(file));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(data.length, SegmentLog.readSegments(file, output));
+        Assert.assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOversizeSingleSegmentFails() throws Exception {
+        SegmentLog log = new SegmentLog(folder.newFile("log"));
+        try {
+            log.writeSegment(new byte[SegmentLog.MAX_SEGMENT_DATA + 1], 0, SegmentLog.MAX_SEGMENT_DATA + 1);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testRecoverSalvagesZipLargerThanOneSegment() throws Exception {
+        File file = folder.newFile("log");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        zip.putNextEntry(new ZipEntry("log"));
+        long written = 0;
+        int rows = 0;
+        while (written < SegmentLog.MAX_SEGMENT_DATA * 2L) {
+            byte[] row = ("[" + rows + "," + (rows * 7919 % 10007) + "]\r\n").getBytes();
+            zip.write(row);
+            written += row.length;
+            rows++;
+        }
+        zip.close();
+        Assert.assertTrue(SegmentLog.recover(file) > 0);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(written, SegmentLog.readSegments(file, output));
+        Assert.assertTrue(output.toString().endsWith("[" + (rows - 1) + "," + ((rows - 1) * 7919 % 10007) + "]\r\n"));
+    }
+
+    @Test
+    public void testRecoverOfMissingOrEmptyLog() throws Exception {
+        Assert.assertEquals(0, SegmentLog.recover(new File(folder.getRoot(), "missing")));
+        Assert.assertEquals(0, SegmentLog.recover(folder.newFile("empty")));
+    }
+
+    @Test
+    public void testToZipWritesSingleEntry() throws Exception {
+        File file = folder.newFile("Accelerometer");
+        write(file, "[1,2,3]\r\n", "[4,5,6]\r\n");
+        File zip = new File(folder.getRoot(), "Accelerometer.zip");
+        Assert.assertTrue(SegmentLog.toZip(file, zip, "Accelerometer"));
+        ZipInputStream input = new ZipInputStream(new FileInputStream(zip));
+        Assert.assertEquals("Accelerometer", input.getNextEntry().getName());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        Assert.assertNull(input.getNextEntry());
+        input.close();
+        Assert.assertEquals("[1,2,3]\r\n[4,5,6]\r\n", output.toString());
+    }
+
+    @Test
+    public void testToZipOfEmptyLog() throws Exception {
+        File zip = new File(folder.getRoot(), "empty.zip");
+        Assert.assertFalse(SegmentLog.toZip(folder.newFile("empty"), zip, "empty"));
+        Assert.assertFalse(zip.exists());
+    }
+}
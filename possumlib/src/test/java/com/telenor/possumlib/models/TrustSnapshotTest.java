@@ -0,0 +1,85 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.DetectorType;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class TrustSnapshotTest {
+    private static String response(float combined) {
+        JsonObject object = new JsonObject();
+        object.add("trustscore", entry(combined, "OK"));
+        JsonObject sensors = new JsonObject();
+        for (int i = 0; i < TrustSnapshot.DETECTORS.length; i++) {
+            sensors.add(TrustSnapshot.DETECTORS[i], entry(i * 0.1f, i == 0 ? "TRAINING" : "OK"));
+        }
+        object.add("sensors", sensors);
+        return object.toString();
+    }
+
+    private static JsonObject entry(float score, String status) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("score", score);
+        entry.addProperty("status", status);
+        return entry;
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        TrustSnapshot snapshot = TrustSnapshot.parse(response(0.75f), 1, 1000);
+        Assert.assertEquals(0.75f, snapshot.combinedScore(), 0);
+        Assert.assertEquals("OK", snapshot.combinedStatus());
+        Assert.assertEquals(0.75f, snapshot.score("trustscore"), 0);
+        Assert.assertEquals("TRAINING", snapshot.status("accelerometer"));
+        Assert.assertEquals(0.2f, snapshot.score("sound"), 0.0001f);
+        Assert.assertEquals(1000, snapshot.receivedAt());
+        Assert.assertEquals(TrustSnapshot.DETECTORS.length, snapshot.size());
+        Assert.assertEquals(DetectorType.Accelerometer, snapshot.detectorTypeAt(0));
+        Assert.assertEquals(DetectorType.Audio, snapshot.detectorTypeAt(2));
+        Assert.assertEquals("OK", snapshot.statusAt(2));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMissingDetectorFails() throws Exception {
+        JsonObject object = new JsonObject();
+        object.add("trustscore", entry(0.5f, "OK"));
+        object.add("sensors", new JsonObject());
+        TrustSnapshot.parse(object.toString(), 1, 0);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMalformedFails() throws Exception {
+        TrustSnapshot.parse("[1,2,3]", 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDetectorFails() throws Exception {
+        TrustSnapshot.EMPTY.score("magnetometer");
+    }
+
+    @Test
+    public void testNewer() throws Exception {
+        TrustSnapshot first = TrustSnapshot.parse(response(0.1f), 1, 0);
+        TrustSnapshot second = TrustSnapshot.parse(response(0.2f), 2, 0);
+        Assert.assertTrue(first.isNewerThan(TrustSnapshot.EMPTY));
+        Assert.assertTrue(second.isNewerThan(first));
+        Assert.assertFalse(first.isNewerThan(second));
+    }
+
+    @Test
+    public void testToJsonKeepsTheResponseShape() throws Exception {
+        JsonObject empty = TrustSnapshot.EMPTY.toJson();
+        for (String detector : TrustSnapshot.DETECTORS) {
+            Assert.assertEquals("OK", empty.getAsJsonObject(detector).get("status").getAsString());
+            Assert.assertEquals(0, empty.getAsJsonObject(detector).get("score").getAsFloat(), 0);
+        }
+        JsonObject json = TrustSnapshot.parse(response(0.5f), 1, 0).toJson();
+        Assert.assertEquals(0.5f, json.getAsJsonObject("trustscore").get("score").getAsFloat(), 0);
+        Assert.assertEquals("TRAINING", json.getAsJsonObject("accelerometer").get("status").getAsString());
+    }
+}
@@ -0,0 +1,125 @@
+package com.telenor.possumlib.tensorflowtests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.tensorflow.GraphNodes;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class GraphNodesTest {
+    private static void varint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void bytes(ByteArrayOutputStream out, int field, byte[] value) {
+        varint(out, (field << 3) | 2);
+        varint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void string(ByteArrayOutputStream out, int field, String value) throws Exception {
+        bytes(out, field, value.getBytes("UTF-8"));
+    }
+
+    private static byte[] attr(String key, byte[] value) throws Exception {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        string(entry, 1, key);
+        bytes(entry, 2, value);
+        return entry.toByteArray();
+    }
+
+    private static byte[] dtype(int type) {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        varint(value, 6 << 3);
+        varint(value, type);
+        return value.toByteArray();
+    }
+
+    private static byte[] shape(int rank) {
+        ByteArrayOutputStream shape = new ByteArrayOutputStream();
+        for (int i = 0; i < rank; i++) {
+            ByteArrayOutputStream dim = new ByteArrayOutputStream();
+            varint(dim, 1 << 3);
+            varint(dim, 160);
+            bytes(shape, 2, dim.toByteArray());
+        }
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        bytes(value, 7, shape.toByteArray());
+        return value.toByteArray();
+    }
+
+    private static void node(ByteArrayOutputStream graph, String name, String op, byte[][] attrs, String... inputs) throws Exception {
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        string(node, 1, name);
+        string(node, 2, op);
+        for (String input : inputs) {
+            string(node, 3, input);
+        }
+        for (byte[] attr : attrs) {
+            bytes(node, 5, attr);
+        }
+        bytes(graph, 1, node.toByteArray());
+    }
+
+    private static byte[] weights() throws Exception {
+        // A constant with a large value, which is skipped rather than read
+        return attr("value", new byte[100000]);
+    }
+
+    @Test
+    public void testFindsInputAndOutput() throws Exception {
+        ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        node(graph, "image_batch", "Placeholder", new byte[][]{attr("dtype", dtype(1)), attr("shape", shape(4))});
+        node(graph, "weights", "Const", new byte[][]{weights()});
+        node(graph, "conv", "Conv2D", new byte[0][], "image_batch", "weights");
+        node(graph, "l2", "L2Normalize", new byte[0][], "conv:0", "^weights");
+        GraphNodes nodes = GraphNodes.read(new ByteArrayInputStream(graph.toByteArray()));
+        Assert.assertEquals("image_batch", nodes.inputNode());
+        Assert.assertEquals("l2", nodes.outputNode());
+        Assert.assertTrue(nodes.isBatchable());
+    }
+
+    @Test
+    public void testPrefersRankFourFloatInputAndNamedOutput() throws Exception {
+        ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        node(graph, "scale", "Placeholder", new byte[][]{attr("dtype", dtype(1)), attr("shape", shape(0))});
+        node(graph, "input", "Placeholder", new byte[][]{attr("dtype", dtype(1)), attr("shape", shape(4))});
+        node(graph, "embeddings", "Mul", new byte[0][], "input", "scale");
+        node(graph, "logits", "MatMul", new byte[0][], "input");
+        GraphNodes nodes = GraphNodes.read(new ByteArrayInputStream(graph.toByteArray()));
+        Assert.assertEquals("input", nodes.inputNode());
+        Assert.assertEquals("embeddings", nodes.outputNode());
+        // The scale placeholder would need a value
+        Assert.assertFalse(nodes.isBatchable());
+    }
+
+    @Test
+    public void testAmbiguousOutputIsNotBatchable() throws Exception {
+        ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        node(graph, "input", "Placeholder", new byte[][]{attr("dtype", dtype(1))});
+        node(graph, "a", "Relu", new byte[0][], "input");
+        node(graph, "b", "Relu", new byte[0][], "input");
+        GraphNodes nodes = GraphNodes.read(new ByteArrayInputStream(graph.toByteArray()));
+        Assert.assertEquals("input", nodes.inputNode());
+        Assert.assertNull(nodes.outputNode());
+        Assert.assertFalse(nodes.isBatchable());
+    }
+
+    @Test(expected = java.io.EOFException.class)
+    public void testTruncatedGraphFails() throws Exception {
+        ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        node(graph, "weights", "Const", new byte[][]{weights()});
+        byte[] truncated = new byte[graph.size() / 2];
+        System.arraycopy(graph.toByteArray(), 0, truncated, 0, truncated.length);
+        GraphNodes.read(new ByteArrayInputStream(truncated));
+    }
+}
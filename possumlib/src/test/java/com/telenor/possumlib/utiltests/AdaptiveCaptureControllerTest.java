@@ -0,0 +1,65 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.face.AdaptiveCaptureController;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class AdaptiveCaptureControllerTest {
+    private AdaptiveCaptureController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        controller = new AdaptiveCaptureController(3, 1000);
+    }
+
+    @Test
+    public void testStartsIdle() throws Exception {
+        Assert.assertEquals(AdaptiveCaptureController.MODE_IDLE, controller.mode());
+        Assert.assertEquals(AdaptiveCaptureController.IDLE_FPS, controller.requestedFps());
+        Assert.assertEquals(AdaptiveCaptureController.IDLE_WIDTH, controller.previewWidth());
+        Assert.assertFalse(controller.frameProcessed(5000));
+    }
+
+    @Test
+    public void testFaceStartsBurst() throws Exception {
+        Assert.assertTrue(controller.faceSeen(100));
+        Assert.assertEquals(AdaptiveCaptureController.MODE_BURST, controller.mode());
+        Assert.assertEquals(AdaptiveCaptureController.BURST_FPS, controller.requestedFps());
+        Assert.assertEquals(AdaptiveCaptureController.BURST_HEIGHT, controller.previewHeight());
+        Assert.assertFalse(controller.faceSeen(200));
+    }
+
+    @Test
+    public void testBurstTimesOutWithoutFaces() throws Exception {
+        controller.faceSeen(100);
+        Assert.assertFalse(controller.frameProcessed(1099));
+        Assert.assertTrue(controller.frameProcessed(1100));
+        Assert.assertEquals(AdaptiveCaptureController.MODE_IDLE, controller.mode());
+    }
+
+    @Test
+    public void testDoneAfterEnoughSamples() throws Exception {
+        controller.faceSeen(100);
+        Assert.assertFalse(controller.sampleAccepted());
+        Assert.assertFalse(controller.sampleAccepted());
+        Assert.assertTrue(controller.sampleAccepted());
+        Assert.assertEquals(AdaptiveCaptureController.MODE_DONE, controller.mode());
+        Assert.assertFalse(controller.faceSeen(200));
+        Assert.assertFalse(controller.frameProcessed(5000));
+        Assert.assertEquals(3, controller.samples());
+    }
+
+    @Test
+    public void testResetStartsNewSession() throws Exception {
+        controller.faceSeen(100);
+        controller.sampleAccepted();
+        controller.reset();
+        Assert.assertEquals(AdaptiveCaptureController.MODE_IDLE, controller.mode());
+        Assert.assertEquals(0, controller.samples());
+    }
+}
@@ -0,0 +1,101 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonArray;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.BufferedAppender;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class BufferedAppenderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<JsonArray> rows(int... values) {
+        List<JsonArray> rows = new ArrayList<>();
+        for (int value : values) {
+            JsonArray row = new JsonArray();
+            row.add(value);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String read(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        Assert.assertEquals(data.length, input.read(data));
+        input.close();
+        return new String(data, "UTF-8");
+    }
+
+    @Test
+    public void testRowsAreBufferedUntilInterval() throws Exception {
+        File file = new File(folder.getRoot(), "Gesture");
+        BufferedAppender appender = new BufferedAppender(file, 1024, 1000);
+        // The first group is written right away
+        appender.append(rows(1), 5000);
+        Assert.assertEquals("[1]\r\n", read(file));
+        appender.append(rows(2), 5500);
+        appender.append(rows(3), 5999);
+        Assert.assertEquals("[1]\r\n", read(file));
+        Assert.assertEquals(10, appender.pendingBytes());
+        appender.append(rows(4), 6000);
+        Assert.assertEquals("[1]\r\n[2]\r\n[3]\r\n[4]\r\n", read(file));
+        Assert.assertEquals(0, appender.pendingBytes());
+        appender.close();
+    }
+
+    @Test
+    public void testRowsAreWrittenOnSize() throws Exception {
+        File file = new File(folder.getRoot(), "Gesture");
+        BufferedAppender appender = new BufferedAppender(file, 10, 1000);
+        appender.append(rows(1), 5000);
+        appender.append(rows(2), 5001);
+        Assert.assertEquals(5, file.length());
+        appender.append(rows(3), 5002);
+        Assert.assertEquals(15, file.length());
+        appender.close();
+    }
+
+    @Test
+    public void testCloseWritesPendingRows() throws Exception {
+        File file = new File(folder.getRoot(), "Gesture");
+        BufferedAppender appender = new BufferedAppender(file, 1024, 1000);
+        appender.append(rows(1), 5000);
+        appender.append(rows(2, 3), 5001);
+        appender.close();
+        Assert.assertEquals("[1]\r\n[2]\r\n[3]\r\n", read(file));
+    }
+
+    @Test
+    public void testMovedFileIsStartedAgain() throws Exception {
+        File file = new File(folder.getRoot(), "Gesture");
+        BufferedAppender appender = new BufferedAppender(file, 1, 1000);
+        appender.append(rows(1), 5000);
+        File moved = new File(folder.getRoot(), "Gesture.moved");
+        Assert.assertTrue(file.renameTo(moved));
+        appender.append(rows(2), 5001);
+        appender.close();
+        Assert.assertEquals("[1]\r\n", read(moved));
+        Assert.assertEquals("[2]\r\n", read(file));
+    }
+
+    @Test
+    public void testNothingWrittenWithoutRows() throws Exception {
+        File file = new File(folder.getRoot(), "Gesture");
+        BufferedAppender appender = new BufferedAppender(file, 1024, 1000);
+        appender.flush();
+        appender.close();
+        Assert.assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,181 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.codec.CodecReport;
+import com.telenor.possumlib.utils.codec.Codecs;
+import com.telenor.possumlib.utils.codec.MotionCodec;
+import com.telenor.possumlib.utils.codec.VarInt;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipInputStream;
+
+@RunWith(PossumTestRunner.class)
+public class CodecsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JsonArray row(String... values) {
+        JsonArray row = new JsonArray();
+        for (String value : values) {
+            row.add(new JsonPrimitive(value));
+        }
+        return row;
+    }
+
+    /**
+     * Accelerometer like rows, 20 Hz with a little jitter and noise around gravity
+     */
+    private static List<JsonArray> motionRows(int count) {
+        Random random = new Random(42);
+        List<JsonArray> rows = new ArrayList<>();
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += 50 + random.nextInt(3) - 1;
+            rows.add(row("" + timestamp,
+                    "" + (0.1f + random.nextInt(20) * 0.01f),
+                    "" + (9.8f + random.nextInt(10) * 0.01f),
+                    "" + (i % 10 == 0 ? 0.5f : 0.25f)));
+        }
+        return rows;
+    }
+
+    private static List<JsonArray> scanRows(int scans) {
+        List<JsonArray> rows = new ArrayList<>();
+        long timestamp = 1500000000000L;
+        for (int scan = 0; scan < scans; scan++) {
+            timestamp += 30000;
+            for (int network = 0; network < 8; network++) {
+                rows.add(row("" + timestamp, "a4:2b:b0:c1:0" + network + ":" + (10 + network), "" + (-40 - network * 5 - scan % 3)));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void testVarInt() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long[] values = {0, 1, -1, 63, -64, 300, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            VarInt.writeSigned(output, value);
+        }
+        ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+        for (long value : values) {
+            Assert.assertEquals(value, VarInt.readSigned(input));
+        }
+        Assert.assertEquals(-1, input.read());
+    }
+
+    @Test
+    public void testMotionRoundTrip() throws Exception {
+        List<JsonArray> rows = motionRows(1000);
+        CodecReport report = CodecReport.measure(Codecs.MOTION, rows);
+        Assert.assertTrue("Ratio was " + report.ratio(), report.ratio() > 3);
+        Assert.assertEquals(MotionCodec.NAME, report.codec());
+        Assert.assertTrue(report.encodeThroughput() > 0);
+        Assert.assertTrue(report.decodeThroughput() > 0);
+    }
+
+    @Test
+    public void testMotionSpecialFloats() throws Exception {
+        List<JsonArray> rows = new ArrayList<>();
+        rows.add(row("1", "" + Float.NaN, "" + Float.MAX_VALUE, "-0.0"));
+        rows.add(row("2", "" + Float.NEGATIVE_INFINITY, "" + Float.MIN_VALUE, "0.0"));
+        rows.add(row("-5", "1.0E-5", "-3.4028235E38", "0.0"));
+        CodecReport.measure(Codecs.MOTION, rows);
+    }
+
+    @Test
+    public void testScanRoundTrip() throws Exception {
+        CodecReport report = CodecReport.measure(Codecs.SCAN, scanRows(50));
+        Assert.assertTrue("Ratio was " + report.ratio(), report.ratio() > 4);
+    }
+
+    @Test
+    public void testTextRoundTrip() throws Exception {
+        List<JsonArray> rows = new ArrayList<>();
+        rows.add(row("1", "down", "3.5"));
+        rows.add(row("2", "up"));
+        CodecReport report = CodecReport.measure(Codecs.TEXT, rows);
+        Assert.assertEquals(1.0, report.ratio(), 0.0001);
+    }
+
+    @Test
+    public void testEmptyBlocks() throws Exception {
+        CodecReport.measure(Codecs.MOTION, new ArrayList<JsonArray>());
+        CodecReport.measure(Codecs.SCAN, new ArrayList<JsonArray>());
+    }
+
+    @Test
+    public void testUnsuitableRowsAreRejected() throws Exception {
+        List<List<JsonArray>> unsuitable = new ArrayList<>();
+        List<JsonArray> rows = new ArrayList<>();
+        // Would come back as 1.5
+        rows.add(row("1", "1.50", "2.0", "3.0"));
+        unsuitable.add(rows);
+        rows = new ArrayList<>();
+        rows.add(row("1", "1.0", "2.0", "3.0"));
+        rows.add(row("2", "1.0", "2.0"));
+        unsuitable.add(rows);
+        rows = new ArrayList<>();
+        JsonArray numbers = new JsonArray();
+        numbers.add(new JsonPrimitive(1));
+        numbers.add(new JsonPrimitive(1.0f));
+        rows.add(numbers);
+        unsuitable.add(rows);
+        for (List<JsonArray> candidate : unsuitable) {
+            try {
+                Codecs.encode(Codecs.MOTION, candidate);
+                Assert.fail("Should not encode " + candidate);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+        rows = new ArrayList<>();
+        rows.add(row("1", "a", "-40"));
+        rows.add(row("2", "b", "strong"));
+        try {
+            Codecs.encode(Codecs.SCAN, rows);
+            Assert.fail("Should not encode " + rows);
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void testBlocksFollowEachOther() throws Exception {
+        List<JsonArray> first = motionRows(10);
+        List<JsonArray> second = motionRows(7);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Codecs.MOTION.encode(first, output);
+        Codecs.MOTION.encode(second, output);
+        List<JsonArray> all = new ArrayList<>(first);
+        all.addAll(second);
+        Assert.assertEquals(all, Codecs.decodeAll(Codecs.MOTION, new ByteArrayInputStream(output.toByteArray())));
+    }
+
+    @Test
+    public void testEncodeToZip() throws Exception {
+        List<JsonArray> rows = scanRows(1000);
+        byte[] text = Codecs.encode(Codecs.TEXT, rows);
+        File zip = new File(folder.getRoot(), "network.zip");
+        CodecReport report = Codecs.encodeToZip(Codecs.SCAN, new ByteArrayInputStream(text), zip, "network");
+        Assert.assertTrue(report.encodedBytes() > 0);
+        Assert.assertTrue(report.encodedBytes() < text.length);
+        ZipInputStream input = new ZipInputStream(new FileInputStream(zip));
+        Assert.assertEquals("network.scan", input.getNextEntry().getName());
+        Assert.assertEquals(rows, Codecs.decodeAll(Codecs.SCAN, input));
+        input.close();
+    }
+}
@@ -0,0 +1,81 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonArray;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.face.EmbeddingAggregator;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class EmbeddingAggregatorTest {
+    private EmbeddingAggregator aggregator;
+
+    @Before
+    public void setUp() throws Exception {
+        aggregator = new EmbeddingAggregator(2, 2);
+    }
+
+    @Test
+    public void testEmptySummary() throws Exception {
+        Assert.assertEquals(0, aggregator.toJson().size());
+        Assert.assertEquals(0, aggregator.variance(0), 0);
+    }
+
+    @Test
+    public void testWeightedMeanAndVariance() throws Exception {
+        aggregator.add(new float[]{1, 4}, 1, 10);
+        aggregator.add(new float[]{3, 4}, 3, 20);
+        Assert.assertEquals(2, aggregator.count());
+        Assert.assertEquals(2.5, aggregator.mean(0), 0.0001);
+        Assert.assertEquals(4, aggregator.mean(1), 0.0001);
+        // (1 * 1.5^2 + 3 * 0.5^2) / 4
+        Assert.assertEquals(0.75, aggregator.variance(0), 0.0001);
+        Assert.assertEquals(0, aggregator.variance(1), 0.0001);
+    }
+
+    @Test
+    public void testKeepsBestEmbeddings() throws Exception {
+        aggregator.add(new float[]{1, 1}, 0.2f, 10);
+        aggregator.add(new float[]{2, 2}, 0.9f, 20);
+        aggregator.add(new float[]{3, 3}, 0.5f, 30);
+        aggregator.add(new float[]{4, 4}, 0.1f, 40);
+        JsonArray summary = aggregator.toJson();
+        // summary, mean, variance and the two best embeddings
+        Assert.assertEquals(5, summary.size());
+        Assert.assertEquals("summary", summary.get(0).getAsJsonArray().get(0).getAsString());
+        Assert.assertEquals(4, summary.get(0).getAsJsonArray().get(1).getAsInt());
+        Assert.assertEquals(20, summary.get(3).getAsJsonArray().get(0).getAsLong());
+        Assert.assertEquals(30, summary.get(4).getAsJsonArray().get(0).getAsLong());
+        Assert.assertEquals(4, summary.get(4).getAsJsonArray().size());
+    }
+
+    @Test
+    public void testTopEmbeddingsAreCopiesAboveQuality() throws Exception {
+        aggregator.add(new float[]{1, 1}, 0.2f, 10);
+        aggregator.add(new float[]{2, 2}, 0.9f, 20);
+        List<float[]> top = aggregator.topEmbeddings(0.5f);
+        Assert.assertEquals(1, top.size());
+        Assert.assertArrayEquals(new float[]{2, 2}, top.get(0), 0);
+        top.get(0)[0] = 5;
+        Assert.assertArrayEquals(new float[]{2, 2}, aggregator.topEmbeddings(0.5f).get(0), 0);
+        Assert.assertEquals(2, aggregator.topEmbeddings(0).size());
+    }
+
+    @Test
+    public void testResetForgetsEverything() throws Exception {
+        aggregator.add(new float[]{1, 1}, 1, 10);
+        aggregator.reset();
+        Assert.assertEquals(0, aggregator.count());
+        Assert.assertEquals(0, aggregator.toJson().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSizeThrows() throws Exception {
+        aggregator.add(new float[]{1, 2, 3}, 1, 10);
+    }
+}
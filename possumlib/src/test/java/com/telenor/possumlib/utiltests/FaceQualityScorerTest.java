@@ -0,0 +1,78 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.face.FaceQualityScorer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+@RunWith(PossumTestRunner.class)
+public class FaceQualityScorerTest {
+    private static final int width = 320;
+    private static final int height = 240;
+    private FaceQualityScorer scorer;
+
+    @Before
+    public void setUp() throws Exception {
+        scorer = new FaceQualityScorer();
+    }
+
+    private static ByteBuffer checkerboard(int dark, int light) {
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                luma[y * width + x] = (byte) (((x / 3 + y / 3) % 2 == 0) ? dark : light);
+            }
+        }
+        return ByteBuffer.wrap(luma);
+    }
+
+    private static ByteBuffer flat(int value) {
+        byte[] luma = new byte[width * height];
+        java.util.Arrays.fill(luma, (byte) value);
+        return ByteBuffer.wrap(luma);
+    }
+
+    @Test
+    public void testSharpFaceAccepted() throws Exception {
+        int result = scorer.score(checkerboard(60, 200), width, height, 0, 100, 50, 120, 120, 0, 0, 40);
+        Assert.assertEquals(FaceQualityScorer.ACCEPTED, result);
+        Assert.assertTrue(scorer.lastQuality() > 0);
+        Assert.assertEquals(1, scorer.count(FaceQualityScorer.ACCEPTED));
+    }
+
+    @Test
+    public void testRotatedFrameAccepted() throws Exception {
+        int result = scorer.score(checkerboard(60, 200), width, height, 3, 50, 100, 120, 120, 0, 0, 40);
+        Assert.assertEquals(FaceQualityScorer.ACCEPTED, result);
+    }
+
+    @Test
+    public void testPoseRejected() throws Exception {
+        Assert.assertEquals(FaceQualityScorer.REJECTED_POSE, scorer.score(checkerboard(60, 200), width, height, 0, 100, 50, 120, 120, 35, 0, 40));
+        Assert.assertEquals(FaceQualityScorer.REJECTED_POSE, scorer.score(checkerboard(60, 200), width, height, 0, 100, 50, 120, 120, 0, -20, 40));
+        Assert.assertEquals(2, scorer.count(FaceQualityScorer.REJECTED_POSE));
+        Assert.assertEquals(0f, scorer.lastQuality(), 0);
+    }
+
+    @Test
+    public void testSmallFaceRejected() throws Exception {
+        Assert.assertEquals(FaceQualityScorer.REJECTED_SIZE, scorer.score(checkerboard(60, 200), width, height, 0, 100, 50, 120, 120, 0, 0, 10));
+    }
+
+    @Test
+    public void testDarkAndBrightRejected() throws Exception {
+        Assert.assertEquals(FaceQualityScorer.REJECTED_DARK, scorer.score(flat(10), width, height, 0, 100, 50, 120, 120, 0, 0, 40));
+        Assert.assertEquals(FaceQualityScorer.REJECTED_BRIGHT, scorer.score(flat(250), width, height, 0, 100, 50, 120, 120, 0, 0, 40));
+    }
+
+    @Test
+    public void testBlurRejected() throws Exception {
+        Assert.assertEquals(FaceQualityScorer.REJECTED_BLUR, scorer.score(flat(128), width, height, 0, 100, 50, 120, 120, 0, 0, 40));
+        Assert.assertEquals(1, scorer.toJson().get("blur").getAsInt());
+    }
+}
@@ -0,0 +1,87 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.face.FaceTemplateStore;
+import com.telenor.possumlib.utils.face.FaceVerifier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(PossumTestRunner.class)
+public class FaceTemplateStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File directory;
+    private FaceTemplateStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(folder.getRoot(), "templates");
+        store = new FaceTemplateStore(directory, 2);
+    }
+
+    @Test
+    public void testEmptyUser() throws Exception {
+        Assert.assertEquals(0, store.count("user"));
+        Assert.assertEquals(0, store.templates("user").length);
+        Assert.assertEquals(-1, new FaceVerifier(store).score("user", new float[]{1, 0}), 0);
+    }
+
+    @Test
+    public void testTemplatesAreNormalizedAndPersisted() throws Exception {
+        Assert.assertTrue(store.add("user", new float[]{3, 4}));
+        Assert.assertTrue(store.add("user", new float[]{0, 2}));
+        Assert.assertTrue(store.isFull("user"));
+        FaceTemplateStore reloaded = new FaceTemplateStore(directory, 2);
+        Assert.assertEquals(2, reloaded.count("user"));
+        Assert.assertEquals(2, reloaded.templateSize("user"));
+        Assert.assertArrayEquals(new float[]{0.6f, 0.8f, 0, 1}, reloaded.templates("user"), 0.0001f);
+    }
+
+    @Test
+    public void testVerifierFindsBestTemplate() throws Exception {
+        store.add("user", new float[]{1, 0});
+        store.add("user", new float[]{0, 1});
+        FaceVerifier verifier = new FaceVerifier(store);
+        Assert.assertEquals(1, verifier.score("user", new float[]{0, 5}), 0.0001);
+        Assert.assertEquals((float) Math.sqrt(0.5), verifier.score("user", new float[]{1, 1}), 0.0001);
+        // Opposite faces are clamped to 0
+        Assert.assertEquals(0, verifier.score("user", new float[]{-1, -1}), 0.0001);
+        // Embeddings of another size are not compared
+        Assert.assertEquals(-1, verifier.score("user", new float[]{1, 1, 1}), 0);
+    }
+
+    @Test
+    public void testFullUserReplacesOldest() throws Exception {
+        store.add("user", new float[]{3, 4});
+        store.add("user", new float[]{0, 2});
+        Assert.assertTrue(store.add("user", new float[]{2, 0}));
+        Assert.assertEquals(2, store.count("user"));
+        Assert.assertArrayEquals(new float[]{0, 1, 1, 0}, store.templates("user"), 0.0001f);
+        Assert.assertArrayEquals(new float[]{0, 1, 1, 0}, new FaceTemplateStore(directory, 2).templates("user"), 0.0001f);
+    }
+
+    @Test
+    public void testClearByAnotherStoreIsSeen() throws Exception {
+        store.add("user", new float[]{1, 0});
+        Assert.assertEquals(1, store.count("user"));
+        // As when the app process clears what the collecting process enrolled
+        new FaceTemplateStore(directory, 2).clearAll();
+        Assert.assertEquals(0, store.count("user"));
+        Assert.assertEquals(0, store.templates("user").length);
+    }
+
+    @Test
+    public void testClearRemovesTemplates() throws Exception {
+        store.add("user", new float[]{1, 0});
+        store.clear("user");
+        Assert.assertEquals(0, store.count("user"));
+        Assert.assertEquals(0, new FaceTemplateStore(directory, 2).count("user"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.PendingTransfers;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+
+@RunWith(PossumTestRunner.class)
+public class PendingTransfersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File stateFile;
+
+    @Before
+    public void setUp() throws Exception {
+        stateFile = new File(folder.getRoot(), "uploadTransfers");
+    }
+
+    @Test
+    public void testTransfersSurviveRestart() throws Exception {
+        File first = new File(folder.getRoot(), "possumlibdata#1.0#Image#user#1.zip");
+        File second = new File(folder.getRoot(), "consent#user");
+        PendingTransfers transfers = new PendingTransfers(stateFile);
+        transfers.started(7, first);
+        transfers.started(3, second);
+        transfers.finished(7);
+        transfers.finished(42);
+        Map<Integer, File> reloaded = new PendingTransfers(stateFile).all();
+        Assert.assertEquals(1, reloaded.size());
+        Assert.assertEquals(second.getAbsoluteFile(), reloaded.get(3));
+    }
+
+    @Test
+    public void testUnreadableStateStartsOver() throws Exception {
+        File file = new File(folder.getRoot(), "consent#user");
+        PendingTransfers transfers = new PendingTransfers(stateFile);
+        transfers.started(1, file);
+        FileWriter writer = new FileWriter(stateFile, true);
+        writer.write("x broken\n");
+        writer.close();
+        Assert.assertTrue(new PendingTransfers(stateFile).all().isEmpty());
+    }
+}
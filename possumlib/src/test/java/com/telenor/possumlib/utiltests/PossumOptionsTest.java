@@ -0,0 +1,48 @@
+package com.telenor.possumlib.utiltests;
+
+import android.content.Intent;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.utils.PossumOptions;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class PossumOptionsTest {
+    @After
+    public void tearDown() throws Exception {
+        PossumOptions.readFrom(options(false));
+    }
+
+    private static Intent options(boolean enabled) {
+        Intent intent = new Intent();
+        intent.putExtra(Constants.STREAMING_AUTH, enabled);
+        intent.putExtra(Constants.SUMMARY_FACE_AUTH, enabled);
+        intent.putExtra(Constants.ENCODED_UPLOADS, enabled);
+        return intent;
+    }
+
+    @Test
+    public void testOffByDefault() throws Exception {
+        PossumOptions.readFrom(new Intent());
+        Assert.assertFalse(PossumOptions.streamingAuth());
+        Assert.assertFalse(PossumOptions.summaryFaceAuth());
+        Assert.assertFalse(PossumOptions.encodedUploads());
+    }
+
+    @Test
+    public void testOptionsAreKeptWhenNotInIntent() throws Exception {
+        PossumOptions.readFrom(options(true));
+        Assert.assertTrue(PossumOptions.streamingAuth());
+        PossumOptions.readFrom(new Intent());
+        Assert.assertTrue(PossumOptions.streamingAuth());
+        Assert.assertTrue(PossumOptions.summaryFaceAuth());
+        Assert.assertTrue(PossumOptions.encodedUploads());
+        PossumOptions.readFrom(options(false));
+        Assert.assertFalse(PossumOptions.streamingAuth());
+    }
+}
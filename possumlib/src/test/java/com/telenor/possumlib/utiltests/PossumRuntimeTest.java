@@ -0,0 +1,139 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.interfaces.ITaskCallback;
+import com.telenor.possumlib.utils.PossumRuntime;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(PossumTestRunner.class)
+public class PossumRuntimeTest {
+    private static final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        PossumRuntime.shutdown();
+    }
+
+    @Test
+    public void testPoolsAreBoundedAndNamed() throws Exception {
+        ExecutorService[] pools = {PossumRuntime.io(), PossumRuntime.compute(), PossumRuntime.network()};
+        String[] names = {"possum-io-", "possum-compute-", "possum-network-"};
+        for (int i = 0; i < pools.length; i++) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) pools[i];
+            Assert.assertTrue(pool.getMaximumPoolSize() <= 4);
+            Assert.assertTrue(pool.allowsCoreThreadTimeOut());
+            String name = pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return Thread.currentThread().getName();
+                }
+            }).get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(name, name.startsWith(names[i]));
+        }
+    }
+
+    @Test
+    public void testCallbackGetsResult() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<>();
+        Future<String> future = PossumRuntime.submit(PossumRuntime.compute(), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "done";
+            }
+        }, new ITaskCallback<String>() {
+            @Override
+            public void taskDone(String value) {
+                result.set(value);
+                latch.countDown();
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                latch.countDown();
+            }
+        }, direct);
+        Assert.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("done", result.get());
+    }
+
+    @Test
+    public void testCallbackGetsFailure() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        PossumRuntime.submit(PossumRuntime.network(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("failed");
+            }
+        }, new ITaskCallback<Void>() {
+            @Override
+            public void taskDone(Void value) {
+                latch.countDown();
+            }
+
+            @Override
+            public void taskFailed(Exception exception) {
+                failure.set(exception);
+                latch.countDown();
+            }
+        }, direct);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(failure.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testBlockedNetworkDoesNotHoldUpCompute() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService network = PossumRuntime.network();
+        int threads = ((ThreadPoolExecutor) network).getMaximumPoolSize();
+        for (int i = 0; i < threads; i++) {
+            network.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            });
+        }
+        Integer result = PossumRuntime.compute().submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 42;
+            }
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(42, (int) result);
+        release.countDown();
+    }
+
+    @Test
+    public void testPoolIsMadeAgainAfterShutdown() throws Exception {
+        ExecutorService io = PossumRuntime.io();
+        PossumRuntime.shutdown();
+        Assert.assertTrue(io.isShutdown());
+        ExecutorService again = PossumRuntime.io();
+        Assert.assertNotSame(io, again);
+        Assert.assertFalse(again.isShutdown());
+    }
+}
@@ -0,0 +1,37 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.utils.PreviewChannel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.shadows.ShadowSystemClock;
+
+@RunWith(PossumTestRunner.class)
+public class PreviewChannelTest {
+    @After
+    public void tearDown() throws Exception {
+        PreviewChannel.setEnabled(false);
+    }
+
+    @Test
+    public void testNoPreviewsWhenDisabled() throws Exception {
+        PreviewChannel.setEnabled(false);
+        Assert.assertFalse(PreviewChannel.wantsPreview(false));
+        Assert.assertFalse(PreviewChannel.wantsPreview(true));
+    }
+
+    @Test
+    public void testPreviewsAreRateLimitedPerKind() throws Exception {
+        PreviewChannel.setEnabled(true);
+        Assert.assertTrue(PreviewChannel.wantsPreview(false));
+        Assert.assertFalse(PreviewChannel.wantsPreview(false));
+        // Faces are limited independently of frames
+        Assert.assertTrue(PreviewChannel.wantsPreview(true));
+        ShadowSystemClock.sleep(Constants.PREVIEW_INTERVAL);
+        Assert.assertTrue(PreviewChannel.wantsPreview(false));
+    }
+}
@@ -0,0 +1,181 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.models.SampleSet;
+import com.telenor.possumlib.utils.SampleStore;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class SampleStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("Samples");
+    }
+
+    /**
+     * Gyroscope like rows, one every 10 ms
+     */
+    private static List<JsonArray> rows(long from, int count) {
+        List<JsonArray> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            JsonArray row = new JsonArray();
+            row.add(new JsonPrimitive("" + (from + i * 10)));
+            row.add(new JsonPrimitive("" + (i * 0.5f)));
+            row.add(new JsonPrimitive("" + (-i)));
+            row.add(new JsonPrimitive("0.25"));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testRangeIsReadBack() throws Exception {
+        SampleStore store = new SampleStore(directory, "gyroscope", 1024 * 1024, 100, 60000);
+        store.append(rows(1000, 1000), 0);
+        store.close();
+        SampleSet samples = SampleStore.read(directory, "gyroscope", 2000, 2500);
+        Assert.assertEquals(50, samples.size());
+        Assert.assertEquals(3, samples.columns());
+        Assert.assertEquals(2000, samples.timestamp(0));
+        Assert.assertEquals(2490, samples.timestamp(49));
+        Assert.assertEquals(50f, samples.value(0, 0), 0);
+        Assert.assertEquals(-100f, samples.value(0, 1), 0);
+        Assert.assertEquals(0.25f, samples.value(49, 2), 0);
+        Assert.assertEquals(150, samples.values().length);
+    }
+
+    @Test
+    public void testOnlyOverlappingBlocksAreRead() throws Exception {
+        SampleStore store = new SampleStore(directory, "gyroscope", 1024 * 1024, 100, 60000);
+        store.append(rows(1000, 100), 0);
+        store.append(rows(2000, 100), 0);
+        store.close();
+        // Ruin the first block, the second can still be read as only it overlaps
+        RandomAccessFile log = new RandomAccessFile(new File(directory, "gyroscope.blk"), "rw");
+        log.seek(20);
+        log.write(new byte[]{1, 2, 3, 4});
+        log.close();
+        Assert.assertEquals(100, SampleStore.read(directory, "gyroscope", 2000, 3000).size());
+        Assert.assertEquals(0, SampleStore.read(directory, "gyroscope", 1000, 2000).size());
+    }
+
+    @Test
+    public void testBlocksAreWrittenWhenFullOrOld() throws Exception {
+        SampleStore store = new SampleStore(directory, "gyroscope", 1024 * 1024, 100, 2000);
+        store.append(rows(1000, 60), 5000);
+        Assert.assertEquals(60, store.pendingRows());
+        Assert.assertEquals(0, SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE).size());
+        store.append(rows(1600, 60), 5500);
+        Assert.assertEquals(0, store.pendingRows());
+        store.append(rows(2200, 1), 6000);
+        store.append(rows(2210, 1), 8000);
+        Assert.assertEquals(0, store.pendingRows());
+        Assert.assertEquals(122, SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE).size());
+        store.close();
+    }
+
+    @Test
+    public void testOldGenerationIsKept() throws Exception {
+        SampleStore store = new SampleStore(directory, "gyroscope", 4096, 50, 60000);
+        long next = 0;
+        for (int i = 0; i < 40; i++) {
+            store.append(rows(next, 50), 0);
+            next += 500;
+        }
+        store.close();
+        Assert.assertTrue(new File(directory, "gyroscope.old.blk").exists());
+        long stored = new File(directory, "gyroscope.blk").length() + new File(directory, "gyroscope.old.blk").length();
+        Assert.assertTrue("Stored " + stored, stored <= 4096);
+        SampleSet samples = SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE);
+        Assert.assertTrue(samples.size() > 0);
+        Assert.assertTrue(samples.size() < 2000);
+        // The latest samples are the ones kept, in order
+        Assert.assertEquals(next - 10, samples.timestamp(samples.size() - 1));
+        for (int i = 1; i < samples.size(); i++) {
+            Assert.assertEquals(samples.timestamp(i - 1) + 10, samples.timestamp(i));
+        }
+    }
+
+    @Test
+    public void testHalfWrittenIndexEntryIsCut() throws Exception {
+        SampleStore store = new SampleStore(directory, "gyroscope", 1024 * 1024, 10, 60000);
+        store.append(rows(1000, 10), 0);
+        store.close();
+        File index = new File(directory, "gyroscope.idx");
+        FileOutputStream output = new FileOutputStream(index, true);
+        output.write(new byte[]{0, 0, 0});
+        output.close();
+        Assert.assertEquals(10, SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE).size());
+        store = new SampleStore(directory, "gyroscope", 1024 * 1024, 10, 60000);
+        store.append(rows(2000, 10), 0);
+        store.close();
+        Assert.assertEquals(56, index.length());
+        Assert.assertEquals(20, SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testMixedRows() throws Exception {
+        SampleStore store = new SampleStore(directory, "position", 1024 * 1024, 10, 60000);
+        List<JsonArray> rows = new ArrayList<>();
+        JsonArray row = new JsonArray();
+        row.add(new JsonPrimitive("1000"));
+        row.add(new JsonPrimitive("59.9"));
+        row.add(new JsonPrimitive("gps"));
+        rows.add(row);
+        row = new JsonArray();
+        row.add(new JsonPrimitive("no timestamp"));
+        rows.add(row);
+        row = new JsonArray();
+        row.add(new JsonPrimitive("1001"));
+        rows.add(row);
+        store.append(rows, 0);
+        store.close();
+        SampleSet samples = SampleStore.read(directory, "position", 0, 2000);
+        Assert.assertEquals(2, samples.size());
+        Assert.assertEquals(2, samples.columns());
+        Assert.assertEquals(59.9f, samples.value(0, 0), 0);
+        Assert.assertTrue(Float.isNaN(samples.value(0, 1)));
+        Assert.assertTrue(Float.isNaN(samples.value(1, 0)));
+    }
+
+    @Test
+    public void testMissingStoreIsEmpty() throws Exception {
+        Assert.assertEquals(0, SampleStore.read(directory, "accelerometer", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testDeleteOnlyRemovesSamplesOfDetector() throws Exception {
+        SampleStore gyroscope = new SampleStore(directory, "gyroscope", 1024 * 1024, 100, 60000);
+        gyroscope.append(rows(1000, 100), 0);
+        gyroscope.close();
+        SampleStore accelerometer = new SampleStore(directory, "accelerometer", 1024 * 1024, 100, 60000);
+        accelerometer.append(rows(1000, 100), 0);
+        accelerometer.close();
+        SampleStore.delete(directory, "gyroscope");
+        Assert.assertEquals(0, SampleStore.read(directory, "gyroscope", 0, Long.MAX_VALUE).size());
+        Assert.assertEquals(100, SampleStore.read(directory, "accelerometer", 0, Long.MAX_VALUE).size());
+        SampleStore.deleteAll(directory);
+        Assert.assertEquals(0, SampleStore.read(directory, "accelerometer", 0, Long.MAX_VALUE).size());
+        String[] left = directory.list();
+        Assert.assertNotNull(left);
+        Assert.assertEquals(0, left.length);
+    }
+}
@@ -0,0 +1,199 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.StorageQuota;
+import com.telenor.possumlib.utils.UploadIndex;
+import com.telenor.possumlib.utils.codec.Codecs;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class StorageQuotaTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File uploadDir;
+    private UploadIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        uploadDir = folder.newFolder("Upload");
+        index = new UploadIndex(uploadDir, new File(folder.getRoot(), "uploadIndex"));
+    }
+
+    private File stagedZip(String bucketKey, int lines) throws Exception {
+        File file = new File(uploadDir, bucketKey.replace('/', '#'));
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file));
+        output.putNextEntry(new ZipEntry("accelerometer"));
+        // Random values, so the zip does not compress to nothing
+        Random random = new Random(lines);
+        for (int i = 0; i < lines; i++) {
+            output.write(("[" + i + "," + random.nextFloat() + "," + random.nextFloat() + "]\r\n").getBytes());
+        }
+        output.close();
+        index.staged(file);
+        return file;
+    }
+
+    private File encodedZip(String bucketKey, int bytes) throws Exception {
+        File file = new File(uploadDir, bucketKey.replace('/', '#'));
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file));
+        output.putNextEntry(new ZipEntry("accelerometer." + Codecs.MOTION.name()));
+        byte[] data = new byte[bytes];
+        new Random(bytes).nextBytes(data);
+        output.write(data);
+        output.close();
+        index.staged(file);
+        return file;
+    }
+
+    private File consentFile() throws Exception {
+        File file = new File(uploadDir, "consent#user");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[100]);
+        output.close();
+        index.staged(file);
+        return file;
+    }
+
+    @Test
+    public void testNothingEvictedWithinLimits() throws Exception {
+        File file = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 100);
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, 1024 * 1024);
+        Assert.assertEquals(0, quota.enforce("accelerometer", StorageQuota.EVICT_OLDEST));
+        Assert.assertTrue(file.exists());
+    }
+
+    @Test
+    public void testOldestEvictedOverDetectorLimit() throws Exception {
+        File first = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 100);
+        File second = stagedZip("possumlibdata/1.0/accelerometer/user/2.zip", 100);
+        File other = stagedZip("possumlibdata/1.0/gyroscope/user/1.zip", 100);
+        long size = first.length();
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, second.length() + 1);
+        Assert.assertEquals(1, quota.enforce("accelerometer", StorageQuota.EVICT_OLDEST));
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+        Assert.assertTrue(other.exists());
+        Assert.assertEquals(1, index.count("accelerometer"));
+        JsonObject json = quota.toJson("accelerometer");
+        Assert.assertEquals(1, json.get("evictedFiles").getAsInt());
+        Assert.assertEquals(size, json.get("evictedBytes").getAsLong());
+        Assert.assertEquals(0, quota.toJson("gyroscope").get("evictedFiles").getAsInt());
+    }
+
+    @Test
+    public void testGlobalLimitSparesConsent() throws Exception {
+        File consent = consentFile();
+        File first = stagedZip("possumlibdata/1.0/gyroscope/user/1.zip", 100);
+        File second = stagedZip("possumlibdata/1.0/accelerometer/user/2.zip", 100);
+        StorageQuota quota = new StorageQuota(index, consent.length() + second.length(), 1024 * 1024);
+        Assert.assertEquals(1, quota.enforce("accelerometer", StorageQuota.EVICT_OLDEST));
+        Assert.assertTrue(consent.exists());
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+    }
+
+    @Test
+    public void testEvictionsPerCallAreBounded() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            stagedZip("possumlibdata/1.0/accelerometer/user/" + i + ".zip", 10);
+        }
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, 1);
+        Assert.assertEquals(4, quota.enforce("accelerometer", StorageQuota.EVICT_OLDEST));
+        Assert.assertEquals(6, index.count("accelerometer"));
+    }
+
+    @Test
+    public void testEnforceInBackground() throws Exception {
+        File first = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 100);
+        File second = stagedZip("possumlibdata/1.0/accelerometer/user/2.zip", 100);
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, second.length() + 1);
+        quota.enforceInBackground("accelerometer", StorageQuota.EVICT_OLDEST);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (first.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+    }
+
+    @Test
+    public void testDownsampleKeepsEveryOtherLine() throws Exception {
+        File file = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 10);
+        File output = new File(folder.getRoot(), "downsampled.zip");
+        Assert.assertTrue(StorageQuota.downsample(file, output));
+        ZipInputStream input = new ZipInputStream(new FileInputStream(output));
+        Assert.assertEquals("accelerometer", input.getNextEntry().getName());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        for (int i = 0; i < 10; i += 2) {
+            Assert.assertTrue(reader.readLine().startsWith("[" + i + ","));
+        }
+        Assert.assertNull(reader.readLine());
+        reader.close();
+    }
+
+    @Test
+    public void testLargeMotionFilesAreDownsampled() throws Exception {
+        File first = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 20000);
+        File second = stagedZip("possumlibdata/1.0/accelerometer/user/2.zip", 100);
+        long size = first.length();
+        Assert.assertTrue(size > 64 * 1024);
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024 * 1024, size);
+        Assert.assertEquals(1, quota.enforce("accelerometer", StorageQuota.EVICT_DOWNSAMPLE));
+        Assert.assertTrue(first.exists());
+        Assert.assertTrue(first.length() < size);
+        Assert.assertTrue(second.exists());
+        Assert.assertEquals(first.length() + second.length(), index.bytes("accelerometer"));
+        Assert.assertEquals(first, index.files("accelerometer").get(0));
+        JsonObject json = quota.toJson("accelerometer");
+        Assert.assertEquals(1, json.get("downsampledFiles").getAsInt());
+        Assert.assertEquals(0, json.get("evictedFiles").getAsInt());
+        Assert.assertEquals(size - first.length(), json.get("evictedBytes").getAsLong());
+    }
+
+    @Test
+    public void testEncodedMotionFilesAreEvictedWhole() throws Exception {
+        File first = encodedZip("possumlibdata/1.0/accelerometer/user/1.zip", 200 * 1024);
+        File second = encodedZip("possumlibdata/1.0/accelerometer/user/2.zip", 1024);
+        Assert.assertFalse(StorageQuota.downsample(first, new File(folder.getRoot(), "downsampled.zip")));
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024 * 1024, first.length());
+        Assert.assertEquals(1, quota.enforce("accelerometer", StorageQuota.EVICT_DOWNSAMPLE));
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+        Assert.assertEquals(1, quota.toJson("accelerometer").get("evictedFiles").getAsInt());
+    }
+
+    @Test
+    public void testSmallMotionFilesAreDeleted() throws Exception {
+        File file = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 100);
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, 1);
+        Assert.assertEquals(1, quota.enforce("accelerometer", StorageQuota.EVICT_DOWNSAMPLE));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testDetectorLimitOverride() throws Exception {
+        File file = stagedZip("possumlibdata/1.0/accelerometer/user/1.zip", 100);
+        StorageQuota quota = new StorageQuota(index, 1024 * 1024, 1);
+        quota.setDetectorLimit("accelerometer", 1024 * 1024);
+        Assert.assertEquals(1024 * 1024, quota.detectorLimit("accelerometer"));
+        Assert.assertEquals(0, quota.enforce("accelerometer", StorageQuota.EVICT_OLDEST));
+        Assert.assertTrue(file.exists());
+    }
+}
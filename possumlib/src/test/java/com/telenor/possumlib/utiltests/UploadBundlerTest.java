@@ -0,0 +1,77 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.UploadBundler;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class UploadBundlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File stagedFile(String bucketKey, int size) throws Exception {
+        File file = folder.newFile(bucketKey.replace('/', '#'));
+        FileOutputStream output = new FileOutputStream(file);
+        for (int i = 0; i < size; i++) {
+            output.write(i);
+        }
+        output.close();
+        return file;
+    }
+
+    private static byte[] read(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        Assert.assertEquals(data.length, input.read(data));
+        input.close();
+        return data;
+    }
+
+    @Test
+    public void testBundleableFiles() throws Exception {
+        Assert.assertTrue(UploadBundler.isBundleable(stagedFile("possumlibdata/1.0/hardware/user/1.zip", 100)));
+        Assert.assertFalse(UploadBundler.isBundleable(stagedFile("possumlibdata/1.0/Accelerometer/user/1.zip", 100 * 1024)));
+        Assert.assertFalse(UploadBundler.isBundleable(stagedFile("consent/user", 10)));
+        Assert.assertFalse(UploadBundler.isBundleable(stagedFile("possumlibdata/1.0/MetaData/user/1.zip", 100)));
+        Assert.assertFalse(UploadBundler.isBundleable(stagedFile("possumlibdata/1.0/bundle/user/1.zip", 100)));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File first = stagedFile("possumlibdata/1.0/hardware/user/1.zip", 100);
+        File second = stagedFile("possumlibdata/1.0/network/user/2.zip", 300);
+        File bundle = new File(folder.getRoot(), "bundle.zip");
+        UploadBundler.write(Arrays.asList(first, second), bundle);
+
+        File output = folder.newFolder("unpacked");
+        Map<String, File> unpacked = UploadBundler.unpack(bundle, output);
+        Assert.assertEquals(2, unpacked.size());
+        Assert.assertArrayEquals(read(first), read(unpacked.get("possumlibdata/1.0/hardware/user/1.zip")));
+        Assert.assertArrayEquals(read(second), read(unpacked.get("possumlibdata/1.0/network/user/2.zip")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBundleWithoutManifestFails() throws Exception {
+        File bundle = new File(folder.getRoot(), "plain.zip");
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(bundle));
+        output.putNextEntry(new ZipEntry("something"));
+        output.write(1);
+        output.closeEntry();
+        output.close();
+        UploadBundler.unpack(bundle, folder.newFolder("unpacked"));
+    }
+}
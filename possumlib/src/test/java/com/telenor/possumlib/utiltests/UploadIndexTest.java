@@ -0,0 +1,112 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class UploadIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File uploadDir;
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        uploadDir = folder.newFolder("Upload");
+        journal = new File(folder.getRoot(), "uploadIndex");
+    }
+
+    private File stagedFile(String bucketKey, int size) throws Exception {
+        File file = new File(uploadDir, bucketKey.replace('/', '#'));
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[size]);
+        output.close();
+        return file;
+    }
+
+    @Test
+    public void testDetectorFromFileName() throws Exception {
+        Assert.assertEquals("Accelerometer", UploadIndex.detectorOf("possumlibdata#1.0#Accelerometer#user#123.zip"));
+        Assert.assertEquals("", UploadIndex.detectorOf("consent#user"));
+    }
+
+    @Test
+    public void testCountsStagedAndRemovedFiles() throws Exception {
+        UploadIndex index = new UploadIndex(uploadDir, journal);
+        File first = stagedFile("possumlibdata/1.0/Accelerometer/user/1.zip", 100);
+        File second = stagedFile("possumlibdata/1.0/Accelerometer/user/2.zip", 50);
+        File consent = stagedFile("consent/user", 10);
+        index.staged(first);
+        index.staged(second);
+        index.staged(consent);
+        Assert.assertEquals(150, index.bytes("Accelerometer"));
+        Assert.assertEquals(2, index.count("Accelerometer"));
+        Assert.assertEquals(160, index.totalBytes());
+        Assert.assertEquals(3, index.files().size());
+        Assert.assertEquals(first, index.files("Accelerometer").get(0));
+
+        Assert.assertTrue(first.delete());
+        index.removed(first);
+        Assert.assertEquals(50, index.bytes("Accelerometer"));
+        Assert.assertEquals(1, index.count("Accelerometer"));
+    }
+
+    @Test
+    public void testIndexSurvivesRestart() throws Exception {
+        UploadIndex index = new UploadIndex(uploadDir, journal);
+        File first = stagedFile("possumlibdata/1.0/Gyroscope/user/1.zip", 30);
+        File second = stagedFile("possumlibdata/1.0/Gyroscope/user/2.zip", 40);
+        index.staged(first);
+        index.staged(second);
+        index.removed(first);
+        UploadIndex reloaded = new UploadIndex(uploadDir, journal);
+        Assert.assertEquals(40, reloaded.bytes("Gyroscope"));
+        Assert.assertEquals(1, reloaded.files().size());
+    }
+
+    @Test
+    public void testMissingJournalIsRebuiltFromDirectory() throws Exception {
+        stagedFile("possumlibdata/1.0/Image/user/1.zip", 25);
+        UploadIndex index = new UploadIndex(uploadDir, journal);
+        Assert.assertEquals(25, index.bytes("Image"));
+        Assert.assertTrue(journal.exists());
+    }
+
+    @Test
+    public void testVanishedFilesAreDropped() throws Exception {
+        UploadIndex index = new UploadIndex(uploadDir, journal);
+        File file = stagedFile("possumlibdata/1.0/Image/user/1.zip", 25);
+        index.staged(file);
+        Assert.assertTrue(file.delete());
+        UploadIndex reloaded = new UploadIndex(uploadDir, journal);
+        Assert.assertEquals(0, reloaded.files().size());
+        Assert.assertEquals(0, reloaded.bytes("Image"));
+    }
+
+    @Test
+    public void testDetectorListingKeepsStagedOrder() throws Exception {
+        UploadIndex index = new UploadIndex(uploadDir, journal);
+        File first = stagedFile("possumlibdata/1.0/Wifi/user/1.zip", 10);
+        File other = stagedFile("possumlibdata/1.0/Image/user/1.zip", 10);
+        File second = stagedFile("possumlibdata/1.0/Wifi/user/2.zip", 10);
+        index.staged(first);
+        index.staged(other);
+        index.staged(second);
+        Assert.assertEquals(2, index.files("Wifi").size());
+        Assert.assertEquals(first, index.files("Wifi").get(0));
+        Assert.assertEquals(second, index.files("Wifi").get(1));
+        index.removed(first);
+        Assert.assertEquals(1, index.files("Wifi").size());
+        Assert.assertEquals(0, index.files("Bluetooth").size());
+    }
+}
@@ -0,0 +1,87 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.UploadIndex;
+import com.telenor.possumlib.utils.UploadManifest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class UploadManifestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File uploadDir;
+    private File manifestFile;
+
+    @Before
+    public void setUp() throws Exception {
+        uploadDir = folder.newFolder("Upload");
+        manifestFile = new File(folder.getRoot(), "uploadManifest");
+    }
+
+    private File stagedFile(String bucketKey, String content) throws Exception {
+        File file = new File(uploadDir, bucketKey.replace('/', '#'));
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content.getBytes());
+        output.close();
+        return file;
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        File file = stagedFile("possumlibdata/1.0/gyroscope/user/1.zip", "abc");
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", UploadManifest.hash(file));
+    }
+
+    @Test
+    public void testUploadedFilesAreRemoved() throws Exception {
+        File uploaded = stagedFile("possumlibdata/1.0/gyroscope/user/1.zip", "first");
+        File pending = stagedFile("possumlibdata/1.0/gyroscope/user/2.zip", "second");
+        UploadIndex index = new UploadIndex(uploadDir, new File(folder.getRoot(), "uploadIndex"));
+        Assert.assertEquals(2, index.count("gyroscope"));
+        UploadManifest manifest = new UploadManifest(manifestFile, uploadDir);
+        manifest.confirmed(FileUtil.toBucketKey(uploaded), UploadManifest.hash(uploaded));
+
+        // Read back as after a restart
+        manifest = new UploadManifest(manifestFile, uploadDir);
+        Assert.assertTrue(manifest.isUploaded(FileUtil.toBucketKey(uploaded), UploadManifest.hash(uploaded)));
+        List<File> remaining = manifest.removeUploaded(Arrays.asList(uploaded, pending), index);
+        Assert.assertEquals(1, remaining.size());
+        Assert.assertEquals(pending, remaining.get(0));
+        Assert.assertFalse(uploaded.exists());
+        Assert.assertEquals(1, index.count("gyroscope"));
+    }
+
+    @Test
+    public void testChangedContentIsUploadedAgain() throws Exception {
+        File file = stagedFile("possumlibdata/1.0/gyroscope/user/1.zip", "first");
+        UploadManifest manifest = new UploadManifest(manifestFile, uploadDir);
+        manifest.confirmed(FileUtil.toBucketKey(file), UploadManifest.hash(file));
+        stagedFile("possumlibdata/1.0/gyroscope/user/1.zip", "changed");
+        Assert.assertEquals(1, manifest.removeUploaded(Arrays.asList(file), null).size());
+        Assert.assertTrue(file.exists());
+    }
+
+    @Test
+    public void testEntriesOfGoneFilesAreDropped() throws Exception {
+        File file = stagedFile("possumlibdata/1.0/gyroscope/user/1.zip", "first");
+        UploadManifest manifest = new UploadManifest(manifestFile, uploadDir);
+        manifest.confirmed(FileUtil.toBucketKey(file), UploadManifest.hash(file));
+        Assert.assertEquals(1, manifest.size());
+        Assert.assertTrue(file.delete());
+        Assert.assertTrue(manifest.removeUploaded(Arrays.<File>asList(), null).isEmpty());
+        Assert.assertEquals(0, manifest.size());
+        Assert.assertEquals(0, new UploadManifest(manifestFile, uploadDir).size());
+    }
+}
@@ -0,0 +1,99 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.UploadScheduler;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class UploadSchedulerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File stateFile;
+    private File consent;
+    private File metaData;
+    private File small;
+    private File large;
+
+    @Before
+    public void setUp() throws Exception {
+        stateFile = new File(folder.getRoot(), "uploadRetries");
+        large = stagedFile("possumlibdata/1.0/Accelerometer/user/1.zip", 100 * 1024);
+        small = stagedFile("possumlibdata/1.0/Gyroscope/user/2.zip", 1024);
+        metaData = stagedFile("possumlibdata/1.0/MetaData/user/3.zip", 2048);
+        consent = stagedFile("consent/user", 64);
+    }
+
+    private File stagedFile(String bucketKey, int size) throws Exception {
+        File file = folder.newFile(bucketKey.replace('/', '#'));
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[size]);
+        output.close();
+        return file;
+    }
+
+    @Test
+    public void testPriorities() throws Exception {
+        Assert.assertEquals(UploadScheduler.PRIORITY_CONSENT, UploadScheduler.priority(consent));
+        Assert.assertEquals(UploadScheduler.PRIORITY_CONSENT, UploadScheduler.priority(metaData));
+        Assert.assertEquals(UploadScheduler.PRIORITY_SMALL, UploadScheduler.priority(small));
+        Assert.assertEquals(UploadScheduler.PRIORITY_LARGE, UploadScheduler.priority(large));
+    }
+
+    @Test
+    public void testPlanOrdersByPriorityAndSize() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(stateFile, Long.MAX_VALUE);
+        List<File> planned = scheduler.plan(Arrays.asList(large, small, metaData, consent), 0);
+        Assert.assertEquals(Arrays.asList(metaData, consent, small, large), planned);
+    }
+
+    @Test
+    public void testPlanRespectsByteBudget() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(stateFile, 4096);
+        List<File> planned = scheduler.plan(Arrays.asList(large, small, metaData, consent), 0);
+        Assert.assertEquals(Arrays.asList(metaData, consent, small), planned);
+        // A file larger than the budget is still sent when it is the only one
+        Assert.assertEquals(Arrays.asList(large), scheduler.plan(Arrays.asList(large), 0));
+    }
+
+    @Test
+    public void testFailedFilesBackOffAndPersist() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(stateFile, Long.MAX_VALUE);
+        scheduler.failed(small, 1000);
+        scheduler.failed(small, 1000);
+        Assert.assertEquals(2, scheduler.attempts(small));
+        long retryAt = 1000 + UploadScheduler.backoff(2);
+        UploadScheduler reloaded = new UploadScheduler(stateFile, Long.MAX_VALUE);
+        Assert.assertEquals(2, reloaded.attempts(small));
+        Assert.assertFalse(reloaded.plan(Arrays.asList(small, large), retryAt - 1).contains(small));
+        Assert.assertTrue(reloaded.plan(Arrays.asList(small, large), retryAt).contains(small));
+        reloaded.succeeded(small);
+        Assert.assertEquals(0, new UploadScheduler(stateFile, Long.MAX_VALUE).attempts(small));
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMax() throws Exception {
+        Assert.assertEquals(0, UploadScheduler.backoff(0));
+        Assert.assertEquals(2 * UploadScheduler.backoff(1), UploadScheduler.backoff(2));
+        Assert.assertEquals(UploadScheduler.backoff(30), UploadScheduler.backoff(40));
+    }
+
+    @Test
+    public void testRetriesOfRemovedFilesAreForgotten() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(stateFile, Long.MAX_VALUE);
+        scheduler.failed(small, 0);
+        Assert.assertTrue(small.delete());
+        scheduler.plan(Arrays.asList(large), 0);
+        Assert.assertEquals(0, scheduler.attempts(small));
+    }
+}